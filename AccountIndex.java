@@ -0,0 +1,171 @@
+package com.sunshine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The {@code AccountIndex} class finds the accounts of a customer by status and type without scanning every account
+ * of the bank.
+ * <p>
+ * The index maps each customer ID to the customer's accounts, grouped by status and then by type. Either level can be
+ * looked up with the wildcard {@value #ANY}, so {@code get(customerId, "Active", ANY)} gives all active accounts of a
+ * customer and {@code get(customerId, ANY, "Savings")} all of the customer's savings accounts whatever their status.
+ * The accounts in every group are in the order they were added, which is the order of {@link Account#allAccounts}.
+ * <p>
+ * Lookups return immutable lists that are never changed afterwards, so a menu can iterate over them while accounts are
+ * being added or closed. Adding or closing an account rebuilds only the groups of its own customer, so every change
+ * and every lookup costs time in proportion to the accounts of one customer, not of the whole bank.
+ * <p>
+ * The shared index is built from {@link Account#allAccounts} on first use. Code that calls {@link Account#addAccount}
+ * or {@link Account#closeAccount} must then call {@link #add(Account)} or {@link #refresh(String)}.
+ * <p>
+ * Usage example:
+ * <pre>
+ * for (Account account : AccountIndex.shared().get(customer.getCustomerID(), "Active", AccountIndex.ANY)) {
+ *     System.out.println(account.getAccountId());
+ * }
+ * </pre>
+ *
+ * @version 1.0
+ */
+public class AccountIndex {
+
+    /**
+     * The wildcard that matches every status or type.
+     */
+    public static final String ANY = "*";
+
+    /**
+     * The shared index, built on first use.
+     */
+    private static volatile AccountIndex shared;
+
+    /**
+     * The accounts of each customer, keyed by customer ID.
+     */
+    private final ConcurrentHashMap<String, CustomerAccounts> byCustomer =
+            new ConcurrentHashMap<String, CustomerAccounts>();
+
+    /**
+     * Constructs a new AccountIndex of some accounts.
+     * @param accounts the accounts to index, in the order they were added
+     */
+    public AccountIndex(List<Account> accounts) {
+        Map<String, List<Account>> grouped = new HashMap<String, List<Account>>();
+        for (Account account : accounts) {
+            grouped.computeIfAbsent(account.getCustomerID(), id -> new ArrayList<Account>()).add(account);
+        }
+        for (Map.Entry<String, List<Account>> entry : grouped.entrySet()) {
+            byCustomer.put(entry.getKey(), new CustomerAccounts(entry.getValue()));
+        }
+    }
+
+    /**
+     * Gets the shared index, building it from {@link Account#allAccounts} on first use.
+     * @return the shared index
+     */
+    public static AccountIndex shared() {
+        AccountIndex index = shared;
+        if (index == null) {
+            synchronized (AccountIndex.class) {
+                index = shared;
+                if (index == null) {
+                    index = new AccountIndex(Account.allAccounts);
+                    shared = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Gets the accounts of a customer with a status and type.
+     * @param customerId the ID of the customer
+     * @param status the status, such as "Active", or {@value #ANY}
+     * @param type the type, such as "Savings", or {@value #ANY}
+     * @return the matching accounts in the order they were added, as an immutable list
+     */
+    public List<Account> get(String customerId, String status, String type) {
+        CustomerAccounts accounts = byCustomer.get(customerId);
+        if (accounts == null) {
+            return Collections.emptyList();
+        }
+        Map<String, List<Account>> byType = accounts.groups.get(status);
+        if (byType == null) {
+            return Collections.emptyList();
+        }
+        List<Account> matching = byType.get(type);
+        return matching == null ? Collections.<Account>emptyList() : matching;
+    }
+
+    /**
+     * Adds a new account. An account whose ID is already indexed is ignored, so adding an account that was already in
+     * {@link Account#allAccounts} when the index was built has no effect.
+     * @param account the account to add
+     */
+    public void add(Account account) {
+        byCustomer.compute(account.getCustomerID(), (id, current) -> {
+            List<Account> accounts = new ArrayList<Account>();
+            if (current != null) {
+                for (Account existing : current.accounts) {
+                    if (existing.getAccountId().equals(account.getAccountId())) {
+                        return current;
+                    }
+                }
+                accounts.addAll(current.accounts);
+            }
+            accounts.add(account);
+            return new CustomerAccounts(accounts);
+        });
+    }
+
+    /**
+     * Regroups the accounts of a customer after the status of one of them changed, such as after
+     * {@link Account#closeAccount(String)}.
+     * @param customerId the ID of the customer
+     */
+    public void refresh(String customerId) {
+        byCustomer.computeIfPresent(customerId, (id, current) -> new CustomerAccounts(current.accounts));
+    }
+
+    /**
+     * The accounts of one customer and their groups. Never changed once built.
+     */
+    private static class CustomerAccounts {
+
+        /**
+         * The accounts in the order they were added.
+         */
+        final List<Account> accounts;
+
+        /**
+         * The accounts grouped by status and then by type, including the {@value AccountIndex#ANY} groups.
+         */
+        final Map<String, Map<String, List<Account>>> groups;
+
+        /**
+         * Constructs a new CustomerAccounts, grouping the accounts by their current status and type.
+         * @param accounts the accounts in the order they were added
+         */
+        CustomerAccounts(List<Account> accounts) {
+            this.accounts = Collections.unmodifiableList(new ArrayList<Account>(accounts));
+            Map<String, Map<String, List<Account>>> grouped = new HashMap<String, Map<String, List<Account>>>();
+            for (Account account : this.accounts) {
+                for (String status : new String[] { account.getStatus(), ANY }) {
+                    Map<String, List<Account>> byType =
+                            grouped.computeIfAbsent(status, s -> new HashMap<String, List<Account>>());
+                    byType.computeIfAbsent(account.getType(), t -> new ArrayList<Account>()).add(account);
+                    byType.computeIfAbsent(ANY, t -> new ArrayList<Account>()).add(account);
+                }
+            }
+            for (Map<String, List<Account>> byType : grouped.values()) {
+                byType.replaceAll((type, list) -> Collections.unmodifiableList(list));
+            }
+            this.groups = grouped;
+        }
+    }
+}
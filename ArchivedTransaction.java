@@ -0,0 +1,84 @@
+package com.sunshine;
+
+/**
+ * The {@code ArchivedTransaction} class is a transaction read from a {@link TransactionArchive}.
+ * <p>
+ * It is a {@link TransactionRecord}, so archived rows are displayed by the same table code as live ones. The
+ * values are read from the memory-mapped columns of the archive when a getter is called, so creating the objects for
+ * a whole history is cheap and only the rows that are displayed are decoded.
+ *
+ * @version 1.0
+ */
+public class ArchivedTransaction implements TransactionRecord {
+
+    /**
+     * The archive the transaction is stored in.
+     */
+    private final TransactionArchive archive;
+
+    /**
+     * The row of the transaction in the archive.
+     */
+    private final int row;
+
+    /**
+     * Constructs a new ArchivedTransaction.
+     * @param archive the archive the transaction is stored in
+     * @param row the row of the transaction in the archive
+     */
+    ArchivedTransaction(TransactionArchive archive, int row) {
+        this.archive = archive;
+        this.row = row;
+    }
+
+    /**
+     * Gets the timestamp of the transaction.
+     * @return the timestamp, in the same format as in the transaction CSV file
+     */
+    @Override
+    public String getTimestamp() {
+        return archive.timestamp(row);
+    }
+
+    /**
+     * Gets the transaction ID.
+     * @return the transaction ID
+     */
+    @Override
+    public String getTransactionID() {
+        return archive.transactionId(row);
+    }
+
+    /**
+     * Gets the ID of the account of the transaction.
+     * @return the account ID
+     */
+    @Override
+    public String getAccountID() {
+        return archive.accountId(row);
+    }
+
+    /**
+     * Gets the type of the transaction.
+     * @return the transaction type, such as "Deposit"
+     */
+    @Override
+    public String getType() {
+        return archive.type(row);
+    }
+
+    /**
+     * Gets the amounts of the transaction.
+     * @return a new Balance holding the amount of the transaction in each currency
+     */
+    @Override
+    public Balance getAmount() {
+        Balance amount = new Balance();
+        amount.setSGD(archive.amount(row, 0));
+        amount.setMYR(archive.amount(row, 1));
+        amount.setAUD(archive.amount(row, 2));
+        amount.setUSD(archive.amount(row, 3));
+        amount.setGBP(archive.amount(row, 4));
+        return amount;
+    }
+}
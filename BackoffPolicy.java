@@ -0,0 +1,136 @@
+package com.sunshine;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The {@code BackoffPolicy} class decides how long a thread waits before retrying a failed compare-and-set, and when it
+ * should give up.
+ * <p>
+ * After the n-th failed attempt the thread parks for a random time between zero and the minimum pause doubled n - 1
+ * times, capped at the maximum pause. The random spread keeps threads that failed together from retrying together.
+ * After the maximum number of attempts {@link #backoff(int)} returns false and the caller reports the failure instead
+ * of retrying forever.
+ * <p>
+ * The shared policy allows {@value #DEFAULT_MAX_ATTEMPTS} attempts with pauses between
+ * {@value #DEFAULT_MIN_PAUSE_NANOS} and {@value #DEFAULT_MAX_PAUSE_NANOS} nanoseconds. They can be changed with the
+ * {@value #MAX_ATTEMPTS_PROPERTY}, {@value #MIN_PAUSE_PROPERTY} and {@value #MAX_PAUSE_PROPERTY} system properties.
+ *
+ * @version 1.0
+ */
+public class BackoffPolicy {
+
+    /**
+     * The system property that sets the maximum number of attempts of the shared policy.
+     */
+    public static final String MAX_ATTEMPTS_PROPERTY = "sunshine.balance.maxAttempts";
+
+    /**
+     * The system property that sets the minimum pause of the shared policy, in nanoseconds.
+     */
+    public static final String MIN_PAUSE_PROPERTY = "sunshine.balance.minPauseNanos";
+
+    /**
+     * The system property that sets the maximum pause of the shared policy, in nanoseconds.
+     */
+    public static final String MAX_PAUSE_PROPERTY = "sunshine.balance.maxPauseNanos";
+
+    /**
+     * The default maximum number of attempts.
+     */
+    public static final int DEFAULT_MAX_ATTEMPTS = 16;
+
+    /**
+     * The default minimum pause, in nanoseconds.
+     */
+    public static final long DEFAULT_MIN_PAUSE_NANOS = 1000;
+
+    /**
+     * The default maximum pause, in nanoseconds.
+     */
+    public static final long DEFAULT_MAX_PAUSE_NANOS = 1000000;
+
+    /**
+     * The shared policy.
+     */
+    private static final BackoffPolicy shared = new BackoffPolicy(
+            Integer.getInteger(MAX_ATTEMPTS_PROPERTY, DEFAULT_MAX_ATTEMPTS),
+            Long.getLong(MIN_PAUSE_PROPERTY, DEFAULT_MIN_PAUSE_NANOS),
+            Long.getLong(MAX_PAUSE_PROPERTY, DEFAULT_MAX_PAUSE_NANOS));
+
+    /**
+     * The maximum number of attempts.
+     */
+    private final int maxAttempts;
+
+    /**
+     * The pause after the first failed attempt, in nanoseconds.
+     */
+    private final long minPauseNanos;
+
+    /**
+     * The longest pause, in nanoseconds.
+     */
+    private final long maxPauseNanos;
+
+    /**
+     * Constructs a new BackoffPolicy.
+     * @param maxAttempts the maximum number of attempts, at least 1
+     * @param minPauseNanos the pause after the first failed attempt, in nanoseconds
+     * @param maxPauseNanos the longest pause, in nanoseconds
+     */
+    public BackoffPolicy(int maxAttempts, long minPauseNanos, long maxPauseNanos) {
+        if (maxAttempts < 1 || minPauseNanos < 0 || maxPauseNanos < minPauseNanos) {
+            throw new IllegalArgumentException("Invalid backoff policy: " + maxAttempts + ", " + minPauseNanos + ", "
+                    + maxPauseNanos);
+        }
+        this.maxAttempts = maxAttempts;
+        this.minPauseNanos = minPauseNanos;
+        this.maxPauseNanos = maxPauseNanos;
+    }
+
+    /**
+     * Gets the shared policy.
+     * @return the shared policy
+     */
+    public static BackoffPolicy shared() {
+        return shared;
+    }
+
+    /**
+     * Waits before the next attempt, unless the maximum number of attempts has been reached.
+     * @param failedAttempts the number of attempts that have failed so far, starting at 1
+     * @return true if the caller may try again, false if it should give up
+     */
+    public boolean backoff(int failedAttempts) {
+        if (failedAttempts >= maxAttempts) {
+            return false;
+        }
+        pause(failedAttempts);
+        return true;
+    }
+
+    /**
+     * Waits before the next attempt regardless of the maximum number of attempts. Used by operations that must not give
+     * up, such as crediting the money already taken from another account.
+     * @param failedAttempts the number of attempts that have failed so far, starting at 1
+     */
+    public void pause(int failedAttempts) {
+        // Never shift a bit into the sign, so the ceiling cannot overflow however many attempts failed
+        int doublings = Math.min(Math.max(failedAttempts - 1, 0), Long.numberOfLeadingZeros(minPauseNanos) - 1);
+        long ceiling = Math.min(maxPauseNanos, minPauseNanos << doublings);
+        if (ceiling <= 0) {
+            Thread.yield();
+            return;
+        }
+        LockSupport.parkNanos(ThreadLocalRandom.current().nextLong(ceiling + 1));
+    }
+
+    /**
+     * Gets the maximum number of attempts.
+     * @return the maximum number of attempts
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+}
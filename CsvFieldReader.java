@@ -0,0 +1,332 @@
+package com.sunshine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.text.ParseException;
+import java.util.Arrays;
+
+/**
+ * The {@code CsvFieldReader} class is a streaming CSV tokenizer that only extracts the columns it is asked for.
+ * <p>
+ * Characters are read into a single reused {@code char[]} buffer and scanned in place. Fields in columns that were
+ * not requested are skipped without being copied, so reading a wide file only creates Strings for the requested
+ * columns instead of a full {@code String[]} per row as {@link String#split(String)} does.
+ * <p>
+ * Fields may be quoted with double quotes. A quoted field may contain commas, line breaks, and escaped quotes written
+ * as two double quotes. Blank lines are skipped. A row that has fewer columns than requested, an unterminated quote,
+ * or text after a closing quote raises a {@link ParseException} whose error offset is the line number of the row.
+ * <p>
+ * Usage example:
+ * <pre>
+ * try (CsvFieldReader csv = new CsvFieldReader(new FileReader(path), 1, 5)) {
+ *     csv.skipHeader();
+ *     while (csv.next()) {
+ *         String username = csv.get(0);  // column 1
+ *         String secretKey = csv.get(1); // column 5
+ *     }
+ * }
+ * </pre>
+ *
+ * @version 1.0
+ */
+public class CsvFieldReader implements Closeable {
+
+    /**
+     * The size of the character buffer.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The source of characters.
+     */
+    private final Reader in;
+
+    /**
+     * The reused character buffer.
+     */
+    private final char[] buffer;
+
+    /**
+     * The index of the next character to read from the buffer.
+     */
+    private int pos;
+
+    /**
+     * The number of valid characters in the buffer.
+     */
+    private int limit;
+
+    /**
+     * True once the underlying reader has been exhausted.
+     */
+    private boolean eof;
+
+    /**
+     * Maps a column index to its position in the requested columns, or -1 if the column was not requested.
+     */
+    private final int[] slotForColumn;
+
+    /**
+     * The number of columns a row must have so that all requested columns are present.
+     */
+    private final int requiredColumns;
+
+    /**
+     * The values of the requested columns for the current row.
+     */
+    private final String[] values;
+
+    /**
+     * The reused builder for the field being read.
+     */
+    private final StringBuilder field = new StringBuilder();
+
+    /**
+     * The line number of the current row.
+     */
+    private int lineNumber;
+
+    /**
+     * The line number of the next character to be read.
+     */
+    private int nextLineNumber = 1;
+
+    /**
+     * Constructs a new CsvFieldReader that extracts the given columns.
+     * <p>
+     * The values of the requested columns are returned by {@link #get(int)} in the order the columns are given here.
+     * </p>
+     * @param in the reader to read the CSV data from
+     * @param columns the zero-based indexes of the columns to extract
+     */
+    public CsvFieldReader(Reader in, int... columns) {
+        if (columns.length == 0) {
+            throw new IllegalArgumentException("At least one column must be requested");
+        }
+        int maxColumn = -1;
+        for (int column : columns) {
+            if (column < 0) {
+                throw new IllegalArgumentException("Invalid column index: " + column);
+            }
+            maxColumn = Math.max(maxColumn, column);
+        }
+        this.in = in;
+        this.buffer = new char[BUFFER_SIZE];
+        this.slotForColumn = new int[maxColumn + 1];
+        Arrays.fill(slotForColumn, -1);
+        for (int slot = 0; slot < columns.length; slot++) {
+            slotForColumn[columns[slot]] = slot;
+        }
+        this.requiredColumns = maxColumn + 1;
+        this.values = new String[columns.length];
+    }
+
+    /**
+     * Reads and discards the header row.
+     * @return true if a header row was read, false if the input is empty
+     * @throws IOException if an I/O error occurs when reading the input
+     * @throws ParseException if the header row contains an unterminated quote
+     */
+    public boolean skipHeader() throws IOException, ParseException {
+        return readRow(false);
+    }
+
+    /**
+     * Advances to the next row and extracts the requested columns.
+     * @return true if a row was read, false if the end of the input has been reached
+     * @throws IOException if an I/O error occurs when reading the input
+     * @throws ParseException if the row is malformed or has fewer columns than requested
+     */
+    public boolean next() throws IOException, ParseException {
+        return readRow(true);
+    }
+
+    /**
+     * Gets the value of a requested column for the current row.
+     * @param slot the position of the column in the list of requested columns
+     * @return the value of the column
+     */
+    public String get(int slot) {
+        return values[slot];
+    }
+
+    /**
+     * Gets the line number of the current row.
+     * @return the line number of the current row, starting from 1
+     */
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * Closes the underlying reader.
+     * @throws IOException if an I/O error occurs when closing the reader
+     */
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Reads the next non-blank row.
+     * @param validate true to check that the row has all requested columns
+     * @return true if a row was read, false if the end of the input has been reached
+     * @throws IOException if an I/O error occurs when reading the input
+     * @throws ParseException if the row is malformed
+     */
+    private boolean readRow(boolean validate) throws IOException, ParseException {
+        while (true) {
+            int c = peek();
+            if (c < 0) {
+                return false;
+            }
+            if (c == '\n' || c == '\r') {
+                consumeLineBreak(); // Skip blank lines
+                continue;
+            }
+            break;
+        }
+        lineNumber = nextLineNumber;
+        Arrays.fill(values, null);
+        int column = 0;
+        while (true) {
+            int slot = column < slotForColumn.length ? slotForColumn[column] : -1;
+            int terminator = readField(slot);
+            column++;
+            if (terminator != ',') {
+                if (terminator != -1) {
+                    consumeLineBreak();
+                }
+                break;
+            }
+        }
+        if (validate && column < requiredColumns) {
+            throw new ParseException("Line " + lineNumber + ": expected at least " + requiredColumns
+                    + " columns but found " + column, lineNumber);
+        }
+        return true;
+    }
+
+    /**
+     * Reads one field and stores it if its column was requested.
+     * @param slot the position of the column in the list of requested columns, or -1 to skip the field
+     * @return the character that ended the field (a comma or a line break), or -1 at the end of the input
+     * @throws IOException if an I/O error occurs when reading the input
+     * @throws ParseException if the field is malformed
+     */
+    private int readField(int slot) throws IOException, ParseException {
+        boolean keep = slot >= 0;
+        if (keep) {
+            field.setLength(0);
+        }
+        int c = peek();
+        if (c == '"') {
+            pos++;
+            while (true) {
+                c = read();
+                if (c < 0) {
+                    throw new ParseException("Line " + lineNumber + ": unterminated quoted field", lineNumber);
+                }
+                if (c == '"') {
+                    if (peek() == '"') {
+                        pos++; // Escaped quote
+                    } else {
+                        break;
+                    }
+                } else if (c == '\n') {
+                    nextLineNumber++;
+                }
+                if (keep) {
+                    field.append((char) c);
+                }
+            }
+            c = peek();
+            if (c >= 0 && c != ',' && c != '\n' && c != '\r') {
+                throw new ParseException("Line " + lineNumber + ": unexpected character after closing quote",
+                        lineNumber);
+            }
+        } else {
+            while (c >= 0 && c != ',' && c != '\n' && c != '\r') {
+                // Scan the buffered run directly instead of going through peek() for every character
+                int start = pos;
+                while (pos < limit) {
+                    char ch = buffer[pos];
+                    if (ch == ',' || ch == '\n' || ch == '\r') {
+                        break;
+                    }
+                    pos++;
+                }
+                if (keep) {
+                    field.append(buffer, start, pos - start);
+                }
+                c = peek();
+            }
+        }
+        if (keep) {
+            values[slot] = field.toString();
+        }
+        if (c == ',') {
+            pos++;
+        }
+        return c;
+    }
+
+    /**
+     * Consumes a line break, treating "\r\n" as a single line break.
+     * @throws IOException if an I/O error occurs when reading the input
+     */
+    private void consumeLineBreak() throws IOException {
+        int c = read();
+        if (c == '\r' && peek() == '\n') {
+            pos++;
+        }
+        nextLineNumber++;
+    }
+
+    /**
+     * Returns the next character without consuming it.
+     * @return the next character, or -1 at the end of the input
+     * @throws IOException if an I/O error occurs when reading the input
+     */
+    private int peek() throws IOException {
+        if (pos >= limit && !fill()) {
+            return -1;
+        }
+        return buffer[pos];
+    }
+
+    /**
+     * Consumes and returns the next character.
+     * @return the next character, or -1 at the end of the input
+     * @throws IOException if an I/O error occurs when reading the input
+     */
+    private int read() throws IOException {
+        if (pos >= limit && !fill()) {
+            return -1;
+        }
+        return buffer[pos++];
+    }
+
+    /**
+     * Refills the buffer from the underlying reader.
+     * @return true if at least one character was read, false at the end of the input
+     * @throws IOException if an I/O error occurs when reading the input
+     */
+    private boolean fill() throws IOException {
+        if (eof) {
+            return false;
+        }
+        int n;
+        do {
+            n = in.read(buffer, 0, buffer.length);
+        } while (n == 0);
+        if (n < 0) {
+            eof = true;
+            return false;
+        }
+        pos = 0;
+        limit = n;
+        return true;
+    }
+}
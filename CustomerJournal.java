@@ -0,0 +1,589 @@
+package com.sunshine;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * The {@code CustomerJournal} class persists single-field changes to the customer CSV file without rewriting it.
+ * <p>
+ * Every change, such as a new password hash or a new 2FA secret key, is appended to a journal file next to the
+ * customer CSV (the snapshot) as one line holding the username, the column index, the new value and a CRC32 checksum,
+ * and the journal is forced to disk before the call returns. A change therefore costs one small append instead of a
+ * rewrite of every customer.
+ * <p>
+ * Once {@value #DEFAULT_COMPACT_THRESHOLD} changes have been journaled (configurable with the
+ * {@value #COMPACT_THRESHOLD_PROPERTY} system property), the journal is renamed and a background thread folds it into
+ * a new snapshot. The new snapshot is written to a temporary file and moved over the old one atomically, and the
+ * renamed journal is only deleted after the move, so a crash at any point leaves a snapshot plus journal entries that
+ * replay to the same state. Replaying an entry twice is harmless because entries hold values rather than deltas.
+ * <p>
+ * On startup, {@link #replay(String)} applies the journal to the {@code Customer} and {@code Security} objects that
+ * were loaded from the snapshot. A line with a bad checksum can only be the last one written before a crash; it is
+ * ignored and cut off.
+ * <p>
+ * Note: like {@link SecurityCsvLoader}, compaction assumes that rows of the customer CSV do not contain line breaks
+ * inside quoted fields. If the snapshot is rewritten by {@code Customer.saveArrayListToCSV()} while a compaction is
+ * running, the compaction backs off and is retried later.
+ * <p>
+ * Usage example:
+ * <pre>
+ * CustomerJournal.replay("./resources/customer.csv");
+ * customer.setPassword(newHash);
+ * CustomerJournal.shared().recordPassword(customer.getUsername(), newHash);
+ * </pre>
+ *
+ * @version 1.0
+ */
+public class CustomerJournal {
+
+    /**
+     * The system property that sets the number of journaled changes that triggers a compaction.
+     */
+    public static final String COMPACT_THRESHOLD_PROPERTY = "sunshine.customer.compactThreshold";
+
+    /**
+     * The default number of journaled changes that triggers a compaction.
+     */
+    public static final int DEFAULT_COMPACT_THRESHOLD = 1000;
+
+    /**
+     * The path of the customer CSV file used when the journal is opened without {@link #replay(String)}.
+     */
+    public static final String DEFAULT_SNAPSHOT_PATH = "./resources/customer.csv";
+
+    /**
+     * The index of the password column in the customer CSV file.
+     */
+    static final int PASSWORD_COLUMN = 2;
+
+    /**
+     * The index of the secret key column in the customer CSV file.
+     */
+    static final int SECRET_KEY_COLUMN = Security.CSV_SECRET_KEY_COLUMN;
+
+    /**
+     * The value written for a missing secret key, which {@link Security#getSecretKey()} reads back as null.
+     */
+    private static final String NULL_VALUE = "null";
+
+    /**
+     * How long the compactor thread waits for more work before it stops, in seconds.
+     */
+    private static final long COMPACTOR_KEEP_ALIVE_SECONDS = 5;
+
+    /**
+     * The shared journal, created on first use.
+     */
+    private static volatile CustomerJournal shared;
+
+    /**
+     * The customer CSV file.
+     */
+    private final Path snapshot;
+
+    /**
+     * The journal that new changes are appended to.
+     */
+    private final Path journal;
+
+    /**
+     * A journal that has been rotated out and is waiting to be folded into the snapshot.
+     */
+    private final Path rotated;
+
+    /**
+     * The temporary file the next snapshot is written to.
+     */
+    private final Path tmpSnapshot;
+
+    /**
+     * The number of journaled changes that triggers a compaction.
+     */
+    private final int compactThreshold;
+
+    /**
+     * The single thread that folds rotated journals into the snapshot.
+     */
+    private final ExecutorService compactor;
+
+    /**
+     * The channel of the open journal, guarded by this object.
+     */
+    private FileChannel channel;
+
+    /**
+     * The number of changes in the open journal, guarded by this object.
+     */
+    private int journaledChanges;
+
+    /**
+     * Constructs a new CustomerJournal for a customer CSV file and opens its journal.
+     * <p>
+     * The journal is kept in the same directory, in a file named after the snapshot with a {@code .journal} suffix.
+     * </p>
+     * @param snapshotPath the path to the customer CSV file
+     * @param compactThreshold the number of journaled changes that triggers a compaction
+     * @throws IOException if the journal cannot be opened
+     */
+    public CustomerJournal(String snapshotPath, int compactThreshold) throws IOException {
+        if (compactThreshold < 1) {
+            throw new IllegalArgumentException("Compaction threshold must be at least 1: " + compactThreshold);
+        }
+        this.snapshot = Paths.get(snapshotPath);
+        this.journal = Paths.get(snapshotPath + ".journal");
+        this.rotated = Paths.get(snapshotPath + ".journal.compacting");
+        this.tmpSnapshot = Paths.get(snapshotPath + ".tmp");
+        this.compactThreshold = compactThreshold;
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, COMPACTOR_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), runnable -> new Thread(runnable, "customer-compactor"));
+        executor.allowCoreThreadTimeOut(true);
+        this.compactor = executor;
+
+        // Cut off a torn last line, so that new entries start on a line of their own
+        List<Entry> entries = new ArrayList<Entry>();
+        long validLength = readEntries(journal, entries);
+        this.channel = FileChannel.open(journal, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.truncate(validLength);
+        channel.position(validLength);
+        this.journaledChanges = entries.size();
+    }
+
+    /**
+     * Gets the shared journal, opening the journal of {@value #DEFAULT_SNAPSHOT_PATH} if {@link #replay(String)} has
+     * not been called.
+     * @return the shared journal
+     * @throws IOException if the journal cannot be opened
+     */
+    public static CustomerJournal shared() throws IOException {
+        CustomerJournal journal = shared;
+        if (journal == null) {
+            synchronized (CustomerJournal.class) {
+                journal = shared;
+                if (journal == null) {
+                    journal = new CustomerJournal(DEFAULT_SNAPSHOT_PATH,
+                            Integer.getInteger(COMPACT_THRESHOLD_PROPERTY, DEFAULT_COMPACT_THRESHOLD));
+                    shared = journal;
+                }
+            }
+        }
+        return journal;
+    }
+
+    /**
+     * Opens the shared journal of a customer CSV file and applies its changes to the loaded customers.
+     * <p>
+     * This is called after the customers and the Security registry have been loaded from the snapshot. Changes that
+     * are still waiting to be folded into the snapshot are replayed first, followed by the open journal. If there are
+     * any, a compaction is started in the background.
+     * </p>
+     * @param snapshotPath the path to the customer CSV file
+     * @return the number of changes applied
+     * @throws IOException if the journal cannot be read
+     */
+    public static int replay(String snapshotPath) throws IOException {
+        CustomerJournal journal;
+        synchronized (CustomerJournal.class) {
+            journal = shared;
+            if (journal == null || !journal.snapshot.equals(Paths.get(snapshotPath))) {
+                if (journal != null) {
+                    journal.close();
+                }
+                journal = new CustomerJournal(snapshotPath,
+                        Integer.getInteger(COMPACT_THRESHOLD_PROPERTY, DEFAULT_COMPACT_THRESHOLD));
+                shared = journal;
+            }
+        }
+        return journal.recover();
+    }
+
+    /**
+     * Applies every change in the rotated and open journals to the loaded customers.
+     * @return the number of changes applied
+     * @throws IOException if a journal cannot be read
+     */
+    public int recover() throws IOException {
+        List<Entry> entries = new ArrayList<Entry>();
+        readEntries(rotated, entries);
+        readEntries(journal, entries);
+        int applied = 0;
+        for (Entry entry : entries) {
+            if (apply(entry)) {
+                applied++;
+            }
+        }
+        if (!entries.isEmpty()) {
+            compactAsync();
+        }
+        return applied;
+    }
+
+    /**
+     * Journals a new password hash for a customer.
+     * @param username the username of the customer
+     * @param passwordHash the new stored password hash
+     * @throws IOException if the change cannot be written to the journal
+     */
+    public void recordPassword(String username, String passwordHash) throws IOException {
+        record(username, PASSWORD_COLUMN, passwordHash);
+    }
+
+    /**
+     * Journals a new 2FA secret key for a customer.
+     * @param username the username of the customer
+     * @param secretKey the new secret key, or null if 2FA has been disabled
+     * @throws IOException if the change cannot be written to the journal
+     */
+    public void recordSecretKey(String username, String secretKey) throws IOException {
+        record(username, SECRET_KEY_COLUMN, secretKey);
+    }
+
+    /**
+     * Appends a change to the journal and forces it to disk.
+     * @param username the username of the customer
+     * @param column the index of the changed column
+     * @param value the new value of the column
+     * @throws IOException if the change cannot be written to the journal
+     */
+    public void record(String username, int column, String value) throws IOException {
+        String line = new Entry(username, column, value == null ? NULL_VALUE : value).toLine();
+        ByteBuffer bytes = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+        boolean compact;
+        synchronized (this) {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            channel.force(false);
+            compact = ++journaledChanges >= compactThreshold;
+        }
+        if (compact) {
+            compactAsync();
+        }
+    }
+
+    /**
+     * Gets the number of changes in the open journal.
+     * @return the number of changes not yet rotated out for compaction
+     */
+    public synchronized int getJournaledChanges() {
+        return journaledChanges;
+    }
+
+    /**
+     * Rotates the open journal out and folds it into the snapshot on the background thread.
+     * @return a Future that completes when the compaction has finished
+     */
+    public Future<?> compactAsync() {
+        return compactor.submit(() -> {
+            try {
+                compact();
+            } catch (IOException e) {
+                e.printStackTrace(); // The journal is kept, so the compaction is retried later
+            }
+        });
+    }
+
+    /**
+     * Closes the journal. Changes that have not been compacted stay in the journal and are replayed on startup.
+     * @throws IOException if the journal cannot be closed
+     */
+    public void close() throws IOException {
+        compactor.shutdown();
+        synchronized (this) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Folds the rotated journal into the snapshot, first rotating the open journal out if nothing is waiting.
+     * <p>
+     * Only the compactor thread calls this method, so at most one compaction runs at a time.
+     * </p>
+     * @throws IOException if the snapshot cannot be rewritten
+     */
+    private void compact() throws IOException {
+        if (!Files.exists(rotated)) {
+            synchronized (this) {
+                if (journaledChanges == 0) {
+                    return;
+                }
+                channel.close(); // Some platforms cannot move a file that is still open
+                try {
+                    Files.move(journal, rotated, StandardCopyOption.ATOMIC_MOVE);
+                    journaledChanges = 0;
+                } finally {
+                    // Reopen even if the move failed, so that record() keeps appending to the journal
+                    channel = FileChannel.open(journal, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                            StandardOpenOption.APPEND);
+                }
+            }
+        }
+
+        // Collect the latest value of every changed field
+        List<Entry> entries = new ArrayList<Entry>();
+        readEntries(rotated, entries);
+        Map<String, Map<Integer, String>> changes = new HashMap<String, Map<Integer, String>>();
+        for (Entry entry : entries) {
+            changes.computeIfAbsent(SecurityRegistry.normalize(entry.username), key -> new HashMap<Integer, String>())
+                    .put(entry.column, entry.value);
+        }
+
+        // Write the new snapshot next to the old one, copying unchanged rows as they are
+        Charset charset = Charset.defaultCharset(); // Same charset as the FileReader used to load the snapshot
+        FileTime modified = Files.getLastModifiedTime(snapshot);
+        long size = Files.size(snapshot);
+        try (BufferedReader reader = Files.newBufferedReader(snapshot, charset);
+                BufferedWriter writer = Files.newBufferedWriter(tmpSnapshot, charset)) {
+            String line = reader.readLine();
+            boolean header = true;
+            while (line != null) {
+                if (!header && !line.isEmpty()) {
+                    List<String> fields = splitRow(line);
+                    Map<Integer, String> rowChanges = fields.size() > Security.CSV_USERNAME_COLUMN
+                            ? changes.get(SecurityRegistry.normalize(fields.get(Security.CSV_USERNAME_COLUMN)))
+                            : null;
+                    if (rowChanges != null) {
+                        for (Map.Entry<Integer, String> change : rowChanges.entrySet()) {
+                            while (fields.size() <= change.getKey()) {
+                                fields.add("");
+                            }
+                            fields.set(change.getKey(), change.getValue());
+                        }
+                        line = joinRow(fields);
+                    }
+                }
+                writer.write(line);
+                writer.newLine();
+                header = false;
+                line = reader.readLine();
+            }
+        }
+        try (FileChannel tmp = FileChannel.open(tmpSnapshot, StandardOpenOption.WRITE)) {
+            tmp.force(true);
+        }
+
+        // Back off if the snapshot was rewritten in the meantime; the rotated journal is folded next time
+        if (!modified.equals(Files.getLastModifiedTime(snapshot)) || size != Files.size(snapshot)) {
+            Files.delete(tmpSnapshot);
+            return;
+        }
+        Files.move(tmpSnapshot, snapshot, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        Files.delete(rotated);
+    }
+
+    /**
+     * Applies a journaled change to the loaded Customer or Security object.
+     * <p>
+     * A secret key that another user already owns is not applied. The change is reported and skipped, so one bad
+     * entry does not stop the bank from starting.
+     * </p>
+     * @param entry the change to apply
+     * @return true if the change was applied
+     */
+    private static boolean apply(Entry entry) {
+        if (entry.column == PASSWORD_COLUMN) {
+            Customer customer = Customer.getCustomerByUsername(entry.username);
+            if (customer != null) {
+                customer.setPassword(entry.value);
+                return true;
+            }
+        } else if (entry.column == SECRET_KEY_COLUMN && Security.allSecurity != null) {
+            Security security = Security.allSecurity.get(entry.username);
+            if (security != null) {
+                try {
+                    security.setSecretKey(entry.value);
+                    return true;
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Skipped the journaled secret key of " + entry.username + ": " + e.getMessage());
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the valid entries of a journal.
+     * @param path the path to the journal
+     * @param entries the list the entries are added to
+     * @return the length in bytes of the valid part of the journal, or 0 if it does not exist
+     * @throws IOException if the journal cannot be read
+     */
+    private static long readEntries(Path path, List<Entry> entries) throws IOException {
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        byte[] bytes = Files.readAllBytes(path);
+        int start = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] != '\n') {
+                continue;
+            }
+            Entry entry = Entry.parse(new String(bytes, start, i - start, StandardCharsets.UTF_8));
+            if (entry == null) {
+                break; // A damaged entry can only be the torn end of the journal
+            }
+            entries.add(entry);
+            start = i + 1;
+        }
+        return start;
+    }
+
+    /**
+     * Splits a CSV row into its fields, removing the quotes around quoted fields.
+     * @param line the row without its line break
+     * @return the fields of the row
+     */
+    static List<String> splitRow(String line) {
+        List<String> fields = new ArrayList<String>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    /**
+     * Joins fields into a CSV row, quoting the fields that need it.
+     * @param fields the fields of the row
+     * @return the row without a line break
+     */
+    static String joinRow(List<String> fields) {
+        StringBuilder row = new StringBuilder();
+        for (int i = 0; i < fields.size(); i++) {
+            if (i > 0) {
+                row.append(',');
+            }
+            row.append(quote(fields.get(i)));
+        }
+        return row.toString();
+    }
+
+    /**
+     * Quotes a CSV field if it contains a comma, a quote or a line break.
+     * @param value the value of the field
+     * @return the field as written in a CSV row
+     */
+    private static String quote(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * A single journaled change.
+     */
+    private static class Entry {
+
+        /**
+         * The username of the changed customer.
+         */
+        final String username;
+
+        /**
+         * The index of the changed column.
+         */
+        final int column;
+
+        /**
+         * The new value of the column.
+         */
+        final String value;
+
+        /**
+         * Constructs a new Entry.
+         * @param username the username of the changed customer
+         * @param column the index of the changed column
+         * @param value the new value of the column
+         */
+        Entry(String username, int column, String value) {
+            this.username = username;
+            this.column = column;
+            this.value = value;
+        }
+
+        /**
+         * Formats the entry as a journal line ending in a checksum and a line break.
+         * @return the journal line
+         */
+        String toLine() {
+            String body = quote(username) + "," + column + "," + quote(value);
+            return body + "," + checksum(body) + "\n";
+        }
+
+        /**
+         * Parses a journal line.
+         * @param line the journal line without its line break
+         * @return the entry, or null if the line is damaged
+         */
+        static Entry parse(String line) {
+            int comma = line.lastIndexOf(',');
+            if (comma < 0) {
+                return null;
+            }
+            String body = line.substring(0, comma);
+            if (!line.substring(comma + 1).equals(checksum(body))) {
+                return null;
+            }
+            List<String> fields = splitRow(body);
+            if (fields.size() != 3) {
+                return null;
+            }
+            try {
+                return new Entry(fields.get(0), Integer.parseInt(fields.get(1)), fields.get(2));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Computes the checksum of a journal line.
+         * @param body the journal line without its checksum
+         * @return the CRC32 of the line in hexadecimal
+         */
+        private static String checksum(String body) {
+            CRC32 crc = new CRC32();
+            crc.update(body.getBytes(StandardCharsets.UTF_8));
+            return Long.toHexString(crc.getValue());
+        }
+    }
+}
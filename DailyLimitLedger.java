@@ -0,0 +1,530 @@
+package com.sunshine;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The {@code DailyLimitLedger} class keeps a running total of how much of its daily withdrawal and transfer limits
+ * each account has used today, so the remaining limit is a lookup instead of a pass over the transaction history.
+ * <p>
+ * For every account the ledger holds one counter per kind of limit and currency, in minor units. The remaining limit
+ * is the daily limit from {@link Limits} minus the counter.
+ * <p>
+ * The counters of an account belong to one business day. The first time an account is used on a new day, its
+ * counters are seeded once from the account's transactions with a timestamp inside that business day, so amounts used
+ * before the program started are counted too. A transaction counts against a limit if its type is one of the
+ * {@link Kind}'s transaction types and its amount is negative, as the amounts taken out of an account are recorded.
+ * The seed uses the ledger's own rollover time rather than the calendar day that {@link Limits} counts by, so a
+ * withdrawal made just before a 04:00 rollover still counts against the day it belongs to.
+ * <p>
+ * A withdrawal or transfer is counted only through {@link #tryReserve(Limits, Kind, Money)}, which adds the amount to
+ * the counter by compare-and-set only if the result stays within the limit, so concurrent reservations can never
+ * grant more than the limit between them. The returned {@link Reservation} is committed once the money has moved,
+ * which keeps the amount counted, or released if it did not, which gives the allowance back. There is no other way to
+ * post an amount, so nothing can be counted without first being checked against the limit.
+ * <p>
+ * The daily limits and the transactions the ledger reads come from a {@link Source}. The shared ledger reads them
+ * from {@link LimitsStore} and {@link Transactions}; a test can pass its own.
+ * <p>
+ * A business day starts at the rollover time, by default {@value #DEFAULT_ROLLOVER} (midnight), in the bank's time
+ * zone, by default the system time zone. They can be changed with the {@value #ROLLOVER_PROPERTY} system property,
+ * such as "04:00", and the {@value #ZONE_PROPERTY} system property, such as "Asia/Singapore".
+ * <p>
+ * Usage example:
+ * <pre>
+ * DailyLimitLedger.Reservation reservation = DailyLimitLedger.shared().tryReserve(limitAcc,
+ *         DailyLimitLedger.Kind.WITHDRAW, Money.of("SGD", amount));
+ * if (reservation != null) {
+ *     try {
+ *         savings.withdraw(amount, "Withdraw");
+ *         reservation.commit();
+ *     } finally {
+ *         reservation.release(); // No effect once committed
+ *     }
+ * }
+ * </pre>
+ *
+ * @version 1.0
+ */
+public class DailyLimitLedger {
+
+    /**
+     * The system property that sets the time of day at which the shared ledger starts a new day.
+     */
+    public static final String ROLLOVER_PROPERTY = "sunshine.limits.rollover";
+
+    /**
+     * The system property that sets the time zone of the shared ledger.
+     */
+    public static final String ZONE_PROPERTY = "sunshine.limits.zone";
+
+    /**
+     * The default time of day at which a new day starts.
+     */
+    public static final String DEFAULT_ROLLOVER = "00:00";
+
+    /**
+     * The kinds of daily limit.
+     */
+    public enum Kind {
+        /**
+         * The daily withdrawal limit.
+         */
+        WITHDRAW("Withdraw"),
+        /**
+         * The daily transfer limit, which also covers top ups of FX accounts.
+         */
+        TRANSFER("Transfer", "Top Up");
+
+        /**
+         * The types of the transactions that count against the limit.
+         */
+        private final String[] transactionTypes;
+
+        /**
+         * Constructs a new Kind.
+         * @param transactionTypes the types of the transactions that count against the limit
+         */
+        Kind(String... transactionTypes) {
+            this.transactionTypes = transactionTypes;
+        }
+
+        /**
+         * Gets the kind of limit a transaction counts against.
+         * @param transactionType the type of the transaction, such as "Withdraw"
+         * @return the kind of limit, or null if the transaction counts against none
+         */
+        static Kind ofTransactionType(String transactionType) {
+            for (Kind kind : values()) {
+                for (String type : kind.transactionTypes) {
+                    if (type.equals(transactionType)) {
+                        return kind;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * The shared ledger, created on first use.
+     */
+    private static volatile DailyLimitLedger shared;
+
+    /**
+     * The counters of each account, keyed by account ID.
+     */
+    private final ConcurrentHashMap<String, Day> days = new ConcurrentHashMap<String, Day>();
+
+    /**
+     * The clock that gives the current time in the bank's time zone.
+     */
+    private final Clock clock;
+
+    /**
+     * How long after midnight a new day starts.
+     */
+    private final Duration rollover;
+
+    /**
+     * Where the daily limits and the transactions are read from.
+     */
+    private final Source source;
+
+    /**
+     * Constructs a new DailyLimitLedger that reads the daily limits from {@link LimitsStore} and the transactions from
+     * {@link Transactions}.
+     * @param clock the clock that gives the current time in the bank's time zone
+     * @param rollover the time of day at which a new day starts
+     */
+    public DailyLimitLedger(Clock clock, LocalTime rollover) {
+        this(clock, rollover, new StoredSource());
+    }
+
+    /**
+     * Constructs a new DailyLimitLedger.
+     * @param clock the clock that gives the current time in the bank's time zone
+     * @param rollover the time of day at which a new day starts
+     * @param source where the daily limits and the transactions are read from
+     */
+    public DailyLimitLedger(Clock clock, LocalTime rollover, Source source) {
+        this.clock = clock;
+        this.rollover = Duration.ofNanos(rollover.toNanoOfDay());
+        this.source = source;
+    }
+
+    /**
+     * Gets the shared ledger, creating it on first use.
+     * @return the shared ledger
+     */
+    public static DailyLimitLedger shared() {
+        DailyLimitLedger ledger = shared;
+        if (ledger == null) {
+            synchronized (DailyLimitLedger.class) {
+                ledger = shared;
+                if (ledger == null) {
+                    String zone = System.getProperty(ZONE_PROPERTY);
+                    Clock clock = zone == null ? Clock.systemDefaultZone() : Clock.system(ZoneId.of(zone));
+                    ledger = new DailyLimitLedger(clock,
+                            LocalTime.parse(System.getProperty(ROLLOVER_PROPERTY, DEFAULT_ROLLOVER)));
+                    shared = ledger;
+                }
+            }
+        }
+        return ledger;
+    }
+
+    /**
+     * Gets the business day it is now.
+     * @return the date of the current business day
+     */
+    public LocalDate today() {
+        return LocalDateTime.now(clock).minus(rollover).toLocalDate();
+    }
+
+    /**
+     * Gets how much of a daily limit an account has used today.
+     * @param limitAcc the limits of the account
+     * @param kind the kind of limit
+     * @param currency the currency, such as "SGD"
+     * @return the amount used today
+     * @throws IOException if the day has to be seeded and the transactions cannot be read
+     * @throws ParseException if the day has to be seeded and a transaction date cannot be parsed
+     */
+    public Money used(Limits limitAcc, Kind kind, String currency) throws IOException, ParseException {
+        return Money.ofMinor(currency, dayOf(limitAcc).used.get(slot(kind, currency)));
+    }
+
+    /**
+     * Gets how much of a daily limit an account can still use today. The result is never negative.
+     * @param limitAcc the limits of the account
+     * @param kind the kind of limit
+     * @param currency the currency, such as "SGD"
+     * @return the remaining amount
+     * @throws IOException if the day has to be seeded and the transactions cannot be read
+     * @throws ParseException if the day has to be seeded and a transaction date cannot be parsed
+     */
+    public Money remaining(Limits limitAcc, Kind kind, String currency) throws IOException, ParseException {
+        long used = dayOf(limitAcc).used.get(slot(kind, currency));
+        long limit = minorUnits(limitOf(limitAcc, kind), currency);
+        return Money.ofMinor(currency, Math.max(0, limit - used));
+    }
+
+    /**
+     * Gets how much of a daily limit an account can still use today, in every currency.
+     * @param limitAcc the limits of the account
+     * @param kind the kind of limit
+     * @return the remaining amounts
+     * @throws IOException if the day has to be seeded and the transactions cannot be read
+     * @throws ParseException if the day has to be seeded and a transaction date cannot be parsed
+     */
+    public Balance remaining(Limits limitAcc, Kind kind) throws IOException, ParseException {
+        Balance remaining = new Balance();
+        remaining.setSGD(remaining(limitAcc, kind, "SGD").toBigDecimal());
+        remaining.setMYR(remaining(limitAcc, kind, "MYR").toBigDecimal());
+        remaining.setAUD(remaining(limitAcc, kind, "AUD").toBigDecimal());
+        remaining.setUSD(remaining(limitAcc, kind, "USD").toBigDecimal());
+        remaining.setGBP(remaining(limitAcc, kind, "GBP").toBigDecimal());
+        return remaining;
+    }
+
+    /**
+     * Checks whether an account has used up a daily limit.
+     * @param limitAcc the limits of the account
+     * @param kind the kind of limit
+     * @param currency the currency, such as "SGD"
+     * @return true if nothing of the limit remains today
+     * @throws IOException if the day has to be seeded and the transactions cannot be read
+     * @throws ParseException if the day has to be seeded and a transaction date cannot be parsed
+     */
+    public boolean isUsedUp(Limits limitAcc, Kind kind, String currency) throws IOException, ParseException {
+        return !remaining(limitAcc, kind, currency).isPositive();
+    }
+
+    /**
+     * Reserves part of today's allowance of an account, if enough of it remains. The check and the reservation are one
+     * compare-and-set, so concurrent reservations never grant more than the limit.
+     * @param limitAcc the limits of the account
+     * @param kind the kind of limit
+     * @param amount the amount to reserve, in the currency of the limit
+     * @return the reservation, or null if less than the amount remains today
+     * @throws IOException if the day has to be seeded and the transactions cannot be read
+     * @throws ParseException if the day has to be seeded and a transaction date cannot be parsed
+     */
+    public Reservation tryReserve(Limits limitAcc, Kind kind, Money amount) throws IOException, ParseException {
+        if (!amount.isPositive()) {
+            throw new IllegalArgumentException("Amount to reserve must be positive: " + amount);
+        }
+        long wanted = amount.getMinorUnits();
+        Day day = dayOf(limitAcc);
+        int slot = slot(kind, amount.getCurrency());
+        long limit = minorUnits(limitOf(limitAcc, kind), amount.getCurrency());
+        while (true) {
+            long used = day.used.get(slot);
+            if (used > limit - wanted) {
+                return null;
+            }
+            if (day.used.compareAndSet(slot, used, used + wanted)) {
+                return new Reservation(day, slot, wanted);
+            }
+        }
+    }
+
+    /**
+     * Forgets the counters of an account, so they are seeded again on next use.
+     * @param accountId the ID of the account
+     */
+    public void invalidate(String accountId) {
+        days.remove(accountId);
+    }
+
+    /**
+     * Gets the counters of an account for today, seeding them if the account has none for today yet.
+     * @param limitAcc the limits of the account
+     * @return the counters for today
+     * @throws IOException if the transactions cannot be read
+     * @throws ParseException if a transaction date cannot be parsed
+     */
+    private Day dayOf(Limits limitAcc) throws IOException, ParseException {
+        String accountId = limitAcc.getAccountId();
+        LocalDate today = today();
+        Day day = days.get(accountId);
+        if (day != null && day.date.equals(today)) {
+            return day;
+        }
+        Day seeded = seed(limitAcc, today);
+        // Only one seed per day wins, so postings counted by a thread that seeded first are never lost
+        if (day == null ? days.putIfAbsent(accountId, seeded) == null : days.replace(accountId, day, seeded)) {
+            return seeded;
+        }
+        Day winner = days.get(accountId);
+        return winner != null && winner.date.equals(today) ? winner : dayOf(limitAcc);
+    }
+
+    /**
+     * Builds the counters of a day from the account's transactions with a timestamp inside the business day.
+     * @param limitAcc the limits of the account
+     * @param date the business day
+     * @return the seeded counters
+     * @throws IOException if the transactions cannot be read
+     * @throws ParseException if a transaction date cannot be parsed
+     */
+    private Day seed(Limits limitAcc, LocalDate date) throws IOException, ParseException {
+        Day day = new Day(date);
+        List<Transactions> transactions = source.getTransactions(limitAcc.getAccountId());
+        if (transactions == null) {
+            return day;
+        }
+        LocalDateTime start = date.atStartOfDay().plus(rollover);
+        LocalDateTime end = start.plusDays(1);
+        for (Transactions transaction : transactions) {
+            Kind kind = Kind.ofTransactionType(transaction.getType());
+            if (kind == null || transaction.getAmount() == null) {
+                continue;
+            }
+            LocalDateTime timestamp = TransactionStore.parseTimestamp(transaction.getTimestamp());
+            if (timestamp == null) {
+                throw new ParseException("Unparseable transaction timestamp: " + transaction.getTimestamp(), 0);
+            }
+            if (timestamp.isBefore(start) || !timestamp.isBefore(end)) {
+                continue;
+            }
+            for (String currency : VersionedBalance.CURRENCIES) {
+                long amount = minorUnits(transaction.getAmount(), currency);
+                if (amount < 0) {
+                    day.used.addAndGet(slot(kind, currency), -amount);
+                }
+            }
+        }
+        return day;
+    }
+
+    /**
+     * Gets the daily limit of an account.
+     * @param limitAcc the limits of the account
+     * @param kind the kind of limit
+     * @return the daily limit in every currency
+     * @throws IOException if the limits store cannot be opened
+     */
+    private Balance limitOf(Limits limitAcc, Kind kind) throws IOException {
+        return source.getDailyLimit(limitAcc, kind);
+    }
+
+    /**
+     * Gets one currency of a Balance in minor units.
+     * @param balance the balance, or null if the account has none
+     * @param currency the currency
+     * @return the amount in minor units, or 0 if there is no balance
+     */
+    private static long minorUnits(Balance balance, String currency) {
+        return balance == null ? 0 : Money.fromBalance(balance, currency).getMinorUnits();
+    }
+
+    /**
+     * Gets the position of a counter.
+     * @param kind the kind of limit
+     * @param currency the currency
+     * @return the position in {@link Day#used}
+     */
+    private static int slot(Kind kind, String currency) {
+        return kind.ordinal() * VersionedBalance.CURRENCIES.length + VersionedBalance.indexOf(currency);
+    }
+
+    /**
+     * Part of a day's allowance held for one withdrawal or transfer. A reservation is either committed, when the money
+     * has moved, or released, which gives the allowance back. Only the first of the two has any effect.
+     */
+    public static final class Reservation {
+
+        /**
+         * The reservation is neither committed nor released yet.
+         */
+        private static final int OPEN = 0;
+
+        /**
+         * The reservation has been committed.
+         */
+        private static final int COMMITTED = 1;
+
+        /**
+         * The reservation has been released.
+         */
+        private static final int RELEASED = 2;
+
+        /**
+         * The counters the amount was reserved from. A reservation released after the rollover gives the allowance
+         * back to the day it was taken from, not to the new day.
+         */
+        private final Day day;
+
+        /**
+         * The position of the counter.
+         */
+        private final int slot;
+
+        /**
+         * The amount reserved, in minor units.
+         */
+        private final long amount;
+
+        /**
+         * Whether the reservation is open, committed or released.
+         */
+        private final AtomicInteger state = new AtomicInteger(OPEN);
+
+        /**
+         * Constructs a new, open Reservation.
+         * @param day the counters the amount was reserved from
+         * @param slot the position of the counter
+         * @param amount the amount reserved, in minor units
+         */
+        Reservation(Day day, int slot, long amount) {
+            this.day = day;
+            this.slot = slot;
+            this.amount = amount;
+        }
+
+        /**
+         * Keeps the reserved amount as used, once the money has moved.
+         * @return true if the reservation was open and is now committed
+         */
+        public boolean commit() {
+            return state.compareAndSet(OPEN, COMMITTED);
+        }
+
+        /**
+         * Gives the reserved amount back to the allowance. Has no effect on a reservation that was already committed
+         * or released.
+         * @return true if the reservation was open and is now released
+         */
+        public boolean release() {
+            if (!state.compareAndSet(OPEN, RELEASED)) {
+                return false;
+            }
+            day.used.addAndGet(slot, -amount);
+            return true;
+        }
+
+        /**
+         * Gets the amount reserved.
+         * @return the amount reserved, in minor units
+         */
+        public long getAmount() {
+            return amount;
+        }
+    }
+
+    /**
+     * The counters of one account for one business day.
+     */
+    private static class Day {
+
+        /**
+         * The business day.
+         */
+        final LocalDate date;
+
+        /**
+         * The amounts used, in minor units, one per kind of limit and currency.
+         */
+        final AtomicLongArray used = new AtomicLongArray(Kind.values().length * VersionedBalance.CURRENCIES.length);
+
+        /**
+         * Constructs new, empty counters.
+         * @param date the business day
+         */
+        Day(LocalDate date) {
+            this.date = date;
+        }
+    }
+
+    /**
+     * Where a ledger reads the daily limits and the transactions of an account.
+     */
+    public interface Source {
+
+        /**
+         * Gets the daily limit of an account.
+         * @param limitAcc the limits of the account
+         * @param kind the kind of limit
+         * @return the daily limit in every currency, or null if the account has none
+         * @throws IOException if the limits cannot be read
+         */
+        Balance getDailyLimit(Limits limitAcc, Kind kind) throws IOException;
+
+        /**
+         * Gets the transactions of an account.
+         * @param accountId the ID of the account
+         * @return the transactions, or null if the account has none
+         * @throws IOException if the transactions cannot be read
+         */
+        List<Transactions> getTransactions(String accountId) throws IOException;
+    }
+
+    /**
+     * Reads the daily limits kept up to date by {@link LimitsStore} and the transactions from {@link Transactions}.
+     */
+    private static class StoredSource implements Source {
+
+        @Override
+        public Balance getDailyLimit(Limits limitAcc, Kind kind) throws IOException {
+            LimitsStore.shared(); // Opening the store copies the current limits into the Limits objects
+            return kind == Kind.WITHDRAW ? limitAcc.getWithdrawLimit() : limitAcc.getTransferLimit();
+        }
+
+        @Override
+        public List<Transactions> getTransactions(String accountId) {
+            return Transactions.getTransactionsByAccountID(accountId);
+        }
+    }
+}
@@ -0,0 +1,348 @@
+package com.sunshine;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.text.ParseException;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The {@code DailyLimitStress} class checks that {@link StripedLocks} and the reservations of
+ * {@link DailyLimitLedger} hold up when many threads withdraw and transfer from the same few accounts.
+ * <p>
+ * Every thread repeats random withdrawals and transfers the way the menus in {@link GUI} do them: it locks the
+ * accounts with {@link StripedLocks}, reserves the amount with
+ * {@link DailyLimitLedger#tryReserve(Limits, DailyLimitLedger.Kind, Money)} and then commits the reservation, as if the
+ * money moved, or releases it, as if moving the money failed. The ledger reads its daily limits from a stub
+ * {@link DailyLimitLedger.Source} with no transactions, so nothing is read from the bank's files. There are fewer
+ * stripes than accounts, so unrelated accounts share stripes as they do in the bank.
+ * <p>
+ * Alongside them, half as many threads reserve on one account without taking any stripe lock, so the reservations of
+ * that account race each other and the locked operations. Only the ledger's own counters keep them within the limit.
+ * <p>
+ * The program checks that no two locking threads ever held the same account at once, that the threads finish, so
+ * locking two stripes never deadlocked, that every stripe acquisition was counted, that a reservation can be committed
+ * or released only once, that the unlocked account never counts more than its limit, not even while reservations are
+ * outstanding, and that for every account the ledger counts exactly the committed amounts, which never exceed the
+ * daily limit. It prints the result and exits with status 1 if any check fails.
+ * <p>
+ * Usage example:
+ * <pre>
+ * java com.sunshine.DailyLimitStress [threads] [operations per thread]
+ * </pre>
+ *
+ * @version 1.0
+ */
+public class DailyLimitStress {
+
+    /**
+     * The number of accounts.
+     */
+    private static final int ACCOUNTS = 8;
+
+    /**
+     * The number of stripes, fewer than the accounts.
+     */
+    private static final int STRIPES = 4;
+
+    /**
+     * The daily withdrawal and transfer limit of every account, in cents.
+     */
+    private static final long LIMIT_CENTS = 100000;
+
+    /**
+     * The largest amount of one operation, in cents.
+     */
+    private static final int MAX_AMOUNT_CENTS = 2000;
+
+    /**
+     * How often moving the money fails, as one in this many reservations.
+     */
+    private static final int FAILURE_ODDS = 4;
+
+    /**
+     * The account that the threads without a stripe lock reserve on.
+     */
+    private static final int UNLOCKED_ACCOUNT = 0;
+
+    /**
+     * How long to wait for the threads before reporting a deadlock, in seconds.
+     */
+    private static final long TIMEOUT_SECONDS = 60;
+
+    /**
+     * The account IDs.
+     */
+    private final String[] accountIds = new String[ACCOUNTS];
+
+    /**
+     * The limits of the accounts.
+     */
+    private final Limits[] limits = new Limits[ACCOUNTS];
+
+    /**
+     * The locks under test.
+     */
+    private final StripedLocks locks = new StripedLocks(STRIPES);
+
+    /**
+     * The ledger under test.
+     */
+    private final DailyLimitLedger ledger;
+
+    /**
+     * The number of threads inside an operation on each account, which must never exceed one.
+     */
+    private final AtomicInteger[] inside = new AtomicInteger[ACCOUNTS];
+
+    /**
+     * The committed amounts of each account and kind of limit, in cents.
+     */
+    private final AtomicLongArray committed =
+            new AtomicLongArray(ACCOUNTS * DailyLimitLedger.Kind.values().length);
+
+    /**
+     * The number of stripe acquisitions the operations made.
+     */
+    private final AtomicLong acquisitions = new AtomicLong();
+
+    /**
+     * The number of reservations refused because the limit was used up.
+     */
+    private final AtomicLong refused = new AtomicLong();
+
+    /**
+     * The number of reservations made without a stripe lock.
+     */
+    private final AtomicLong unlockedReservations = new AtomicLong();
+
+    /**
+     * The problems found while the threads ran.
+     */
+    private final List<String> problems = Collections.synchronizedList(new ArrayList<String>());
+
+    /**
+     * Constructs a new DailyLimitStress with every account at its full daily limit.
+     */
+    DailyLimitStress() {
+        Balance limit = new Balance();
+        limit.setSGD(BigDecimal.valueOf(LIMIT_CENTS, Money.SCALE));
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accountIds[i] = "stress-" + i;
+            limits[i] = new Limits(new Account(accountIds[i], "stress", "Savings", "Active"), limit, limit);
+            inside[i] = new AtomicInteger();
+        }
+        // A fixed clock, so the business day cannot roll over during the run
+        Clock clock = Clock.fixed(Instant.now(), ZoneId.systemDefault());
+        ledger = new DailyLimitLedger(clock, LocalTime.MIDNIGHT, new DailyLimitLedger.Source() {
+            @Override
+            public Balance getDailyLimit(Limits limitAcc, DailyLimitLedger.Kind kind) {
+                return limit;
+            }
+
+            @Override
+            public List<Transactions> getTransactions(String accountId) {
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Runs the check.
+     * @param args the number of threads and the number of operations per thread, both optional
+     * @throws Exception if the ledger fails or the wait for the threads is interrupted
+     */
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int operations = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        DailyLimitStress stress = new DailyLimitStress();
+        boolean finished = stress.run(threads, operations);
+        if (!stress.verify(finished)) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs the operations on several threads, plus half as many threads that reserve without a stripe lock, and waits
+     * for them to finish.
+     * @param threads the number of threads that lock the accounts
+     * @param operations the number of operations per thread
+     * @return true if every thread finished in time
+     * @throws InterruptedException if interrupted while waiting for the threads
+     */
+    boolean run(int threads, int operations) throws InterruptedException {
+        Thread[] workers = new Thread[threads + Math.max(1, threads / 2)];
+        for (int t = 0; t < workers.length; t++) {
+            boolean locking = t < threads;
+            workers[t] = new Thread(() -> {
+                try {
+                    for (int n = 0; n < operations; n++) {
+                        if (locking) {
+                            step();
+                        } else {
+                            unlockedStep();
+                        }
+                    }
+                } catch (IOException | ParseException | RuntimeException e) {
+                    problems.add(Thread.currentThread().getName() + " failed: " + e);
+                }
+            }, (locking ? "stress-" : "unlocked-") + t);
+            workers[t].setDaemon(true); // A deadlocked worker must not keep the program alive
+            workers[t].start();
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        for (Thread worker : workers) {
+            worker.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+            if (worker.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Performs one random withdrawal or transfer.
+     * @throws IOException if the ledger cannot read the limits
+     * @throws ParseException if the ledger cannot read the transactions
+     */
+    private void step() throws IOException, ParseException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int from = random.nextInt(ACCOUNTS);
+        boolean transfer = random.nextBoolean();
+        int to = transfer ? (from + 1 + random.nextInt(ACCOUNTS - 1)) % ACCOUNTS : from;
+        DailyLimitLedger.Kind kind = transfer ? DailyLimitLedger.Kind.TRANSFER : DailyLimitLedger.Kind.WITHDRAW;
+        Money amount = Money.ofMinor("SGD", 1 + random.nextInt(MAX_AMOUNT_CENTS));
+
+        StripedLocks.Held held = transfer ? locks.lock(accountIds[from], accountIds[to])
+                : locks.lock(accountIds[from]);
+        try {
+            acquisitions.addAndGet(transfer && locks.stripeOf(accountIds[from]) != locks.stripeOf(accountIds[to])
+                    ? 2 : 1);
+            enter(from);
+            if (transfer) {
+                enter(to);
+            }
+            try {
+                DailyLimitLedger.Reservation reservation = ledger.tryReserve(limits[from], kind, amount);
+                if (reservation == null) {
+                    refused.incrementAndGet();
+                    return;
+                }
+                settle(reservation, from, kind, amount);
+            } finally {
+                inside[from].decrementAndGet();
+                if (transfer) {
+                    inside[to].decrementAndGet();
+                }
+            }
+        } finally {
+            held.close();
+        }
+    }
+
+    /**
+     * Reserves a random amount on the unlocked account without taking a stripe lock, then commits or releases it.
+     * @throws IOException if the ledger cannot read the limits
+     * @throws ParseException if the ledger cannot read the transactions
+     */
+    private void unlockedStep() throws IOException, ParseException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        DailyLimitLedger.Kind kind = random.nextBoolean() ? DailyLimitLedger.Kind.TRANSFER
+                : DailyLimitLedger.Kind.WITHDRAW;
+        Money amount = Money.ofMinor("SGD", 1 + random.nextInt(MAX_AMOUNT_CENTS));
+        DailyLimitLedger.Reservation reservation = ledger.tryReserve(limits[UNLOCKED_ACCOUNT], kind, amount);
+        if (reservation == null) {
+            refused.incrementAndGet();
+            return;
+        }
+        unlockedReservations.incrementAndGet();
+        long used = ledger.used(limits[UNLOCKED_ACCOUNT], kind, "SGD").getMinorUnits();
+        check(used <= LIMIT_CENTS, accountIds[UNLOCKED_ACCOUNT] + " " + kind + " counts " + used
+                + " while reservations are outstanding, over its limit");
+        settle(reservation, UNLOCKED_ACCOUNT, kind, amount);
+    }
+
+    /**
+     * Commits a reservation, as if the money moved, or one time in {@value #FAILURE_ODDS} releases it, as if moving
+     * the money failed, and checks that the reservation cannot be settled twice.
+     * @param reservation the reservation
+     * @param account the account of the reservation
+     * @param kind the kind of limit
+     * @param amount the reserved amount
+     */
+    private void settle(DailyLimitLedger.Reservation reservation, int account, DailyLimitLedger.Kind kind,
+            Money amount) {
+        if (ThreadLocalRandom.current().nextInt(FAILURE_ODDS) == 0) {
+            check(reservation.release(), "a reservation could not be released");
+            check(!reservation.commit(), "a released reservation was committed");
+        } else {
+            check(reservation.commit(), "a reservation could not be committed");
+            committed.addAndGet(kind.ordinal() * ACCOUNTS + account, amount.getMinorUnits());
+            check(!reservation.release(), "a committed reservation was released");
+        }
+    }
+
+    /**
+     * Records that a thread is inside an operation on an account, reporting a problem if another thread is too.
+     * @param account the account
+     */
+    private void enter(int account) {
+        check(inside[account].incrementAndGet() == 1, "two threads held " + accountIds[account] + " at once");
+    }
+
+    /**
+     * Reports a problem if a condition does not hold.
+     * @param condition the condition
+     * @param problem the problem to report
+     */
+    private void check(boolean condition, String problem) {
+        if (!condition) {
+            problems.add(problem);
+        }
+    }
+
+    /**
+     * Checks the counters of the ledger and the locks, and prints the result.
+     * @param finished whether every thread finished in time
+     * @return true if every check passed
+     * @throws IOException if the ledger cannot read the limits
+     * @throws ParseException if the ledger cannot read the transactions
+     */
+    boolean verify(boolean finished) throws IOException, ParseException {
+        if (!finished) {
+            problems.add("the threads did not finish within " + TIMEOUT_SECONDS + " seconds");
+        } else {
+            long counted = 0;
+            for (int stripe = 0; stripe < locks.getStripeCount(); stripe++) {
+                counted += locks.getAcquisitions(stripe);
+            }
+            check(counted == acquisitions.get(),
+                    "the stripes counted " + counted + " acquisitions instead of " + acquisitions.get());
+            for (DailyLimitLedger.Kind kind : DailyLimitLedger.Kind.values()) {
+                for (int i = 0; i < ACCOUNTS; i++) {
+                    long used = ledger.used(limits[i], kind, "SGD").getMinorUnits();
+                    long expected = committed.get(kind.ordinal() * ACCOUNTS + i);
+                    check(used == expected, accountIds[i] + " " + kind + " counts " + used + " instead of " + expected);
+                    check(used <= LIMIT_CENTS, accountIds[i] + " " + kind + " exceeds its limit: " + used);
+                }
+            }
+        }
+        for (String problem : problems) {
+            System.out.println(problem);
+        }
+        boolean passed = problems.isEmpty();
+        System.out.println((passed ? "PASSED" : "FAILED") + ": refused " + refused.get() + ", acquisitions "
+                + acquisitions.get() + ", unlocked reservations " + unlockedReservations.get());
+        return passed;
+    }
+}
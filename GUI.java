@@ -7,13 +7,14 @@ import java.math.RoundingMode;
 import java.security.NoSuchAlgorithmException;
 import java.text.ParseException;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.ConcurrentModificationException;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
 import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
 import g12.Branch;
@@ -28,6 +29,9 @@ public class GUI {
 	// Scanner object for user input (System.in)
 	protected static Scanner scanner = new Scanner(System.in);
 
+	// Number of transactions shown per page of a transaction history
+	protected static final int HISTORY_PAGE_SIZE = 10;
+
 	/**
 	 * Prompts the user to enter a choice and returns the integer value entered.
 	 *
@@ -58,6 +62,39 @@ public class GUI {
 		return dbl;
 	}
 
+	/**
+	 * Prompts the user to enter a decimal number and returns it exactly as typed,
+	 * without passing it through a double.
+	 *
+	 * @return The BigDecimal value entered by the user.
+	 */
+	protected BigDecimal getBigDecimal() {
+		if (!scanner.hasNextBigDecimal()) {
+			System.out.println("Invalid input. Please try again.");
+			scanner.next();
+			return getBigDecimal();
+		}
+		return scanner.nextBigDecimal();
+	}
+
+	/**
+	 * Gets an amount of money from the user input, asking again until it is a valid amount.
+	 * <p>
+	 * An amount is valid if it has at most two decimal places and is not too large to hold.
+	 *
+	 * @param currency The currency of the amount, such as "SGD".
+	 * @return The amount entered.
+	 */
+	protected Money getAmount(String currency) {
+		BigDecimal entered = getBigDecimal();
+		try {
+			return Money.ofEntered(currency, entered);
+		} catch (IllegalArgumentException e) {
+			System.out.println("Invalid amount. Please try again.");
+			return getAmount(currency);
+		}
+	}
+
 	/**
 	 * Clears the console screen.
 	 * <p>
@@ -81,6 +118,47 @@ public class GUI {
 		}
 	}
 
+	/**
+	 * Runs an operation that moves money, recording it in the transaction journal
+	 * before any money moves.
+	 * <p>
+	 * If the operation cannot be recorded, it does not run. Once it has run, the
+	 * journal records whether it took effect, and this method returns only after
+	 * that record is durable, so the caller reports success only for operations
+	 * the journal has confirmed. An operation that returns false or throws did
+	 * not take effect.
+	 *
+	 * @param <T>       The type of the result of the operation.
+	 * @param record    The journal line built by GroupCommitJournal.record.
+	 * @param operation The operation, which moves the money.
+	 * @return The result of the operation.
+	 * @throws IOException if the journal cannot record the operation, or the
+	 *                     operation fails.
+	 */
+	protected static <T> T journaled(String record, VersionedBalance.LegacyChange<T> operation) throws IOException {
+		GroupCommitJournal journal = GroupCommitJournal.shared();
+		String id = journal.prepare(record);
+		T result;
+		try {
+			result = operation.apply();
+		} catch (IOException | RuntimeException e) {
+			try {
+				journal.abort(id);
+			} catch (IOException abortFailure) {
+				e.addSuppressed(abortFailure);
+			}
+			throw e;
+		} finally {
+			TransactionStore.shared().postNew(); // Index whatever transactions the operation recorded
+		}
+		if (Boolean.FALSE.equals(result)) {
+			journal.abort(id);
+		} else {
+			journal.complete(id);
+		}
+		return result;
+	}
+
 	/**
 	 * After displaying the message, waits for the user to press 'Enter' to return
 	 * back to previous menu.
@@ -102,6 +180,26 @@ public class GUI {
  */
 class LoginGUI extends GUI {
 	private String[] loginDetails;
+	private Customer loggedInCustomer;
+
+	static {
+		// Open the transaction journal at startup, so the operations the last run left unconfirmed are reported
+		try {
+			GroupCommitJournal.shared();
+		} catch (IOException e) {
+			System.err.println("An error occurred while opening the transaction journal: " + e.getMessage());
+		}
+		// Archive closed years in the background while the first customer logs in; the history views wait for it
+		Thread archiver = new Thread(() -> {
+			try {
+				TransactionArchive.archiveClosedPeriods(); // Only writes once a year has closed
+			} catch (IOException e) {
+				System.err.println("An error occurred while archiving old transactions: " + e.getMessage());
+			}
+		}, "transaction-archiver");
+		archiver.setDaemon(true);
+		archiver.start();
+	}
 
 	/**
 	 * Displays the initial menu for the Sunshine Bank application.
@@ -121,8 +219,12 @@ class LoginGUI extends GUI {
 	}
 
 	/**
-	 * Displays the login menu and prompts the user to enter their username and
-	 * password.
+	 * Displays the login menu, prompts the user to enter their username and
+	 * password, and checks the password.
+	 * <p>
+	 * The password is checked with PasswordHashing.verifyAndUpgrade, so a
+	 * password stored with an older hashing scheme is replaced by a hash from the
+	 * current scheme when the customer logs in.
 	 *
 	 * @return An array containing the entered username and password.
 	 */
@@ -132,9 +234,42 @@ class LoginGUI extends GUI {
 		System.out.print("Please enter your password: ");
 		String password = GUI.scanner.next();
 		this.loginDetails = new String[] { username, password };
+		this.loggedInCustomer = authenticate(username, password);
 		return loginDetails;
 	}
 
+	/**
+	 * Gets the customer whose password was checked by the last login.
+	 *
+	 * @return The logged in customer, or null if the last login failed.
+	 */
+	public Customer getLoggedInCustomer() {
+		return loggedInCustomer;
+	}
+
+	/**
+	 * Checks a customer's password, rehashing it with the current scheme if it
+	 * was stored with an older one.
+	 *
+	 * @param username The entered username.
+	 * @param password The entered password.
+	 * @return The customer if the password matches, null otherwise.
+	 */
+	private static Customer authenticate(String username, String password) {
+		Customer customer = Customer.getCustomerByUsername(username);
+		if (customer == null) {
+			return null;
+		}
+		try {
+			return PasswordHashing.verifyAndUpgrade(customer, password) ? customer : null;
+		} catch (RejectedExecutionException e) {
+			System.out.println("The system is busy. Please try again later.");
+		} catch (NoSuchAlgorithmException | IOException e) {
+			System.err.println("An error occurred while checking your password: " + e.getMessage());
+		}
+		return null;
+	}
+
 	/**
 	 * Displays the branch menu and allows the user to select a branch.
 	 * <p>
@@ -197,7 +332,7 @@ class LoginGUI extends GUI {
 		if (password.equals(cfmPassword)) {
 			// Generate salted value
 			byte[] ByteSaltedValue = HashingSecurity.generateSalt();
-			String hashedPassword = HashingSecurity.hashString(password, ByteSaltedValue);
+			String hashedPassword = PasswordHashing.hash(password, ByteSaltedValue);
 			String hexSaltedValue = HashingSecurity.bytesToHex(ByteSaltedValue);
 			System.out.println("Registration successful!");
 
@@ -248,6 +383,9 @@ class LoginGUI extends GUI {
 			System.out.println("2FA is already enabled for your account.");
 			hasLogin = TwoFactorAuth(customer);
 		}
+		if (hasLogin) {
+			SessionCache.open(customer); // Resolve the customer's accounts once for the whole session
+		}
 		return hasLogin;
 	}
 
@@ -266,7 +404,7 @@ class LoginGUI extends GUI {
 		// System.out.println("Codestring: " + codeString );
 		String secretKey = security.getSecretKey();
 		// System.out.println("SecretKey: " + secretKey);
-		if (twoFA.verifyCode(codeString)) {
+		if (twoFA.verifyCodeOnce(codeString)) {
 			System.out.println("2FA code is correct. You are now logged in.");
 			return true;
 		} else {
@@ -292,7 +430,7 @@ class CustomerGUI extends GUI {
 		System.out.println("---------------------------------------------------------------------------------");
 		System.out.println("|    | Account ID                           | Type        |");
 		int index = 1;
-		for (Account account : Account.getAccountsByCustomer(customer, "Active")) {
+		for (Account account : AccountIndex.shared().get(customer.getCustomerID(), "Active", AccountIndex.ANY)) {
 			System.out.println("| " + index + ". | " + account.getAccountId() + " | "
 					+ String.format("%-11s", account.getType()) + " |");
 			index++;
@@ -316,7 +454,11 @@ class CustomerGUI extends GUI {
 		System.out.println("0. Logout");
 		System.out.println("---------------------------------------------------------------------------------");
 		System.out.println("Please enter your choice: ");
-		return getChoice();
+		int choice = getChoice();
+		if (choice == 0) {
+			SessionCache.close(customer.getCustomerID()); // Logging out ends the session
+		}
+		return choice;
 	}
 
 	/**
@@ -389,9 +531,11 @@ class CustomerGUI extends GUI {
 		}
 		Account newAccount = new Account(newAccountID, customerID, type, "Active");
 		Account.addAccount(newAccount);
+		AccountIndex.shared().add(newAccount);
+		SessionCache.invalidateAccount(newAccountID);
 		if (!newAccount.getType().equals("Insurance")) {
-			Limits newLimit = new Limits(newAccount, newWithdrawLimit, newTransferLimit);
-			Limits.appendToLimitsCSV(Limits.getLimitsPath(), newLimit);
+			// The limits store holds the limits of accounts created since it replaced the limits CSV
+			LimitsStore.shared().add(new Limits(newAccount, newWithdrawLimit, newTransferLimit));
 		}
 		return newAccount;
 	}
@@ -409,7 +553,7 @@ class CustomerGUI extends GUI {
 		printAccountsTable(customer);
 		System.out.println("0. Back to Home Menu");
 		System.out.println("Please enter the index of the account you would like to close:");
-		ArrayList<Account> customerAccounts = Account.getAccountsByCustomer(customer, "Active");
+		List<Account> customerAccounts = AccountIndex.shared().get(customer.getCustomerID(), "Active", AccountIndex.ANY);
 		int choice = getChoice();
 		if (choice == 0) {
 			return;
@@ -437,6 +581,8 @@ class CustomerGUI extends GUI {
 		}
 		if (accountID != null) {
 			Account.closeAccount(accountID);
+			AccountIndex.shared().refresh(account.getCustomerID());
+			SessionCache.invalidateAccount(accountID);
 			System.out.println("Account closed successfully.");
 		} else {
 			System.out.println("Account not found. Please try again.");
@@ -464,8 +610,13 @@ class CustomerGUI extends GUI {
 	public Customer changePasswordMenu(Customer customer) throws NoSuchAlgorithmException, IOException {
 		System.out.println("Please enter your current password:");
 		String unhashedCurrentPassword = this.scanner.next();
-		if (!customer.getPassword().equals(customer.getHashedPassword(unhashedCurrentPassword))) {
-			System.out.println("Password is incorrect. Please try again.");
+		try {
+			if (!PasswordHashing.verify(unhashedCurrentPassword, customer.getSalt(), customer.getPassword())) {
+				System.out.println("Password is incorrect. Please try again.");
+				return customer;
+			}
+		} catch (RejectedExecutionException e) {
+			System.out.println("The system is busy. Please try again later.");
 			return customer;
 		}
 
@@ -474,9 +625,9 @@ class CustomerGUI extends GUI {
 		System.out.println("Please enter your new password again:");
 		String cfmNewPassword = this.scanner.next();
 		if (newPassword.equals(cfmNewPassword)) {
-			// retrieve salted value
-			customer.setPassword(HashingSecurity.hashString(newPassword, customer.getSalt()));
-			Customer.saveArrayListToCSV();
+			// retrieve salted value, the new password is always hashed with the current scheme
+			customer.setPassword(PasswordHashing.hash(newPassword, customer.getSalt()));
+			CustomerJournal.shared().recordPassword(customer.getUsername(), customer.getPassword());
 			System.out.println("Password changed successfully!");
 		} else {
 			System.out.println("Passwords do not match. Please try again.");
@@ -496,7 +647,7 @@ class CustomerGUI extends GUI {
 	public Account accessAccountMenu(Customer customer, Branch branch) {
 		printAccountsTable(customer);
 		System.out.println("Please enter the index of the account you would like to access:");
-		ArrayList<Account> customerAccounts = Account.getAccountsByCustomer(customer, "Active");
+		List<Account> customerAccounts = AccountIndex.shared().get(customer.getCustomerID(), "Active", AccountIndex.ANY);
 		int choice = getChoice();
 		Account account = customerAccounts.get(choice - 1);
 		String accountID = account.getAccountId();
@@ -545,14 +696,14 @@ class AccountGUI extends GUI {
 		int choice = 0;
 		switch (type) {
 			case "Savings":
-				Savings savings = Savings.getSavingsByAccountID(account.getAccountId());
+				Savings savings = SessionCache.of(account.getCustomerID()).getSavings(account.getAccountId());
 				if (savings == null) {
 					System.out.println("Account not found. Please try again.");
 					return accountMenu(account);
 				}
 				System.out.println("Balance: ");
 				System.out.println("--------------------");
-				System.out.println("SGD: " + savings.getBalance().getSGD()); // Savings only have SGD
+				System.out.println("SGD: " + VersionedBalance.forSavings(savings).snapshot().getSGD()); // Savings only have SGD
 				System.out.println("--------------------");
 				System.out.println("1. Deposit");
 				System.out.println("2. Withdraw");
@@ -568,19 +719,20 @@ class AccountGUI extends GUI {
 				System.out.println("3. Cancel Insurance");
 				break;
 			case "Fx":
-				FX fx = FX.getFXByAccountID(account.getAccountId());
+				FX fx = SessionCache.of(account.getCustomerID()).getFX(account.getAccountId());
 				if (fx == null) {
 					System.out.println("Account not found. Please try again.");
 					// return accountMenu(account);
 					break;
 				}
+				VersionedBalance.Snapshot fxBalance = VersionedBalance.forFX(fx).snapshot(); // All five as of one version
 				System.out.println("Balance: ");
 				System.out.println("-------------");
-				System.out.println("SGD: " + fx.getAmount().getSGD());
-				System.out.println("MYR: " + fx.getAmount().getMYR());
-				System.out.println("AUD: " + fx.getAmount().getAUD());
-				System.out.println("USD: " + fx.getAmount().getUSD());
-				System.out.println("GBP: " + fx.getAmount().getGBP());
+				System.out.println("SGD: " + fxBalance.getSGD());
+				System.out.println("MYR: " + fxBalance.getMYR());
+				System.out.println("AUD: " + fxBalance.getAUD());
+				System.out.println("USD: " + fxBalance.getUSD());
+				System.out.println("GBP: " + fxBalance.getGBP());
 				System.out.println("-------------");
 				System.out.println("1. Convert Currency");
 				System.out.println("2. View Transactions");
@@ -634,13 +786,12 @@ class AccountGUI extends GUI {
 		System.out.println("|    | Account ID                           | Type    | Balance");
 		int index = 1;
 		ArrayList<Account> customerAccounts = new ArrayList<Account>();
-		for (Account account : Account.getAccountsByCustomer(customer, "Active")) {
-			if (account.getType().equals("Savings")) {
-				customerAccounts.add(account);
-				System.out.println("| " + index + ". | " + account.getAccountId() + " | " + account.getType() + " | "
-						+ Savings.getSavingsByAccountID(account.getAccountId()).getBalance().getSGD() + " SGD");
-				index++;
-			}
+		for (Account account : AccountIndex.shared().get(customer.getCustomerID(), "Active", "Savings")) {
+			customerAccounts.add(account);
+			System.out.println("| " + index + ". | " + account.getAccountId() + " | " + account.getType() + " | "
+					+ VersionedBalance.forSavings(Savings.getSavingsByAccountID(account.getAccountId())).snapshot().getSGD()
+					+ " SGD");
+			index++;
 		}
 		System.out.println("---------------------------------------------------------------------------------");
 		return customerAccounts;
@@ -656,8 +807,9 @@ class AccountGUI extends GUI {
 	 * @throws Exception
 	 */
 	public int savingsAccountChoice(int choice, Account account) throws Exception {
-		Savings savings = Savings.getSavingsByAccountID(account.getAccountId());
-		Limits limitAcc = Limits.getLimitAccByID(account.getAccountId());
+		SessionCache session = SessionCache.of(account.getCustomerID());
+		Savings savings = session.getSavings(account.getAccountId());
+		Limits limitAcc = session.getLimits(account.getAccountId());
 		switch (choice) {
 			case 1:
 				// Deposit
@@ -665,7 +817,7 @@ class AccountGUI extends GUI {
 				return accountMenu(account);
 			case 2:
 				// Withdraw
-				if (limitAcc.overWithdrawLimit(account.getAccountId(), "SGD")) {
+				if (DailyLimitLedger.shared().isUsedUp(limitAcc, DailyLimitLedger.Kind.WITHDRAW, "SGD")) {
 					System.out.println("You have used up your daily withdrawal limit. Please try again tomorrow.");
 				} else {
 					savingsGUI.withdrawMenu(savings, limitAcc);
@@ -673,7 +825,7 @@ class AccountGUI extends GUI {
 				return accountMenu(account);
 			case 3:
 				// Transfer
-				if (limitAcc.overTransferLimit(account.getAccountId(), "SGD")) {
+				if (DailyLimitLedger.shared().isUsedUp(limitAcc, DailyLimitLedger.Kind.TRANSFER, "SGD")) {
 					System.out.println("You have used up your daily transfer limit. Please try again tomorrow.");
 				} else {
 					savingsGUI.transferMenu(savings, limitAcc);
@@ -751,8 +903,9 @@ class AccountGUI extends GUI {
 	 * @throws Exception if an error occurs.
 	 */
 	public int fxAccountChoice(int choice, Account account) throws Exception {
-		FX fx = FX.getFXByAccountID(account.getAccountId());
-		Customer customer = Customer.getCustomerByID(account.getCustomerID());
+		SessionCache session = SessionCache.of(account.getCustomerID());
+		FX fx = session.getFX(account.getAccountId());
+		Customer customer = session.getCustomer();
 		switch (choice) {
 			case 1:
 				// Convert Currency
@@ -820,7 +973,7 @@ class AccountGUI extends GUI {
 	 * @throws ParseException if an error occurs while parsing.
 	 */
 	public void settingsChoice(Account account) throws IOException, ParseException {
-		Limits limitAcc = Limits.getLimitAccByID(account.getAccountId());
+		Limits limitAcc = SessionCache.of(account.getCustomerID()).getLimits(account.getAccountId());
 		if (limitAcc == null) {
 			System.out.println("No limits found for this account. Please try again.");
 			return;
@@ -865,7 +1018,7 @@ class AccountGUI extends GUI {
 	 * @throws Exception If an operation fails or is invalid.
 	 */
 	public int loanAccountChoice(int choice, Account account) throws Exception {
-		SunshineLoan loan = SunshineLoan.getLoanByAccountID(account.getAccountId());
+		SunshineLoan loan = SessionCache.of(account.getCustomerID()).getLoan(account.getAccountId());
 		switch (choice) {
 			case 1:
 				// Apply for loan
@@ -906,14 +1059,27 @@ class SavingsGUI extends GUI {
 	 * @throws IOException if an I/O error occurs.
 	 */
 	protected void depositMenu(Savings savings) throws IOException {
-		double deposit = 0;
 		System.out.println("Please enter the amount you would like to deposit:");
-		deposit = this.getDouble();
-		if (deposit <= 0) {
+		Money deposit = this.getAmount("SGD");
+		if (!deposit.isPositive()) {
 			System.out.println("Invalid amount. Please try again.");
 			depositMenu(savings);
+			return;
 		}
-		savings.deposit(BigDecimal.valueOf(deposit), "Deposit");
+		VersionedBalance balance = VersionedBalance.forSavings(savings);
+		String record = GroupCommitJournal.record("Deposit", savings.getAccountID(), "SGD", deposit.toBigDecimal());
+		journaled(record, () -> VersionedBalance.atomically(() -> {
+			balance.credit(deposit);
+			try {
+				savings.deposit(deposit.toBigDecimal(), "Deposit");
+			} catch (IOException | RuntimeException e) {
+				balance.credit(deposit.negate()); // The deposit was not saved, so take it back out
+				throw e;
+			} finally {
+				balance.publishTo(savings.getBalance());
+			}
+			return null;
+		}));
 	}
 
 	/**
@@ -929,21 +1095,62 @@ class SavingsGUI extends GUI {
 	 * @throws ParseException if an error occurs while parsing.
 	 */
 	protected void withdrawMenu(Savings savings, Limits limitAcc) throws IOException, ParseException {
-		BigDecimal withdraw = new BigDecimal(0);
 		System.out.println("Please enter the amount you would like to withdraw:");
-		withdraw = BigDecimal.valueOf(this.getDouble());
-		BigDecimal remainWithdrawSGD = limitAcc.getRemainWithdrawAmt(limitAcc).getSGD();
-		if (withdraw.compareTo(BigDecimal.ZERO) <= 0) {
+		Money entered = this.getAmount("SGD");
+		BigDecimal withdraw = entered.toBigDecimal();
+		Money remainWithdrawSGD = DailyLimitLedger.shared().remaining(limitAcc, DailyLimitLedger.Kind.WITHDRAW, "SGD");
+		if (!entered.isPositive()) {
 			System.out.println("Invalid amount. Please try again.");
 			withdrawMenu(savings, limitAcc);
-		} else if (withdraw.compareTo(savings.getBalance().getSGD()) > 0) {
+		} else if (entered.compareTo(Money.fromBalance(savings.getBalance(), "SGD")) > 0) {
 			System.out.println("Insufficient funds. Please try again.");
 			withdrawMenu(savings, limitAcc);
-		} else if (withdraw.compareTo(remainWithdrawSGD) > 0) {
+		} else if (entered.compareTo(remainWithdrawSGD) > 0) {
 			System.out.println("Withdrawal amount exceeds remaining daily limit. Please try again.");
 			withdrawMenu(savings, limitAcc);
 		} else {
-			savings.withdraw(withdraw, "Withdraw");
+			// Reserve the allowance and take the money from the versioned balance before moving it, so a concurrent
+			// withdrawal can use neither the same allowance nor the same money
+			DailyLimitLedger.Reservation reservation = DailyLimitLedger.shared().tryReserve(limitAcc,
+					DailyLimitLedger.Kind.WITHDRAW, entered);
+			if (reservation == null) {
+				System.out.println("Withdrawal amount exceeds remaining daily limit. Please try again.");
+				withdrawMenu(savings, limitAcc);
+				return;
+			}
+			String failure = null;
+			try {
+				VersionedBalance balance = VersionedBalance.forSavings(savings);
+				// The debit and the withdrawal are one step, so no loan repayment can spend the money in between
+				String record = GroupCommitJournal.record("Withdraw", savings.getAccountID(), "SGD", withdraw);
+				boolean withdrawn = journaled(record, () -> VersionedBalance.atomically(() -> {
+					if (balance.debit(entered) == null) {
+						return false;
+					}
+					try {
+						savings.withdraw(withdraw, "Withdraw");
+					} catch (IOException | RuntimeException e) {
+						balance.credit(entered); // The withdrawal was not saved, so put the money back
+						throw e;
+					} finally {
+						balance.publishTo(savings.getBalance());
+					}
+					reservation.commit(); // Counted even if the journal then fails to confirm the withdrawal
+					return true;
+				}));
+				if (!withdrawn) {
+					failure = "Insufficient funds. Please try again.";
+				}
+			} catch (ConcurrentModificationException e) {
+				failure = "Balance changed during the withdrawal. Please try again.";
+			} finally {
+				reservation.release(); // No effect once committed
+			}
+			if (failure != null) {
+				System.out.println(failure);
+				withdrawMenu(savings, limitAcc);
+				return;
+			}
 			System.out.println("---------------------------------------------------------------------------------");
 			System.out.println("Withdrawal amount of $" + withdraw + " successful!");
 			returnToMenu();
@@ -967,24 +1174,69 @@ class SavingsGUI extends GUI {
 		System.out.println("Please enter the account ID you would like to transfer to:");
 		String accountID = this.scanner.next();
 		Savings transferTo = Savings.getSavingsByAccountID(accountID);
-		BigDecimal remainTransferSGD = limitAcc.getRemainTransferAmt(limitAcc).getSGD();
+		DailyLimitLedger ledger = DailyLimitLedger.shared();
+		Money remainTransferSGD = ledger.remaining(limitAcc, DailyLimitLedger.Kind.TRANSFER, "SGD");
 		if (transferTo == null || transferTo == savings) {
 			System.out.println("Account not found. Please try again.");
 			transferMenu(savings, limitAcc);
+			return;
 		}
 		System.out.println("Please enter the amount you would like to transfer:");
-		BigDecimal amount = new BigDecimal(this.getDouble());
-		if (amount.compareTo(BigDecimal.ZERO) <= 0) {
+		Money entered = this.getAmount("SGD");
+		BigDecimal amount = entered.toBigDecimal();
+		if (!entered.isPositive()) {
 			System.out.println("Invalid amount. Please try again.");
 			transferMenu(savings, limitAcc);
-		} else if (amount.compareTo(savings.getBalance().getSGD()) > 0) {
+		} else if (entered.compareTo(Money.fromBalance(savings.getBalance(), "SGD")) > 0) {
 			System.out.println("Insufficient funds. Please try again.");
 			transferMenu(savings, limitAcc);
-		} else if (amount.compareTo(remainTransferSGD) > 0) {
+		} else if (entered.compareTo(remainTransferSGD) > 0) {
 			System.out.println("Transfer amount exceeds remaining daily limit. Please try again.");
 			transferMenu(savings, limitAcc);
 		} else {
-			savings.transferTo(transferTo, amount);
+			// Lock both accounts and check again, since another session may have moved money since the checks above
+			boolean transferred = false;
+			StripedLocks.Held held = StripedLocks.shared().lock(savings.getAccountID(), transferTo.getAccountID());
+			try {
+				VersionedBalance from = VersionedBalance.forSavings(savings);
+				VersionedBalance to = VersionedBalance.forSavings(transferTo);
+				DailyLimitLedger.Reservation reservation = ledger.tryReserve(limitAcc, DailyLimitLedger.Kind.TRANSFER,
+						entered);
+				if (reservation != null) {
+					try {
+						String record = GroupCommitJournal.record("Transfer", savings.getAccountID(),
+								transferTo.getAccountID(), "SGD", amount);
+						transferred = journaled(record, () -> VersionedBalance.atomically(() -> {
+							if (from.debit(entered) == null) {
+								return false;
+							}
+							try {
+								savings.transferTo(transferTo, amount);
+								to.credit(entered);
+							} catch (IOException | RuntimeException e) {
+								from.credit(entered); // The transfer was not saved, so put the money back
+								throw e;
+							} finally {
+								from.publishTo(savings.getBalance());
+								to.publishTo(transferTo.getBalance());
+							}
+							reservation.commit(); // Counted even if the journal then fails to confirm the transfer
+							return true;
+						}));
+					} finally {
+						reservation.release(); // No effect once committed
+					}
+				}
+			} catch (ConcurrentModificationException e) {
+				transferred = false; // Nothing was debited, so the transfer can simply be tried again
+			} finally {
+				held.close();
+			}
+			if (!transferred) {
+				System.out.println("Balance or daily limit changed during the transfer. Please try again.");
+				transferMenu(savings, limitAcc);
+				return;
+			}
 			System.out.println("---------------------------------------------------------------------------------");
 			System.out.println("Transfer amount of $" + amount + " to " + transferTo.getAccountID() + " successful!");
 			returnToMenu();
@@ -992,45 +1244,64 @@ class SavingsGUI extends GUI {
 	}
 
 	/**
-	 * Handles the display of transaction history of a savings account and returning
-	 * back to previous menu.
+	 * Handles the display of transaction history of a savings account one page at
+	 * a time and returning back to previous menu.
+	 * <p>
+	 * The history includes the transactions of closed periods that have been moved
+	 * to the transaction archive.
 	 *
 	 * @param savings The savings account for which the transaction history is
 	 *                displayed.
+	 * @throws IOException if an archive cannot be opened.
 	 */
-	protected void transactionHistoryMenu(Savings savings) {
-		savingsTransactionTable(savings);
-		System.out.println("0. Return to Main Menu");
-		int choice = getChoice();
-		while (choice != 0) {
-			System.out.println("Please enter 0 to return to main menu");
-			getChoice();
+	protected void transactionHistoryMenu(Savings savings) throws IOException {
+		TransactionHistory.Page previous = null;
+		while (true) {
+			TransactionHistory.Page page = savingsTransactionTable(savings, previous);
+			if (page.hasMore()) {
+				System.out.println("1. Next Page");
+			}
+			System.out.println("0. Return to Main Menu");
+			int choice = getChoice();
+			if (choice == 0) {
+				return;
+			} else if (choice == 1 && page.hasMore()) {
+				previous = page;
+			} else {
+				System.out.println("Invalid choice. Please try again.");
+			}
 		}
 	}
 
 	/**
-	 * Prints the transaction history table of a savings account including Timestamp
-	 * of transaction, Transaction ID, and Amount of the transaction in SGD.
+	 * Prints one page of the transaction history table of a savings account
+	 * including Timestamp of transaction, Transaction ID, and Amount of the
+	 * transaction in SGD.
 	 *
-	 * @param savings The savings account for which the transaction history is
-	 *                printed.
+	 * @param savings  The savings account for which the transaction history is
+	 *                 printed.
+	 * @param previous The page printed before, or null for the most recent
+	 *                 transactions.
+	 * @return The page that was printed.
+	 * @throws IOException if an archive cannot be opened.
 	 */
-	protected void savingsTransactionTable(Savings savings) {
+	protected TransactionHistory.Page savingsTransactionTable(Savings savings, TransactionHistory.Page previous)
+			throws IOException {
 		System.out.println("---------------------------------------------------------------------------------");
 		System.out.println("Account ID: " + savings.getAccountID());
 		System.out.println("Transaction History");
 		System.out.println("---------------------------------------------------------------------------------");
 		System.out.println("||      || Timestamp               || Transaction ID                       || Amount (SGD)");
-		int index = 1;
-		// Put all transactions in arraylist to sort by timestamp
-		ArrayList<Transactions> transactionHist = savings.getTransactionHistory();
-		Collections.sort(transactionHist, Comparator.comparing(Transactions::getTimestamp).reversed());
-		for (Transactions transactions : transactionHist) {
+		// Only the rows of the requested page are read
+		TransactionHistory.Page page = TransactionHistory.page(savings.getAccountID(), previous, HISTORY_PAGE_SIZE);
+		int index = page.getOffset() + 1;
+		for (TransactionRecord transactions : page.getRows()) {
 			System.out.println("|| " + String.format("%3s.", index) + " || " + String.format("%-23s", transactions.getTimestamp()) +
 					" || " + transactions.getTransactionID() + " || " + transactions.getAmount().getSGD());
 			index++;
 		}
 		System.out.println("---------------------------------------------------------------------------------");
+		return page;
 	}
 }
 
@@ -1122,10 +1393,8 @@ class InsuranceGUI extends GUI {
 	protected static ArrayList<String> printSavingsID(Account account) {
 		String customerID = account.getCustomerID(); // Get the customerID based on the account
 		ArrayList<String> customerSavingsID = new ArrayList<String>();
-		for (Account acc : Account.allAccounts) {
-			if (acc.getCustomerID().equals(customerID) && acc.getType().equals("Savings")) {
-				customerSavingsID.add(acc.getAccountId()); // get all savings accountID for the customer
-			}
+		for (Account acc : AccountIndex.shared().get(customerID, AccountIndex.ANY, "Savings")) {
+			customerSavingsID.add(acc.getAccountId()); // get all savings accountID for the customer
 		}
 		if (customerSavingsID.isEmpty()) {
 			System.out.println("No savings account found for this customer.");
@@ -1259,7 +1528,14 @@ class InsuranceGUI extends GUI {
 				BigDecimal coverage = TravelInsurance.calculateTravelCoverage(continent);
 				TravelInsurance insuranceTravel = new TravelInsurance(policyID, account.getAccountId(), "Active",
 						"Travel", coverage, premium, TravelInsurance.dateFormatter(startDate), TravelInsurance.dateFormatter(endDate), continent);
-				TravelInsurance.purchaseTravelInsurance(insuranceTravel, savings);
+				try {
+					VersionedBalance.forSavings(savings).applyLegacyChange(savings.getBalance(), () -> {
+						TravelInsurance.purchaseTravelInsurance(insuranceTravel, savings);
+						return null;
+					});
+				} finally {
+					TransactionStore.shared().postNew();
+				}
 				System.out.println("---------------------------------------------------------------------------------");
 				if (savings.getBalance().getSGD().compareTo(insuranceTravel.getPremium()) >= 0) {
 					System.out.println("You have purchased travel insurance at $" + premium + " from " + startDate
@@ -1318,7 +1594,14 @@ class InsuranceGUI extends GUI {
 				if (cancelResponse.equals("yes") || cancelResponse.equals("y")) {
 					String savingsID = customerSavings.get(choice - 1);
 					Savings savings = Savings.getSavingsByAccountID(savingsID);
-					TravelInsurance.cancelTravelInsurance(insuranceCancel, savings);
+					try {
+						VersionedBalance.forSavings(savings).applyLegacyChange(savings.getBalance(), () -> {
+							TravelInsurance.cancelTravelInsurance(insuranceCancel, savings);
+							return null;
+						});
+					} finally {
+						TransactionStore.shared().postNew();
+					}
 					System.out.println("---------------------------------------------------------------------------------");
 					System.out.println("You have cancelled travel insurance " + insuranceCancel.getPolicyID() + " at $" + insuranceCancel.getPremium());
 					System.out.println("Status set to: Terminated");
@@ -1387,60 +1670,18 @@ class FxGUI extends GUI {
 
 		// Get user input for amount to convert
 		System.out.println("Please enter the amount you would like to convert:");
-		BigDecimal amount = new BigDecimal(GUI.scanner.nextDouble());
+		Money entered = this.getAmount(fromCurrency);
+		BigDecimal amount = entered.toBigDecimal();
 
 		// Check if the user has sufficient funds to convert
-		boolean sufficientAmount = false;
-		switch (fromCurrency) {
-			case "SGD":
-				if (fx.getAmount().getSGD().compareTo(amount) >= 0) {
-					sufficientAmount = true;
-				} else {
-					System.out.println("Insufficient funds. Please try again.");
-					convertCurrencyMenu(fx);
-					return;
-				}
-				break;
-			case "MYR":
-				if (fx.getAmount().getMYR().compareTo(amount) >= 0) {
-					sufficientAmount = true;
-				} else {
-					System.out.println("Insufficient funds. Please try again.");
-					convertCurrencyMenu(fx);
-					return;
-				}
-				break;
-			case "AUD":
-				if (fx.getAmount().getAUD().compareTo(amount) >= 0) {
-					sufficientAmount = true;
-				} else {
-					System.out.println("Insufficient funds. Please try again.");
-					convertCurrencyMenu(fx);
-					return;
-				}
-				break;
-			case "USD":
-				if (fx.getAmount().getUSD().compareTo(amount) >= 0) {
-					sufficientAmount = true;
-				} else {
-					System.out.println("Insufficient funds. Please try again.");
-					convertCurrencyMenu(fx);
-					return;
-				}
-				break;
-			case "GBP":
-				if (fx.getAmount().getGBP().compareTo(amount) >= 0) {
-					sufficientAmount = true;
-				} else {
-					System.out.println("Insufficient funds. Please try again.");
-					convertCurrencyMenu(fx);
-					return;
-				}
-				break;
+		if (entered.compareTo(Money.fromBalance(fx.getAmount(), fromCurrency)) > 0) {
+			System.out.println("Insufficient funds. Please try again.");
+			convertCurrencyMenu(fx);
+			return;
 		}
 
 		// If user has sufficient funds, proceed with the conversion
-		if (sufficientAmount && amount.compareTo(BigDecimal.ZERO) > 0) {
+		if (entered.isPositive()) {
 
 			BigDecimal exchangeRate = fx.getExchangeRate(fromCurrency, toCurrency);
 			BigDecimal commissionRate = fx.calculateCommissionRate(amount, toCurrency);
@@ -1464,13 +1705,43 @@ class FxGUI extends GUI {
 				convertCurrencyMenu(fx);
 				return;
 			} else {
-				fx.convertCurrency(amount, fromCurrency, toCurrency, commission, roundConvertedAmount); // User has confirmed the conversion
+				// User has confirmed the conversion. Move both amounts in one change of the versioned balance and
+				// repeat it on the account as one step.
+				VersionedBalance balance = VersionedBalance.forFX(fx);
+				boolean converted;
+				try {
+					String record = GroupCommitJournal.record("Convert", fx.getAccountID(), fromCurrency, amount,
+							toCurrency, roundConvertedAmount, commission);
+					converted = journaled(record, () -> VersionedBalance.atomically(() -> {
+						if (balance.convert(fromCurrency, amount, toCurrency, roundConvertedAmount) == null) {
+							return false;
+						}
+						try {
+							fx.convertCurrency(amount, fromCurrency, toCurrency, commission, roundConvertedAmount);
+						} catch (IOException | RuntimeException e) {
+							// The conversion was not saved, so move both amounts back
+							balance.credit(fromCurrency, amount);
+							balance.credit(toCurrency, roundConvertedAmount.negate());
+							throw e;
+						} finally {
+							balance.publishTo(fx.getAmount());
+						}
+						return true;
+					}));
+				} catch (ConcurrentModificationException e) {
+					converted = false;
+				}
+				if (!converted) {
+					System.out.println("Balance changed during the conversion. Please try again.");
+					convertCurrencyMenu(fx);
+					return;
+				}
 				System.out.println("Please press Enter to go back to FX menu.");
 				System.in.read();
 				scanner.nextLine();
 				return;
 			}
-		} else if (amount.compareTo(BigDecimal.ZERO) <= 0) {
+		} else {
 			System.out.println("Invalid amount. Please try again.");
 			convertCurrencyMenu(fx);
 			return;
@@ -1536,25 +1807,70 @@ class FxGUI extends GUI {
 		String accountID = selectedAccount.getAccountId();
 
 		System.out.println("You have chosen to top up funds from " + accountID + " to your FX account.");
-		Savings savings = Savings.getSavingsByAccountID(accountID);
+		SessionCache session = SessionCache.of(customer.getCustomerID());
+		Savings savings = session.getSavings(accountID);
 
 		System.out.println("Please enter the amount you would like to top up:");
-		BigDecimal topUpAmount = new BigDecimal(GUI.scanner.nextDouble());
-		Limits limitAcc = Limits.getLimitAccByID(accountID);
+		Money entered = this.getAmount("SGD");
+		BigDecimal topUpAmount = entered.toBigDecimal();
+		Limits limitAcc = session.getLimits(accountID);
+		DailyLimitLedger ledger = DailyLimitLedger.shared();
 
-		if (topUpAmount.compareTo(BigDecimal.ZERO) <= 0 || topUpAmount.compareTo(savings.getBalance().getSGD()) > 0) {
+		if (!entered.isPositive() || entered.compareTo(Money.fromBalance(savings.getBalance(), "SGD")) > 0) {
 			System.out.println("Invalid amount. Please try again.");
 			topUpFundsMenu(fx, customer);
 			return;
-		} else if (topUpAmount.compareTo(limitAcc.getRemainTransferAmt(limitAcc).getSGD()) > 0) {
+		} else if (entered.compareTo(ledger.remaining(limitAcc, DailyLimitLedger.Kind.TRANSFER, "SGD")) > 0) {
 			System.out.println("Amount exceeds remaining daily limit of the savings account. Please try again.");
 			topUpFundsMenu(fx, customer);
 			return;
 		}
-		savings.transferFromSavingsToFX(fx, topUpAmount, savings);
+		// Lock both accounts and check again, since another session may have moved money since the checks above
+		boolean toppedUp = false;
+		StripedLocks.Held held = StripedLocks.shared().lock(accountID, fx.getAccountID());
+		try {
+			VersionedBalance from = VersionedBalance.forSavings(savings);
+			VersionedBalance to = VersionedBalance.forFX(fx);
+			DailyLimitLedger.Reservation reservation = ledger.tryReserve(limitAcc, DailyLimitLedger.Kind.TRANSFER,
+					entered);
+			if (reservation != null) {
+				try {
+					String record = GroupCommitJournal.record("Top Up", accountID, fx.getAccountID(), "SGD",
+							topUpAmount);
+					toppedUp = journaled(record, () -> VersionedBalance.atomically(() -> {
+						if (from.debit(entered) == null) {
+							return false;
+						}
+						try {
+							savings.transferFromSavingsToFX(fx, topUpAmount, savings);
+							to.credit(entered);
+						} catch (IOException | RuntimeException e) {
+							from.credit(entered); // The top up was not saved, so put the money back
+							throw e;
+						} finally {
+							from.publishTo(savings.getBalance());
+							to.publishTo(fx.getAmount());
+						}
+						reservation.commit(); // Counted even if the journal then fails to confirm the top up
+						return true;
+					}));
+				} finally {
+					reservation.release(); // No effect once committed
+				}
+			}
+		} catch (ConcurrentModificationException e) {
+			toppedUp = false; // Nothing was debited, so the top up can simply be tried again
+		} finally {
+			held.close();
+		}
+		if (!toppedUp) {
+			System.out.println("Balance or daily limit changed during the top up. Please try again.");
+			topUpFundsMenu(fx, customer);
+			return;
+		}
 		System.out.println(
 				topUpAmount + " SGD has been successfully transferred from " + accountID + " to your FX account.");
-		System.out.println("Your FX account balance is now: " + fx.getAmount().getSGD() + " SGD");
+		System.out.println("Your FX account balance is now: " + VersionedBalance.forFX(fx).snapshot().getSGD() + " SGD");
 		System.out.println("Returning to FX menu...");
 		TimeUnit.SECONDS.sleep(7); // Delay for 7 seconds before returning to FX menu
 		return;
@@ -1566,47 +1882,61 @@ class FxGUI extends GUI {
 	 * currencies that are related to the transaction.
 	 * <p>
 	 * Transaction history is displayed in order of most recent Timestamp to the
-	 * oldest Timestamp.
+	 * oldest Timestamp, one page at a time, and includes the transactions of
+	 * closed periods that have been moved to the transaction archive.
 	 *
 	 * @param fx The FX object representing the foreign exchange functionality.
 	 * @throws IOException if an I/O error occurs.
 	 */
 	protected void fxTransactionTable(FX fx) throws IOException {
-		System.out.println("---------------------------------------------------------------------------------");
-		System.out.println("Account ID: " + fx.getAccountID());
-		System.out.println("Transaction History");
-		System.out.println("---------------------------------------------------------------------------------");
-		System.out.println("||      || Timestamp               || Transaction ID                       || Amount");
-		int index = 1;
-		// Put all transactions in arraylist to sort by timestamp
-		ArrayList<Transactions> transactionHist = fx.getTransactionHistory();
-		Collections.sort(transactionHist, Comparator.comparing(Transactions::getTimestamp).reversed());
-		for (Transactions transactions : transactionHist) {
-			String amt = "";
-			// Display only the amounts that are non-zero
-			if (transactions.getAmount().getSGD().compareTo(BigDecimal.ZERO) != 0) {
-				amt += "SGD: " + transactions.getAmount().getSGD() + " ";
-			}
-			if (transactions.getAmount().getMYR().compareTo(BigDecimal.ZERO) != 0) {
-				amt += "MYR: " + transactions.getAmount().getMYR() + " ";
-			}
-			if (transactions.getAmount().getAUD().compareTo(BigDecimal.ZERO) != 0) {
-				amt += "AUD: " + transactions.getAmount().getAUD() + " ";
+		TransactionHistory.Page previous = null;
+		while (true) {
+			System.out.println("---------------------------------------------------------------------------------");
+			System.out.println("Account ID: " + fx.getAccountID());
+			System.out.println("Transaction History");
+			System.out.println("---------------------------------------------------------------------------------");
+			System.out.println("||      || Timestamp               || Transaction ID                       || Amount");
+			// Only the rows of the requested page are read
+			TransactionHistory.Page page = TransactionHistory.page(fx.getAccountID(), previous, HISTORY_PAGE_SIZE);
+			int index = page.getOffset() + 1;
+			for (TransactionRecord transactions : page.getRows()) {
+				String amt = "";
+				// Display only the amounts that are non-zero
+				if (transactions.getAmount().getSGD().compareTo(BigDecimal.ZERO) != 0) {
+					amt += "SGD: " + transactions.getAmount().getSGD() + " ";
+				}
+				if (transactions.getAmount().getMYR().compareTo(BigDecimal.ZERO) != 0) {
+					amt += "MYR: " + transactions.getAmount().getMYR() + " ";
+				}
+				if (transactions.getAmount().getAUD().compareTo(BigDecimal.ZERO) != 0) {
+					amt += "AUD: " + transactions.getAmount().getAUD() + " ";
+				}
+				if (transactions.getAmount().getUSD().compareTo(BigDecimal.ZERO) != 0) {
+					amt += "USD: " + transactions.getAmount().getUSD() + " ";
+				}
+				if (transactions.getAmount().getGBP().compareTo(BigDecimal.ZERO) != 0) {
+					amt += "GBP: " + transactions.getAmount().getGBP() + " ";
+				}
+
+				System.out.println("|| " + String.format("%3s.", index) + " || "
+						+ String.format("%-23s", transactions.getTimestamp()) +
+						" || " + transactions.getTransactionID() + " || " + amt.trim());
+				index++;
 			}
-			if (transactions.getAmount().getUSD().compareTo(BigDecimal.ZERO) != 0) {
-				amt += "USD: " + transactions.getAmount().getUSD() + " ";
+			System.out.println("---------------------------------------------------------------------------------");
+			if (page.hasMore()) {
+				System.out.println("1. Next Page");
 			}
-			if (transactions.getAmount().getGBP().compareTo(BigDecimal.ZERO) != 0) {
-				amt += "GBP: " + transactions.getAmount().getGBP() + " ";
+			System.out.println("0. Return to FX Menu");
+			int choice = getChoice();
+			if (choice == 0) {
+				return;
+			} else if (choice == 1 && page.hasMore()) {
+				previous = page;
+			} else {
+				System.out.println("Invalid choice. Please try again.");
 			}
-
-			System.out.println("|| " + String.format("%3s.", index) + " || "
-					+ String.format("%-23s", transactions.getTimestamp()) +
-					" || " + transactions.getTransactionID() + " || " + amt.trim());
-			index++;
 		}
-		System.out.println("---------------------------------------------------------------------------------");
-		returnToMenu();
 	}
 }
 
@@ -1660,9 +1990,10 @@ class SettingsGUI extends GUI {
 	 * @throws IOException if an I/O error occurs.
 	 */
 	protected void transferLimitMenu(Limits limitAcc) throws IOException {
+		LimitsStore store = LimitsStore.shared(); // Opening the store brings the limits up to date
 		System.out.println("------------------------Change Daily Transfer Limit------------------------------");
 		System.out.println("Your current transfer limits:");
-		Balance transferLimit = Limits.getTransferLimitByID(limitAcc.getAccountId());
+		Balance transferLimit = limitAcc.getTransferLimit();
 		System.out.println("SGD: " + transferLimit.getSGD());
 		if (limitAcc.getType().equals("Fx")) {
 			System.out.println("MYR: " + transferLimit.getMYR());
@@ -1678,13 +2009,12 @@ class SettingsGUI extends GUI {
 		String currency = currencyList[currencyChoice - 1];
 		System.out.println("---------------------------------------------------------------------------------");
 		System.out.println("Please enter the new daily transfer limit:");
-		BigDecimal newLimit = new BigDecimal(this.getDouble());
-		if (newLimit.compareTo(BigDecimal.ZERO) <= 0) {
+		Money newLimit = this.getAmount(currency);
+		if (!newLimit.isPositive()) {
 			System.out.println("Invalid amount. Please try again.");
 			transferLimitMenu(limitAcc);
 		} else {
-			limitAcc.updateTransferLimit(limitAcc, currency, newLimit);
-			limitAcc.updateCSV(Limits.getLimitsPath());
+			store.setLimit(limitAcc, DailyLimitLedger.Kind.TRANSFER, newLimit);
 			System.out.println("Daily transfer limit changed successfully!");
 			returnToMenu();
 		}
@@ -1705,9 +2035,10 @@ class SettingsGUI extends GUI {
 	 * @throws IOException if an I/O error occurs.
 	 */
 	protected void withdrawLimitMenu(Limits limitAcc) throws IOException {
+		LimitsStore store = LimitsStore.shared(); // Opening the store brings the limits up to date
 		System.out.println("-----------------------Change Daily Withdrawal Limit-----------------------------");
 		System.out.println("Your current transfer limits:");
-		Balance withdrawLimit = Limits.getWithdrawLimitByID(limitAcc.getAccountId());
+		Balance withdrawLimit = limitAcc.getWithdrawLimit();
 		System.out.println("SGD: " + withdrawLimit.getSGD());
 		if (limitAcc.getType().equals("Fx")) {
 			System.out.println("MYR: " + withdrawLimit.getMYR());
@@ -1723,13 +2054,12 @@ class SettingsGUI extends GUI {
 		String currency = currencyList[currencyChoice - 1];
 		System.out.println("---------------------------------------------------------------------------------");
 		System.out.println("Please enter the new daily withdrawal limit:");
-		BigDecimal newLimit = new BigDecimal(this.getDouble());
-		if (newLimit.compareTo(BigDecimal.ZERO) <= 0) {
+		Money newLimit = this.getAmount(currency);
+		if (!newLimit.isPositive()) {
 			System.out.println("Invalid amount. Please try again.");
 			withdrawLimitMenu(limitAcc);
 		} else {
-			limitAcc.updateWithdrawLimit(limitAcc, currency, newLimit);
-			limitAcc.updateCSV(Limits.getLimitsPath());
+			store.setLimit(limitAcc, DailyLimitLedger.Kind.WITHDRAW, newLimit);
 			System.out.println("Daily withdrawal limit changed successfully!");
 			returnToMenu();
 		}
@@ -1747,8 +2077,8 @@ class SettingsGUI extends GUI {
 		System.out.println("----------------------View Daily Limits & Remaining for Today--------------------");
 		System.out.println("------------Transfer Limits-------------");
 		System.out.println("Currency | Daily Limit | Remaining Limit");
-		Balance transferLimit = Limits.getTransferLimitByID(limitAcc.getAccountId());
-		Balance remainTransferLimit = limitAcc.getRemainTransferAmt(limitAcc);
+		Balance transferLimit = limitAcc.getTransferLimit();
+		Balance remainTransferLimit = DailyLimitLedger.shared().remaining(limitAcc, DailyLimitLedger.Kind.TRANSFER);
 		System.out.println("   SGD   | " + String.format("%-11.2f", transferLimit.getSGD()) + " | "
 				+ remainTransferLimit.getSGD());
 		if (limitAcc.getType().equals("Fx")) {
@@ -1764,8 +2094,8 @@ class SettingsGUI extends GUI {
 		System.out.println("----------------------------------------");
 		System.out.println("------------Withdraw Limits-------------");
 		System.out.println("Currency | Daily Limit | Remaining Limit");
-		Balance withdrawLimit = Limits.getWithdrawLimitByID(limitAcc.getAccountId());
-		Balance remainWithdrawLimit = limitAcc.getRemainWithdrawAmt(limitAcc);
+		Balance withdrawLimit = limitAcc.getWithdrawLimit();
+		Balance remainWithdrawLimit = DailyLimitLedger.shared().remaining(limitAcc, DailyLimitLedger.Kind.WITHDRAW);
 		System.out.println("   SGD   | " + String.format("%-11.2f", withdrawLimit.getSGD()) + " | "
 				+ remainWithdrawLimit.getSGD());
 		if (limitAcc.getType().equals("Fx")) {
@@ -2170,6 +2500,7 @@ class LoanGUI extends GUI {
 		// Append the new loan to the CSV file
 		try {
 			SunshineLoan.appendToCSV(SunshineLoan.getPath(), newLoan);
+			SessionCache.invalidateAccount(accountID); // The next lookup finds the new loan
 			System.out.println("Your " + loanType + " Loan application has been submitted successfully.");
 		} catch (IOException e) {
 			System.err.println("An error occurred while saving your loan application: " + e.getMessage());
@@ -2221,7 +2552,7 @@ class LoanGUI extends GUI {
 				paymentAmount = loan.getMonthlyPayment();
 			} else if (paymentChoice == 2) {
 				System.out.println("Please enter the payment amount:");
-				paymentAmount = new BigDecimal(scanner.nextDouble());
+				paymentAmount = this.getAmount("SGD").toBigDecimal();
 				BigDecimal totalPayment = loan.getTotalPayment();
 				if (paymentAmount.compareTo(totalPayment) > 0) {
 					// Check if the payment amount exceeds the total loan amount
@@ -2248,7 +2579,14 @@ class LoanGUI extends GUI {
 				String savingsID = customerSavings.get(choice - 1);
 				Savings savings = Savings.getSavingsByAccountID(savingsID);
 				System.out.println("---------------------------------------------------------------------------------");
-				boolean paid = loan.repayLoan(paymentAmount, savings);
+				BigDecimal payment = paymentAmount;
+				boolean paid;
+				try {
+					paid = VersionedBalance.forSavings(savings).applyLegacyChange(savings.getBalance(),
+							() -> loan.repayLoan(payment, savings));
+				} finally {
+					TransactionStore.shared().postNew();
+				}
 				if (paid) {
 					System.out.println(
 							"Remaining balance for " + savings.getAccountID() + ": $" + savings.getBalance().getSGD());
@@ -2267,36 +2605,32 @@ class LoanGUI extends GUI {
 	/**
 	 * Displays loan repayment transactions for a specific account.
 	 * Retrieves transactions from savings accounts linked to the customer of the specified account 
-	 * that are marked as 'Loan Repayment' and displays them in reverse chronological order.
+	 * that are marked as 'Loan Repayment', including archived ones, and displays them in reverse
+	 * chronological order.
 	 *
 	 * @param account The account whose loan transactions are to be displayed.
+	 * @throws IOException if an archive cannot be opened.
 	 */
-	protected void loanTransactions(Account account) {
-		ArrayList<Transactions> loanAccTransactions = new ArrayList<Transactions>();
-
-		Customer customer = Customer.getCustomerByID(account.getCustomerID());
-		for (Account savingsAcc : Account.getAccountsByType(customer, "Savings")) {
-			ArrayList<Transactions> savingsAccTransactions = Transactions.getTransactionsByAccountID(savingsAcc.getAccountId());
-			if (!savingsAccTransactions.isEmpty()) {
-				for (Transactions transaction : savingsAccTransactions) {
-					if (transaction.getType().equals("Loan Repayment")) {
-						loanAccTransactions.add(transaction);
-					}
-				}
-			}
+	protected void loanTransactions(Account account) throws IOException {
+		List<List<TransactionRecord>> repaymentsByAccount = new ArrayList<List<TransactionRecord>>();
+
+		for (Account savingsAcc : AccountIndex.shared().get(account.getCustomerID(), AccountIndex.ANY, "Savings")) {
+			// Only the loan repayments of each savings account are read from the index
+			repaymentsByAccount.add(TransactionHistory.newestFirst(savingsAcc.getAccountId(), "Loan Repayment"));
 		}
+		// Merge the newest-first repayments of all savings accounts without sorting
+		List<TransactionRecord> loanAccTransactions = TransactionHistory.mergeNewestFirst(repaymentsByAccount);
 
 		if (loanAccTransactions.isEmpty()) {
 			System.out.println("No loan transactions found for this account.");
 		} else {
-			Collections.sort(loanAccTransactions, Comparator.comparing(Transactions::getTimestamp).reversed());
 			System.out.println("---------------------------------------------------------------------------------");
 			System.out.println("Account ID: " + account.getAccountId());
 			System.out.println("Transaction History for Loan Repayments");
 			System.out.println("---------------------------------------------------------------------------------");
 			int index = 1;
 			System.out.println("||      || Timestamp               || Transaction ID                       || Savings Account ID                   || Amount (SGD)");
-			for (Transactions transaction : loanAccTransactions) {
+			for (TransactionRecord transaction : loanAccTransactions) {
 				System.out.println("|| " + String.format("%3s.", index) + " || " + String.format("%-23s", transaction.getTimestamp()) +
 						" || " + transaction.getTransactionID() +  " || "  + transaction.getAccountID() + " || " + transaction.getAmount().getSGD());
 				index++;
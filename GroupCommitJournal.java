@@ -0,0 +1,442 @@
+package com.sunshine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The {@code GroupCommitJournal} class makes money-moving operations durable while sharing one disk flush between
+ * operations that happen at the same time.
+ * <p>
+ * Every deposit, withdrawal, transfer and currency conversion is recorded as one line in an append-only journal.
+ * {@link #commit(String)} queues the line and blocks until it is on disk. A single committer thread takes the first
+ * waiting line, gathers any further lines that arrive within the commit window, up to a maximum batch size, writes
+ * them with one write and then calls {@link FileChannel#force(boolean)} once for the whole batch. Every caller in the
+ * batch is released only after that force has returned.
+ * <p>
+ * The commit window defaults to {@value #DEFAULT_COMMIT_WINDOW_MICROS} microseconds and the batch size to
+ * {@value #DEFAULT_MAX_BATCH} lines. They can be changed with the {@value #COMMIT_WINDOW_PROPERTY} and
+ * {@value #MAX_BATCH_PROPERTY} system properties, and the journal file with {@value #PATH_PROPERTY}.
+ * <p>
+ * The journal keeps the commit latency of the last {@value #LATENCY_SAMPLES} lines, measured from the call to
+ * {@link #commit(String)} until the line is durable, and reports percentiles such as
+ * {@link #getP50CommitNanos()} and {@link #getP99CommitNanos()}.
+ * <p>
+ * The journal is written ahead of the money. {@link #prepare(String)} makes the operation durable before any money
+ * moves, and {@link #complete(String)} or {@link #abort(String)} records afterwards whether it took effect. If the
+ * prepare fails, the operation is refused and nothing has changed. An operation is reported as successful only once
+ * its completion is durable. When the shared journal is opened, usually at startup, every prepared operation without
+ * an outcome is printed as unconfirmed, since the program stopped between moving the money and confirming it, so it can
+ * be checked against the accounts.
+ * <p>
+ * Usage example:
+ * <pre>
+ * GroupCommitJournal journal = GroupCommitJournal.shared();
+ * String id = journal.prepare(GroupCommitJournal.record("Deposit", savings.getAccountID(), "SGD", amount));
+ * try {
+ *     savings.deposit(amount, "Deposit");
+ * } catch (IOException e) {
+ *     journal.abort(id);
+ *     throw e;
+ * }
+ * journal.complete(id); // Only now report the deposit as successful
+ * </pre>
+ *
+ * @version 1.0
+ */
+public class GroupCommitJournal {
+
+    /**
+     * The system property that sets the path of the shared journal.
+     */
+    public static final String PATH_PROPERTY = "sunshine.journal.path";
+
+    /**
+     * The system property that sets the commit window, in microseconds.
+     */
+    public static final String COMMIT_WINDOW_PROPERTY = "sunshine.journal.commitWindowMicros";
+
+    /**
+     * The system property that sets the maximum number of lines per commit.
+     */
+    public static final String MAX_BATCH_PROPERTY = "sunshine.journal.maxBatch";
+
+    /**
+     * The default path of the shared journal.
+     */
+    public static final String DEFAULT_PATH = "./resources/transactions.journal";
+
+    /**
+     * The default commit window, in microseconds.
+     */
+    public static final long DEFAULT_COMMIT_WINDOW_MICROS = 1000;
+
+    /**
+     * The default maximum number of lines per commit.
+     */
+    public static final int DEFAULT_MAX_BATCH = 128;
+
+    /**
+     * The number of recent commit latencies kept for percentiles.
+     */
+    public static final int LATENCY_SAMPLES = 1024;
+
+    /**
+     * The first field of a line that records an operation before its money moves.
+     */
+    private static final String PREPARE = "Prepare";
+
+    /**
+     * The first field of a line that records that a prepared operation took effect.
+     */
+    private static final String COMPLETE = "Complete";
+
+    /**
+     * The first field of a line that records that a prepared operation did not take effect.
+     */
+    private static final String ABORT = "Abort";
+
+    /**
+     * The shared journal, created on first use.
+     */
+    private static volatile GroupCommitJournal shared;
+
+    /**
+     * The lines waiting to be committed.
+     */
+    private final LinkedBlockingQueue<Pending> queue = new LinkedBlockingQueue<Pending>();
+
+    /**
+     * The channel of the journal file. Only used by the committer thread.
+     */
+    private final FileChannel channel;
+
+    /**
+     * The commit window, in nanoseconds.
+     */
+    private final long commitWindowNanos;
+
+    /**
+     * The maximum number of lines per commit.
+     */
+    private final int maxBatch;
+
+    /**
+     * The most recent commit latencies in nanoseconds, used as a ring buffer guarded by this object.
+     */
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+
+    /**
+     * The total number of latencies recorded, guarded by this object.
+     */
+    private long latencyCount;
+
+    /**
+     * The number of forces performed.
+     */
+    private final LongAdder commitCount = new LongAdder();
+
+    /**
+     * The number of lines committed.
+     */
+    private final LongAdder recordCount = new LongAdder();
+
+    /**
+     * Constructs a new GroupCommitJournal and starts its committer thread.
+     * @param path the path to the journal file
+     * @param commitWindowMicros how long to wait for more lines after the first one, in microseconds
+     * @param maxBatch the maximum number of lines per commit
+     * @throws IOException if the journal file cannot be opened
+     */
+    public GroupCommitJournal(String path, long commitWindowMicros, int maxBatch) throws IOException {
+        if (commitWindowMicros < 0 || maxBatch < 1) {
+            throw new IllegalArgumentException("Invalid commit window or batch size: " + commitWindowMicros + ", "
+                    + maxBatch);
+        }
+        this.channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        this.commitWindowNanos = TimeUnit.MICROSECONDS.toNanos(commitWindowMicros);
+        this.maxBatch = maxBatch;
+        Thread committer = new Thread(this::runCommitter, "group-commit");
+        committer.setDaemon(true); // Callers wait for their own commit, so nothing is lost when the program exits
+        committer.start();
+    }
+
+    /**
+     * Gets the shared journal, opening it on first use and printing the operations the last run left unconfirmed.
+     * @return the shared journal
+     * @throws IOException if the journal file cannot be opened or read
+     */
+    public static GroupCommitJournal shared() throws IOException {
+        GroupCommitJournal journal = shared;
+        if (journal == null) {
+            synchronized (GroupCommitJournal.class) {
+                journal = shared;
+                if (journal == null) {
+                    String path = System.getProperty(PATH_PROPERTY, DEFAULT_PATH);
+                    for (String record : unconfirmed(path)) {
+                        System.err.println("Unconfirmed operation, please check it against the accounts: " + record);
+                    }
+                    journal = new GroupCommitJournal(path,
+                            Long.getLong(COMMIT_WINDOW_PROPERTY, DEFAULT_COMMIT_WINDOW_MICROS),
+                            Integer.getInteger(MAX_BATCH_PROPERTY, DEFAULT_MAX_BATCH));
+                    shared = journal;
+                }
+            }
+        }
+        return journal;
+    }
+
+    /**
+     * Reads the operations of a journal file that were prepared but never completed or aborted.
+     * @param path the path to the journal file
+     * @return the records of the unconfirmed operations, oldest first; empty if the file does not exist
+     * @throws IOException if the file cannot be read
+     */
+    public static List<String> unconfirmed(String path) throws IOException {
+        Path file = Paths.get(path);
+        if (!Files.exists(file)) {
+            return new ArrayList<String>();
+        }
+        Map<String, String> prepared = new LinkedHashMap<String, String>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            String[] fields = line.split(",", 3);
+            if (fields.length == 3 && fields[0].equals(PREPARE)) {
+                prepared.put(fields[1], fields[2]);
+            } else if (fields.length >= 2 && (fields[0].equals(COMPLETE) || fields[0].equals(ABORT))) {
+                prepared.remove(fields[1]);
+            }
+        }
+        return new ArrayList<String>(prepared.values());
+    }
+
+    /**
+     * Formats a journal line from the current time, an operation and its details.
+     * @param operation the name of the operation, such as "Deposit"
+     * @param details the accounts, currencies and amounts of the operation
+     * @return the journal line, without a line break
+     */
+    public static String record(String operation, Object... details) {
+        StringBuilder line = new StringBuilder();
+        line.append(Instant.now()).append(',').append(operation);
+        for (Object detail : details) {
+            line.append(',').append(detail);
+        }
+        return line.toString();
+    }
+
+    /**
+     * Records an operation before its money moves, and waits until the record is durable.
+     * @param record the line built by {@link #record(String, Object...)}
+     * @return the ID to pass to {@link #complete(String)} or {@link #abort(String)}
+     * @throws IOException if the record could not be made durable, in which case the operation must not go ahead
+     */
+    public String prepare(String record) throws IOException {
+        String id = UUID.randomUUID().toString();
+        commit(PREPARE + "," + id + "," + record);
+        return id;
+    }
+
+    /**
+     * Records that a prepared operation took effect, and waits until the record is durable.
+     * @param id the ID returned by {@link #prepare(String)}
+     * @throws IOException if the record could not be made durable
+     */
+    public void complete(String id) throws IOException {
+        commit(COMPLETE + "," + id);
+    }
+
+    /**
+     * Records that a prepared operation did not take effect, and waits until the record is durable.
+     * @param id the ID returned by {@link #prepare(String)}
+     * @throws IOException if the record could not be made durable
+     */
+    public void abort(String id) throws IOException {
+        commit(ABORT + "," + id);
+    }
+
+    /**
+     * Writes a line to the journal and waits until it is durable.
+     * @param record the line to write, without a line break
+     * @throws IOException if the line could not be written or forced to disk
+     */
+    public void commit(String record) throws IOException {
+        Pending pending = new Pending(record);
+        queue.add(pending);
+        try {
+            pending.done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the journal commit", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Journal commit failed", e.getCause());
+        }
+    }
+
+    /**
+     * Gets the number of forces performed.
+     * @return the number of commits
+     */
+    public long getCommitCount() {
+        return commitCount.sum();
+    }
+
+    /**
+     * Gets the number of lines committed.
+     * @return the number of lines
+     */
+    public long getRecordCount() {
+        return recordCount.sum();
+    }
+
+    /**
+     * Gets the median commit latency of the recent lines.
+     * @return the median latency in nanoseconds, or 0 if nothing has been committed
+     */
+    public long getP50CommitNanos() {
+        return getCommitLatencyPercentile(50);
+    }
+
+    /**
+     * Gets the 99th percentile commit latency of the recent lines.
+     * @return the 99th percentile latency in nanoseconds, or 0 if nothing has been committed
+     */
+    public long getP99CommitNanos() {
+        return getCommitLatencyPercentile(99);
+    }
+
+    /**
+     * Gets a percentile of the commit latency of the last {@value #LATENCY_SAMPLES} lines.
+     * @param percentile the percentile, between 0 and 100
+     * @return the latency in nanoseconds, or 0 if nothing has been committed
+     */
+    public long getCommitLatencyPercentile(double percentile) {
+        long[] samples;
+        synchronized (this) {
+            samples = Arrays.copyOf(latencies, (int) Math.min(latencyCount, LATENCY_SAMPLES));
+        }
+        if (samples.length == 0) {
+            return 0;
+        }
+        Arrays.sort(samples);
+        int index = (int) Math.ceil(percentile / 100 * samples.length) - 1;
+        return samples[Math.max(0, Math.min(samples.length - 1, index))];
+    }
+
+    /**
+     * Takes batches of lines from the queue and commits them until the program exits.
+     */
+    private void runCommitter() {
+        List<Pending> batch = new ArrayList<Pending>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + commitWindowNanos;
+                while (batch.size() < maxBatch) {
+                    Pending next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                failAll(batch, new IOException("Journal committer was interrupted", e));
+                return;
+            }
+            writeAndForce(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Writes a batch of lines, forces them to disk once, and releases their callers.
+     * @param batch the lines to commit
+     */
+    private void writeAndForce(List<Pending> batch) {
+        StringBuilder text = new StringBuilder();
+        for (Pending pending : batch) {
+            text.append(pending.record).append('\n');
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8));
+        try {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            failAll(batch, e);
+            return;
+        }
+        long now = System.nanoTime();
+        synchronized (this) {
+            for (Pending pending : batch) {
+                latencies[(int) (latencyCount++ % LATENCY_SAMPLES)] = now - pending.enqueuedNanos;
+            }
+        }
+        commitCount.increment();
+        recordCount.add(batch.size());
+        for (Pending pending : batch) {
+            pending.done.complete(null);
+        }
+    }
+
+    /**
+     * Fails every caller in a batch.
+     * @param batch the lines that could not be committed
+     * @param e the error to report to the callers
+     */
+    private static void failAll(List<Pending> batch, IOException e) {
+        for (Pending pending : batch) {
+            pending.done.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * A line waiting to be committed.
+     */
+    private static class Pending {
+
+        /**
+         * The line to write.
+         */
+        final String record;
+
+        /**
+         * The value of {@link System#nanoTime()} when the line was queued.
+         */
+        final long enqueuedNanos = System.nanoTime();
+
+        /**
+         * Completed once the line is durable.
+         */
+        final CompletableFuture<Void> done = new CompletableFuture<Void>();
+
+        /**
+         * Constructs a new Pending line.
+         * @param record the line to write
+         */
+        Pending(String record) {
+            this.record = record;
+        }
+    }
+}
@@ -1,9 +1,16 @@
 package com.sunshine;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.Arrays;
 
 /**
  * The {@code HashingSecurity} class provides cryptographic hashing utilities
@@ -17,6 +24,10 @@ import java.security.SecureRandom;
  * utility methods for converting the resultant hash to a hexadecimal String, and vice versa,
  * for ease of storage and comparison.
  * <p>
+ * Hashing is done with one {@link MessageDigest} and one UTF-8 encoder per thread, which are reused across calls, so
+ * a login storm does not create a new digest and a new byte array for every password. Passwords can also be passed as
+ * {@code char[]} or as UTF-8 {@code byte[]}; all three forms produce the same hash for the same password.
+ * <p>
  * This class is designed to be used in any system that requires strong cryptographic security
  * measures for password storage and verification, to ensure that even if password data is
  * compromised, the actual passwords cannot be easily retrieved.
@@ -34,15 +45,53 @@ import java.security.SecureRandom;
 // HashingSecurity class
 public class HashingSecurity {
 
+    /**
+     * The lower-case hexadecimal digits, indexed by value.
+     */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * The size of the per-thread buffer that passwords are encoded into before hashing.
+     */
+    private static final int ENCODE_BUFFER_SIZE = 256;
+
+    /**
+     * The SHA-256 digest of each thread, created on first use.
+     */
+    private static final ThreadLocal<MessageDigest> SHA_256 = new ThreadLocal<MessageDigest>();
+
+    /**
+     * The UTF-8 encoder of each thread. Malformed input is replaced the same way as {@link String#getBytes}.
+     */
+    private static final ThreadLocal<CharsetEncoder> UTF_8_ENCODER = ThreadLocal.withInitial(
+            () -> StandardCharsets.UTF_8.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE));
+
+    /**
+     * The buffer of each thread that passwords are encoded into.
+     */
+    private static final ThreadLocal<ByteBuffer> ENCODE_BUFFER = ThreadLocal.withInitial(
+            () -> ByteBuffer.allocate(ENCODE_BUFFER_SIZE));
+
     /**
      * Generates a secure random salt.
+     * <p>
+     * The salt comes from the shared {@link SaltProvider}, which reuses a seeded {@link SecureRandom} per thread.
+     * </p>
      * @return A byte array containing the salt.
      */
     public static byte[] generateSalt() {
-        SecureRandom random = new SecureRandom();
-        byte[] salt = new byte[16]; // 16 bytes = 128 bits
-        random.nextBytes(salt);
-        return salt;
+        return SaltProvider.generateSalt(); // 16 bytes = 128 bits
+    }
+
+    /**
+     * Generates many secure random salts at once, for bulk account imports.
+     * @param n The number of salts to generate.
+     * @return An array of n salts.
+     */
+    public static byte[][] generateSalts(int n) {
+        return SaltProvider.generateSalts(n);
     }
 
     /**
@@ -54,10 +103,95 @@ public class HashingSecurity {
      * @throws UnsupportedEncodingException If UTF-8 encoding is not supported.
      */
     public static String hashString(String password, byte[] salt) throws NoSuchAlgorithmException, UnsupportedEncodingException {
-        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        MessageDigest digest = sha256();
+        digest.update(salt);
+        updateUtf8(digest, CharBuffer.wrap(password));
+        return bytesToHex(digest.digest());
+    }
+
+    /**
+     * Hashes a password held in a character array using SHA-256 with a salt.
+     * <p>
+     * The characters are encoded as UTF-8, so the result is the same as hashing the equivalent String. No String
+     * copy of the password is created, and the caller can clear the array afterwards.
+     * </p>
+     * @param password The password to hash.
+     * @param salt The salt to use in the hashing process.
+     * @return A hexadecimal string of the hashed value.
+     * @throws NoSuchAlgorithmException If SHA-256 is not available.
+     */
+    public static String hashString(char[] password, byte[] salt) throws NoSuchAlgorithmException {
+        MessageDigest digest = sha256();
         digest.update(salt);
-        byte[] hash = digest.digest(password.getBytes("UTF-8"));
-        return bytesToHex(hash);
+        updateUtf8(digest, CharBuffer.wrap(password));
+        return bytesToHex(digest.digest());
+    }
+
+    /**
+     * Hashes a password that is already encoded as UTF-8 bytes using SHA-256 with a salt.
+     * @param password The UTF-8 bytes of the password to hash.
+     * @param salt The salt to use in the hashing process.
+     * @return A hexadecimal string of the hashed value.
+     * @throws NoSuchAlgorithmException If SHA-256 is not available.
+     */
+    public static String hashString(byte[] password, byte[] salt) throws NoSuchAlgorithmException {
+        MessageDigest digest = sha256();
+        digest.update(salt);
+        digest.update(password);
+        return bytesToHex(digest.digest());
+    }
+
+    /**
+     * Gets the SHA-256 digest of the current thread, ready for a new hash.
+     * @return The reset SHA-256 digest of the current thread.
+     * @throws NoSuchAlgorithmException If SHA-256 is not available.
+     */
+    private static MessageDigest sha256() throws NoSuchAlgorithmException {
+        MessageDigest digest = SHA_256.get();
+        if (digest == null) {
+            digest = MessageDigest.getInstance("SHA-256");
+            SHA_256.set(digest);
+        } else {
+            digest.reset(); // Discard any state left by a call that failed part way
+        }
+        return digest;
+    }
+
+    /**
+     * Encodes characters as UTF-8 into the buffer of the current thread and feeds them to a digest.
+     * <p>
+     * The buffer is cleared after use so that no password bytes are left behind in it.
+     * </p>
+     * @param digest The digest to update.
+     * @param chars The characters to encode.
+     */
+    private static void updateUtf8(MessageDigest digest, CharBuffer chars) {
+        CharsetEncoder encoder = UTF_8_ENCODER.get();
+        ByteBuffer buffer = ENCODE_BUFFER.get();
+        encoder.reset();
+        buffer.clear();
+        CoderResult result;
+        do {
+            result = encoder.encode(chars, buffer, true);
+            if (result.isOverflow()) {
+                drain(digest, buffer);
+            }
+        } while (result.isOverflow());
+        while (encoder.flush(buffer).isOverflow()) {
+            drain(digest, buffer);
+        }
+        drain(digest, buffer);
+    }
+
+    /**
+     * Feeds the encoded bytes in a buffer to a digest, then wipes and clears the buffer.
+     * @param digest The digest to update.
+     * @param buffer The buffer holding the encoded bytes.
+     */
+    private static void drain(MessageDigest digest, ByteBuffer buffer) {
+        digest.update(buffer.array(), 0, buffer.position());
+        Arrays.fill(buffer.array(), 0, buffer.position(), (byte) 0);
+        buffer.clear();
     }
 
     /**
@@ -66,13 +200,22 @@ public class HashingSecurity {
      * @return A hexadecimal string representation of the byte array.
      */
     public static String bytesToHex(byte[] bytes) {
-        StringBuilder hexString = new StringBuilder();
+        char[] hex = new char[bytes.length * 2];
+        bytesToHex(bytes, hex, 0);
+        return new String(hex);
+    }
+
+    /**
+     * Writes the lower-case hexadecimal representation of a byte array into a character array.
+     * @param bytes The byte array to convert.
+     * @param out The character array to write into. It must have room for two characters per byte.
+     * @param offset The index in the character array to start writing at.
+     */
+    public static void bytesToHex(byte[] bytes, char[] out, int offset) {
         for (byte aByte : bytes) {
-            String hex = Integer.toHexString(0xff & aByte);
-            if (hex.length() == 1) hexString.append('0');
-            hexString.append(hex);
+            out[offset++] = HEX_DIGITS[(aByte >> 4) & 0x0f];
+            out[offset++] = HEX_DIGITS[aByte & 0x0f];
         }
-        return hexString.toString();
     }
 
     /**
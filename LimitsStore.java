@@ -0,0 +1,440 @@
+package com.sunshine;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The {@code LimitsStore} class keeps the daily limits of every account in a file of fixed-width records, so changing
+ * one limit writes a few bytes in place instead of rewriting the whole limits CSV.
+ * <p>
+ * The file starts with a header of {@value #HEADER_SIZE} bytes: a magic number and the record size. Each record holds
+ * an account ID, padded to {@value #ID_SIZE} bytes, followed by the withdrawal limits and then the transfer limits in
+ * the five currencies, each a {@code long} in minor units. The position of every account's record is kept in memory,
+ * so changing a limit is one positional {@link FileChannel#write(ByteBuffer, long)} of eight bytes followed by a
+ * force, however many accounts there are. New accounts are appended.
+ * <p>
+ * The first time the store is opened and its file does not exist yet, it is created from the limits that
+ * {@link Limits} loaded from the CSV, for every account in {@link Account#allAccounts} that has limits. The CSV is only
+ * the source of that migration and is no longer authoritative afterwards: limit changes and the limits of new accounts
+ * are written to the store alone, and the CSV keeps what it held when the store was created. Every time the store is
+ * opened, the limits it holds are copied into the {@link Limits} objects loaded from the CSV, and accounts the CSV
+ * does not have get a Limits object built from their record. {@link #getLimitAcc(String)} finds either kind.
+ * <p>
+ * The shared store is kept in {@value #DEFAULT_PATH} unless the {@value #PATH_PROPERTY} system property is set.
+ * <p>
+ * Usage example:
+ * <pre>
+ * LimitsStore.shared().setLimit(limitAcc, DailyLimitLedger.Kind.TRANSFER, Money.ofMinor("SGD", 200000));
+ * </pre>
+ *
+ * @version 1.0
+ */
+public class LimitsStore {
+
+    /**
+     * The system property that sets the path of the shared store.
+     */
+    public static final String PATH_PROPERTY = "sunshine.limits.store";
+
+    /**
+     * The default path of the shared store.
+     */
+    public static final String DEFAULT_PATH = "./resources/limits.dat";
+
+    /**
+     * The magic number at the start of the file.
+     */
+    private static final int MAGIC = 0x534C494D; // "SLIM"
+
+    /**
+     * The size of the header, in bytes.
+     */
+    public static final int HEADER_SIZE = 8;
+
+    /**
+     * The size of the account ID field, in bytes. Account IDs are UUIDs.
+     */
+    public static final int ID_SIZE = 36;
+
+    /**
+     * The number of limits in a record: one per kind of limit and currency.
+     */
+    private static final int LIMITS_PER_RECORD = DailyLimitLedger.Kind.values().length
+            * VersionedBalance.CURRENCIES.length;
+
+    /**
+     * The size of a record, in bytes.
+     */
+    public static final int RECORD_SIZE = ID_SIZE + LIMITS_PER_RECORD * Long.BYTES;
+
+    /**
+     * The shared store, opened on first use.
+     */
+    private static volatile LimitsStore shared;
+
+    /**
+     * The channel of the store file.
+     */
+    private final FileChannel channel;
+
+    /**
+     * The index of each account's record, keyed by account ID.
+     */
+    private final ConcurrentHashMap<String, Integer> slots = new ConcurrentHashMap<String, Integer>();
+
+    /**
+     * The limits of stored accounts that the CSV does not have, keyed by account ID.
+     */
+    private final ConcurrentHashMap<String, Limits> storedOnly = new ConcurrentHashMap<String, Limits>();
+
+    /**
+     * The number of records in the file. Guarded by this object.
+     */
+    private int recordCount;
+
+    /**
+     * Opens a store, creating it from the current limits if the file does not exist, and copies the stored limits
+     * into the {@link Limits} objects.
+     * @param path the path to the store file
+     * @throws IOException if the file cannot be read, written or created, or is not a limits store
+     */
+    public LimitsStore(String path) throws IOException {
+        Path file = Paths.get(path);
+        if (!Files.exists(file)) {
+            migrate(file);
+        }
+        this.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        load();
+    }
+
+    /**
+     * Gets the shared store, opening it on first use.
+     * @return the shared store
+     * @throws IOException if the store cannot be opened
+     */
+    public static LimitsStore shared() throws IOException {
+        LimitsStore store = shared;
+        if (store == null) {
+            synchronized (LimitsStore.class) {
+                store = shared;
+                if (store == null) {
+                    store = new LimitsStore(System.getProperty(PATH_PROPERTY, DEFAULT_PATH));
+                    shared = store;
+                }
+            }
+        }
+        return store;
+    }
+
+    /**
+     * Gets the limits of an account, whether they were loaded from the CSV or only exist in the store.
+     * @param accountId the ID of the account
+     * @return the limits, or null if the account has none
+     */
+    public Limits getLimitAcc(String accountId) {
+        Limits limitAcc = Limits.getLimitAccByID(accountId);
+        return limitAcc != null ? limitAcc : storedOnly.get(accountId);
+    }
+
+    /**
+     * Changes one limit of an account, both in the store and in its {@link Limits} object. The CSV is not changed.
+     * @param limitAcc the limits of the account
+     * @param kind the kind of limit
+     * @param amount the new limit, in the currency of the limit
+     * @throws IOException if the limit cannot be written
+     */
+    public void setLimit(Limits limitAcc, DailyLimitLedger.Kind kind, Money amount) throws IOException {
+        String currency = amount.getCurrency();
+        long minorUnits = amount.getMinorUnits();
+        Integer slot = slots.get(limitAcc.getAccountId());
+        if (slot == null) {
+            slot = add(limitAcc);
+        }
+        ByteBuffer value = ByteBuffer.allocate(Long.BYTES);
+        value.putLong(0, minorUnits);
+        writeFully(value, offsetOf(slot) + ID_SIZE + (long) fieldOf(kind, currency) * Long.BYTES);
+        channel.force(false);
+        Balance limits = limitsOf(limitAcc, kind);
+        if (limits != null) {
+            set(limits, currency, amount.toBigDecimal());
+        }
+    }
+
+    /**
+     * Adds the limits of a new account at the end of the store. An account that is already stored keeps its record.
+     * The limits are not written to the CSV.
+     * @param limitAcc the limits of the account
+     * @return the index of the account's record
+     * @throws IOException if the record cannot be written
+     */
+    public synchronized int add(Limits limitAcc) throws IOException {
+        String accountId = limitAcc.getAccountId();
+        Integer existing = slots.get(accountId);
+        if (existing != null) {
+            return existing;
+        }
+        int slot = recordCount;
+        writeFully(encode(accountId, limitAcc.getWithdrawLimit(), limitAcc.getTransferLimit()), offsetOf(slot));
+        channel.force(false);
+        recordCount++;
+        slots.put(accountId, slot);
+        if (Limits.getLimitAccByID(accountId) == null) {
+            storedOnly.put(accountId, limitAcc);
+        }
+        return slot;
+    }
+
+    /**
+     * Gets the stored limits of an account.
+     * @param accountId the ID of the account
+     * @param kind the kind of limit
+     * @return the limits in every currency, or null if the account is not stored
+     * @throws IOException if the record cannot be read
+     */
+    public Balance getLimits(String accountId, DailyLimitLedger.Kind kind) throws IOException {
+        Integer slot = slots.get(accountId);
+        if (slot == null) {
+            return null;
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        readFully(record, offsetOf(slot));
+        return decode(record, kind);
+    }
+
+    /**
+     * Gets the number of accounts in the store.
+     * @return the number of records
+     */
+    public synchronized int size() {
+        return recordCount;
+    }
+
+    /**
+     * Reads every record once, remembering its position and copying its limits into the {@link Limits} objects.
+     * @throws IOException if the file cannot be read or is not a limits store
+     */
+    private void load() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(header, 0);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != RECORD_SIZE) {
+            throw new IOException("Not a limits store: " + header.getInt(0) + ", " + header.getInt(4));
+        }
+        long records = (channel.size() - HEADER_SIZE) / RECORD_SIZE;
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        Map<String, Account> accounts = null;
+        for (int slot = 0; slot < records; slot++) {
+            record.clear();
+            readFully(record, offsetOf(slot));
+            String accountId = new String(record.array(), 0, ID_SIZE, StandardCharsets.US_ASCII).trim();
+            slots.put(accountId, slot);
+            Limits limitAcc = Limits.getLimitAccByID(accountId);
+            if (limitAcc != null) {
+                for (DailyLimitLedger.Kind kind : DailyLimitLedger.Kind.values()) {
+                    overlay(limitAcc, kind, record);
+                }
+                continue;
+            }
+            if (accounts == null) {
+                accounts = new HashMap<String, Account>();
+                for (Account account : Account.allAccounts) {
+                    accounts.put(account.getAccountId(), account);
+                }
+            }
+            Account account = accounts.get(accountId);
+            if (account != null) { // Records of accounts that no longer exist are left alone
+                storedOnly.put(accountId, new Limits(account, decode(record, DailyLimitLedger.Kind.WITHDRAW),
+                        decode(record, DailyLimitLedger.Kind.TRANSFER)));
+            }
+        }
+        recordCount = (int) records; // A torn record at the end is overwritten by the next add
+    }
+
+    /**
+     * Copies the limits of one kind from a record into a {@link Limits} object, leaving unchanged limits alone.
+     * @param limitAcc the limits of the account
+     * @param kind the kind of limit
+     * @param record the record of the account
+     */
+    private static void overlay(Limits limitAcc, DailyLimitLedger.Kind kind, ByteBuffer record) {
+        Balance current = limitsOf(limitAcc, kind);
+        if (current == null) {
+            return;
+        }
+        for (String currency : VersionedBalance.CURRENCIES) {
+            long stored = record.getLong(ID_SIZE + fieldOf(kind, currency) * Long.BYTES);
+            if (stored != Money.fromBalance(current, currency).getMinorUnits()) {
+                set(current, currency, BigDecimal.valueOf(stored, Money.SCALE));
+            }
+        }
+    }
+
+    /**
+     * Builds the limits of one kind from a record.
+     * @param record the record of the account
+     * @param kind the kind of limit
+     * @return the limits in every currency
+     */
+    private static Balance decode(ByteBuffer record, DailyLimitLedger.Kind kind) {
+        Balance limits = new Balance();
+        for (String currency : VersionedBalance.CURRENCIES) {
+            long stored = record.getLong(ID_SIZE + fieldOf(kind, currency) * Long.BYTES);
+            set(limits, currency, BigDecimal.valueOf(stored, Money.SCALE));
+        }
+        return limits;
+    }
+
+    /**
+     * Gets the limits of one kind held by a {@link Limits} object.
+     * @param limitAcc the limits of the account
+     * @param kind the kind of limit
+     * @return the limits in every currency, or null if there are none
+     */
+    private static Balance limitsOf(Limits limitAcc, DailyLimitLedger.Kind kind) {
+        return kind == DailyLimitLedger.Kind.WITHDRAW ? limitAcc.getWithdrawLimit() : limitAcc.getTransferLimit();
+    }
+
+    /**
+     * Sets one currency of a Balance.
+     * @param balance the balance
+     * @param currency the currency, such as "SGD"
+     * @param amount the new amount
+     */
+    private static void set(Balance balance, String currency, BigDecimal amount) {
+        switch (currency) {
+            case "SGD":
+                balance.setSGD(amount);
+                break;
+            case "MYR":
+                balance.setMYR(amount);
+                break;
+            case "AUD":
+                balance.setAUD(amount);
+                break;
+            case "USD":
+                balance.setUSD(amount);
+                break;
+            case "GBP":
+                balance.setGBP(amount);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown currency: " + currency);
+        }
+    }
+
+    /**
+     * Creates the store file from the limits {@link Limits} loaded from the CSV. The file is written under a
+     * temporary name and then moved into place, so a failed migration leaves no half-written store behind.
+     * @param file the path to the store file
+     * @throws IOException if the file cannot be written
+     */
+    private static void migrate(Path file) throws IOException {
+        Path temp = Paths.get(file + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(RECORD_SIZE).flip();
+            while (header.hasRemaining()) {
+                out.write(header);
+            }
+            for (Account account : Account.allAccounts) {
+                String accountId = account.getAccountId();
+                Balance withdrawLimit = Limits.getWithdrawLimitByID(accountId);
+                Balance transferLimit = Limits.getTransferLimitByID(accountId);
+                if (withdrawLimit == null && transferLimit == null) {
+                    continue; // Insurance, credit card and loan accounts have no limits
+                }
+                ByteBuffer record = encode(accountId, withdrawLimit, transferLimit);
+                while (record.hasRemaining()) {
+                    out.write(record);
+                }
+            }
+            out.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Encodes the record of an account.
+     * @param accountId the ID of the account
+     * @param withdrawLimit the daily withdrawal limits, or null if there are none
+     * @param transferLimit the daily transfer limits, or null if there are none
+     * @return the record, ready to be written
+     */
+    private static ByteBuffer encode(String accountId, Balance withdrawLimit, Balance transferLimit) {
+        byte[] id = accountId.getBytes(StandardCharsets.US_ASCII);
+        if (id.length > ID_SIZE) {
+            throw new IllegalArgumentException("Account ID is longer than " + ID_SIZE + " bytes: " + accountId);
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        record.put(id);
+        while (record.position() < ID_SIZE) {
+            record.put((byte) ' ');
+        }
+        for (DailyLimitLedger.Kind kind : DailyLimitLedger.Kind.values()) {
+            Balance limits = kind == DailyLimitLedger.Kind.WITHDRAW ? withdrawLimit : transferLimit;
+            for (String currency : VersionedBalance.CURRENCIES) {
+                record.putLong(limits == null ? 0 : Money.fromBalance(limits, currency).getMinorUnits());
+            }
+        }
+        record.flip();
+        return record;
+    }
+
+    /**
+     * Gets the position of a limit within a record, counted in limits after the account ID.
+     * @param kind the kind of limit
+     * @param currency the currency
+     * @return the index of the limit
+     */
+    private static int fieldOf(DailyLimitLedger.Kind kind, String currency) {
+        return kind.ordinal() * VersionedBalance.CURRENCIES.length + VersionedBalance.indexOf(currency);
+    }
+
+    /**
+     * Gets the position of a record in the file.
+     * @param slot the index of the record
+     * @return the offset of the record, in bytes
+     */
+    private static long offsetOf(int slot) {
+        return HEADER_SIZE + (long) slot * RECORD_SIZE;
+    }
+
+    /**
+     * Writes a whole buffer at a position.
+     * @param buffer the bytes to write
+     * @param position the offset in the file
+     * @throws IOException if the bytes cannot be written
+     */
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Fills a buffer from a position.
+     * @param buffer the buffer to fill
+     * @param position the offset in the file
+     * @throws IOException if the bytes cannot be read or the file ends first
+     */
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Limits store ends at " + position);
+            }
+            position += read;
+        }
+    }
+}
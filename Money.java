@@ -0,0 +1,262 @@
+package com.sunshine;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+
+/**
+ * The {@code Money} class represents an amount in one currency as a whole number of minor units, such as cents.
+ * <p>
+ * The amount is kept in a {@code long} with {@value #SCALE} decimal places, so 12.30 SGD is stored as 1230. Comparing,
+ * adding and subtracting amounts is plain integer arithmetic: it never rounds, never creates intermediate
+ * {@link BigDecimal} or {@link BigInteger} objects, and throws an {@link ArithmeticException} instead of
+ * silently wrapping around on overflow. Amounts in different currencies cannot be compared or added. Adding,
+ * subtracting and negating still return a new Money, so code that sums many amounts, such as
+ * {@link DailyLimitLedger}, works on {@link #getMinorUnits()} directly.
+ * <p>
+ * Conversion from and to {@link BigDecimal} through {@link #of(String, BigDecimal)} and {@link #toBigDecimal()} is
+ * exact: amounts with more than {@value #SCALE} decimal places are refused rather than rounded. Amounts typed in by a
+ * user are read from the input as decimal text, never as a double, and go through
+ * {@link #ofEntered(String, BigDecimal)}, which refuses fractions of a cent and amounts too large to hold. The one conversion that is not exact is
+ * {@link #fromBalance(Balance, String)}: a {@link Balance} can hold fractions of a cent, such as the result of a
+ * currency conversion, and those are dropped.
+ * <p>
+ * Money objects are immutable.
+ *
+ * @version 1.0
+ */
+public final class Money implements Comparable<Money> {
+
+    /**
+     * The number of decimal places of the minor unit. Every currency handled by the bank has cents.
+     */
+    public static final int SCALE = 2;
+
+    /**
+     * The currency code, such as "SGD".
+     */
+    private final String currency;
+
+    /**
+     * The amount in minor units.
+     */
+    private final long minorUnits;
+
+    /**
+     * Constructs a new Money.
+     * @param currency the currency code
+     * @param minorUnits the amount in minor units
+     */
+    private Money(String currency, long minorUnits) {
+        if (currency == null) {
+            throw new IllegalArgumentException("Currency must not be null");
+        }
+        this.currency = currency;
+        this.minorUnits = minorUnits;
+    }
+
+    /**
+     * Creates an amount from a number of minor units.
+     * @param currency the currency code, such as "SGD"
+     * @param minorUnits the amount in minor units, such as cents
+     * @return the amount
+     */
+    public static Money ofMinor(String currency, long minorUnits) {
+        return new Money(currency, minorUnits);
+    }
+
+    /**
+     * Creates an amount from a BigDecimal without rounding.
+     * @param currency the currency code, such as "SGD"
+     * @param amount the amount
+     * @return the amount
+     * @throws ArithmeticException if the amount has more than {@value #SCALE} decimal places or does not fit in a long
+     */
+    public static Money of(String currency, BigDecimal amount) {
+        return new Money(currency, amount.setScale(SCALE).unscaledValue().longValueExact());
+    }
+
+    /**
+     * Creates an amount from a number typed in by a user.
+     * @param currency the currency code, such as "SGD"
+     * @param entered the number typed in, as read from the input
+     * @return the amount
+     * @throws IllegalArgumentException if the number is missing, has more than {@value #SCALE} decimal places or is
+     *         too large
+     */
+    public static Money ofEntered(String currency, BigDecimal entered) {
+        if (entered == null) {
+            throw new IllegalArgumentException("Not an amount: null");
+        }
+        BigDecimal amount = entered;
+        if (amount.stripTrailingZeros().scale() > SCALE) {
+            throw new IllegalArgumentException("Amount has more than " + SCALE + " decimal places: " + entered);
+        }
+        try {
+            return new Money(currency, amount.setScale(SCALE).unscaledValue().longValueExact());
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("Amount is too large: " + entered);
+        }
+    }
+
+    /**
+     * Gets one currency of a Balance, rounded towards negative infinity to a whole minor unit.
+     * <p>
+     * This conversion is not exact. Fractions of a minor unit are dropped and an amount beyond the range of a long is
+     * capped at the largest or smallest Money, so the result never exceeds what the balance really holds and is safe
+     * to check funds or limits against.
+     * </p>
+     * @param balance the balance
+     * @param currency the currency code, such as "SGD"
+     * @return the amount, or zero if the balance has no amount for the currency
+     */
+    public static Money fromBalance(Balance balance, String currency) {
+        BigDecimal amount;
+        switch (currency) {
+            case "SGD":
+                amount = balance.getSGD();
+                break;
+            case "MYR":
+                amount = balance.getMYR();
+                break;
+            case "AUD":
+                amount = balance.getAUD();
+                break;
+            case "USD":
+                amount = balance.getUSD();
+                break;
+            case "GBP":
+                amount = balance.getGBP();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown currency: " + currency);
+        }
+        if (amount == null) {
+            return new Money(currency, 0);
+        }
+        BigInteger minorUnits = amount.setScale(SCALE, RoundingMode.FLOOR).unscaledValue();
+        if (minorUnits.bitLength() >= Long.SIZE) {
+            return new Money(currency, minorUnits.signum() > 0 ? Long.MAX_VALUE : Long.MIN_VALUE);
+        }
+        return new Money(currency, minorUnits.longValue());
+    }
+
+    /**
+     * Gets the currency code.
+     * @return the currency code
+     */
+    public String getCurrency() {
+        return currency;
+    }
+
+    /**
+     * Gets the amount in minor units.
+     * @return the amount in minor units
+     */
+    public long getMinorUnits() {
+        return minorUnits;
+    }
+
+    /**
+     * Converts the amount to a BigDecimal with {@value #SCALE} decimal places, without rounding.
+     * @return the amount
+     */
+    public BigDecimal toBigDecimal() {
+        return BigDecimal.valueOf(minorUnits, SCALE);
+    }
+
+    /**
+     * Adds another amount in the same currency.
+     * @param other the amount to add
+     * @return the sum
+     * @throws ArithmeticException if the sum does not fit in a long
+     */
+    public Money plus(Money other) {
+        checkCurrency(other);
+        return new Money(currency, Math.addExact(minorUnits, other.minorUnits));
+    }
+
+    /**
+     * Subtracts another amount in the same currency.
+     * @param other the amount to subtract
+     * @return the difference
+     * @throws ArithmeticException if the difference does not fit in a long
+     */
+    public Money minus(Money other) {
+        checkCurrency(other);
+        return new Money(currency, Math.subtractExact(minorUnits, other.minorUnits));
+    }
+
+    /**
+     * Gets the same amount with the opposite sign.
+     * @return the negated amount
+     * @throws ArithmeticException if the negated amount does not fit in a long
+     */
+    public Money negate() {
+        return new Money(currency, Math.negateExact(minorUnits));
+    }
+
+    /**
+     * Checks whether the amount is greater than zero.
+     * @return true if the amount is positive
+     */
+    public boolean isPositive() {
+        return minorUnits > 0;
+    }
+
+    /**
+     * Checks whether the amount is zero.
+     * @return true if the amount is zero
+     */
+    public boolean isZero() {
+        return minorUnits == 0;
+    }
+
+    /**
+     * Compares this amount with another amount in the same currency.
+     * @param other the amount to compare with
+     * @return a negative number, zero or a positive number as this amount is less than, equal to or greater than the
+     *         other
+     */
+    @Override
+    public int compareTo(Money other) {
+        checkCurrency(other);
+        return Long.compare(minorUnits, other.minorUnits);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof Money)) {
+            return false;
+        }
+        Money other = (Money) obj;
+        return minorUnits == other.minorUnits && currency.equals(other.currency);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * currency.hashCode() + Long.hashCode(minorUnits);
+    }
+
+    /**
+     * Returns the amount followed by the currency, such as "12.30 SGD".
+     * @return the amount and currency
+     */
+    @Override
+    public String toString() {
+        return toBigDecimal().toPlainString() + " " + currency;
+    }
+
+    /**
+     * Checks that another amount is in the same currency.
+     * @param other the other amount
+     */
+    private void checkCurrency(Money other) {
+        if (!currency.equals(other.currency)) {
+            throw new IllegalArgumentException("Currency mismatch: " + currency + " and " + other.currency);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.sunshine;
+
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The {@code PasswordHasher} interface is implemented by each password hashing scheme supported by
+ * {@link PasswordHashing}.
+ * <p>
+ * Every scheme writes its stored hashes with a fixed prefix so that the scheme of a stored hash can be recognized when
+ * a customer logs in. The original salted SHA-256 scheme has an empty prefix because hashes written before schemes
+ * were versioned are plain hexadecimal strings.
+ *
+ * @version 1.0
+ */
+public interface PasswordHasher {
+
+    /**
+     * Gets the prefix that identifies hashes written by this scheme.
+     * @return the prefix of stored hashes, or an empty string for the original unversioned scheme
+     */
+    String getPrefix();
+
+    /**
+     * Hashes a password with a salt.
+     * @param password the password to hash
+     * @param salt the salt of the customer
+     * @return the stored form of the hash, including the scheme prefix
+     * @throws NoSuchAlgorithmException if the algorithm of the scheme is not available
+     */
+    String hash(char[] password, byte[] salt) throws NoSuchAlgorithmException;
+
+    /**
+     * Checks a password against a hash written by this scheme.
+     * @param password the password entered by the customer
+     * @param salt the salt of the customer
+     * @param storedHash the stored form of the hash
+     * @return true if the password matches, false otherwise
+     * @throws NoSuchAlgorithmException if the algorithm of the scheme is not available
+     */
+    boolean matches(char[] password, byte[] salt, String storedHash) throws NoSuchAlgorithmException;
+
+    /**
+     * Checks if a hash written by this scheme should be replaced by a fresh hash, for example because it was written
+     * with weaker parameters than the scheme now uses.
+     * @param storedHash the stored form of the hash
+     * @return true if the hash should be replaced, false otherwise
+     */
+    boolean needsRehash(String storedHash);
+}
@@ -0,0 +1,137 @@
+package com.sunshine;
+
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * The {@code PasswordHashing} class chooses the password hashing scheme for new hashes and recognizes the scheme of
+ * stored hashes.
+ * <p>
+ * Two schemes are supported: PBKDF2-HMAC-SHA256 ({@link Pbkdf2PasswordHasher}), which is used for new hashes by
+ * default, and the original salted SHA-256 ({@link Sha256PasswordHasher}), which is kept so that existing customers
+ * can still log in. The scheme for new hashes can be changed with the {@value #SCHEME_PROPERTY} system property
+ * ({@code pbkdf2} or {@code sha256}).
+ * <p>
+ * Verification runs on the bounded {@link PasswordVerificationPool}, because a slow KDF makes every login CPU-bound.
+ * {@code LoginGUI.loginMenu} checks passwords with {@link #verifyAndUpgrade(Customer, String)}, so when a customer
+ * logs in with a hash written by an older scheme, it is replaced with a hash from the current scheme.
+ * <p>
+ * Example usage:
+ * <pre>
+ * String stored = PasswordHashing.hash("myPassword123", salt);
+ * boolean valid = PasswordHashing.verify("myPassword123", salt, stored);
+ * </pre>
+ *
+ * @version 1.0
+ */
+public class PasswordHashing {
+
+    /**
+     * The system property that selects the scheme for new hashes.
+     */
+    public static final String SCHEME_PROPERTY = "sunshine.password.scheme";
+
+    /**
+     * The PBKDF2 scheme.
+     */
+    private static final PasswordHasher PBKDF2 = new Pbkdf2PasswordHasher();
+
+    /**
+     * The original salted SHA-256 scheme.
+     */
+    private static final PasswordHasher SHA_256 = new Sha256PasswordHasher();
+
+    /**
+     * The scheme used for new hashes.
+     */
+    private static final PasswordHasher current = "sha256".equalsIgnoreCase(System.getProperty(SCHEME_PROPERTY))
+            ? SHA_256 : PBKDF2;
+
+    /**
+     * Gets the scheme used for new hashes.
+     * @return the current scheme
+     */
+    public static PasswordHasher currentScheme() {
+        return current;
+    }
+
+    /**
+     * Finds the scheme that wrote a stored hash from its prefix.
+     * @param storedHash the stored form of the hash
+     * @return the scheme that wrote the hash
+     */
+    public static PasswordHasher schemeOf(String storedHash) {
+        if (storedHash.startsWith(PBKDF2.getPrefix())) {
+            return PBKDF2;
+        }
+        return SHA_256; // Unprefixed hashes were written before schemes were versioned
+    }
+
+    /**
+     * Hashes a password with the current scheme.
+     * @param password the password to hash
+     * @param salt the salt of the customer
+     * @return the stored form of the hash
+     * @throws NoSuchAlgorithmException if the algorithm of the current scheme is not available
+     */
+    public static String hash(String password, byte[] salt) throws NoSuchAlgorithmException {
+        char[] chars = password.toCharArray();
+        try {
+            return current.hash(chars, salt);
+        } finally {
+            Arrays.fill(chars, '\0');
+        }
+    }
+
+    /**
+     * Checks a password against a stored hash on the verification pool.
+     * @param password the password entered by the customer
+     * @param salt the salt of the customer
+     * @param storedHash the stored form of the hash
+     * @return true if the password matches, false otherwise
+     * @throws NoSuchAlgorithmException if the algorithm of the hash's scheme is not available
+     * @throws java.util.concurrent.RejectedExecutionException if the verification pool is saturated
+     */
+    public static boolean verify(String password, byte[] salt, String storedHash) throws NoSuchAlgorithmException {
+        if (storedHash == null) {
+            return false;
+        }
+        return PasswordVerificationPool.shared().verify(password.toCharArray(), salt, storedHash);
+    }
+
+    /**
+     * Checks if a stored hash should be replaced by a hash from the current scheme.
+     * @param storedHash the stored form of the hash
+     * @return true if the hash was written by another scheme or with weaker parameters, false otherwise
+     */
+    public static boolean needsRehash(String storedHash) {
+        PasswordHasher scheme = schemeOf(storedHash);
+        return scheme != current || scheme.needsRehash(storedHash);
+    }
+
+    /**
+     * Checks a customer's password and, if it matches a hash from an older scheme, replaces the stored hash with one
+     * from the current scheme and journals the change.
+     * <p>
+     * This is meant for the login flow, so that every customer is moved to the current scheme the next time they log
+     * in, without having to change their password.
+     * </p>
+     * @param customer the customer logging in
+     * @param password the password entered by the customer
+     * @return true if the password matches, false otherwise
+     * @throws NoSuchAlgorithmException if a hashing algorithm is not available
+     * @throws IOException if an I/O error occurs when journaling the new hash
+     */
+    public static boolean verifyAndUpgrade(Customer customer, String password) throws NoSuchAlgorithmException, IOException {
+        String storedHash = customer.getPassword();
+        if (!verify(password, customer.getSalt(), storedHash)) {
+            return false;
+        }
+        if (needsRehash(storedHash)) {
+            customer.setPassword(hash(password, customer.getSalt()));
+            CustomerJournal.shared().recordPassword(customer.getUsername(), customer.getPassword());
+        }
+        return true;
+    }
+}
@@ -0,0 +1,205 @@
+package com.sunshine;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The {@code PasswordVerificationPool} class runs password verifications on a fixed number of threads with a bounded
+ * queue.
+ * <p>
+ * A slow KDF such as PBKDF2 keeps a CPU busy for every login. Running verifications on their own pool caps how many
+ * CPUs a burst of logins can use, and the bounded queue makes further logins fail fast with a
+ * {@link RejectedExecutionException} instead of piling up, so the rest of the application stays responsive.
+ * <p>
+ * The shared pool is sized with the {@value #THREADS_PROPERTY} and {@value #QUEUE_PROPERTY} system properties. It
+ * defaults to half the available processors and a queue of {@value #DEFAULT_QUEUE_CAPACITY} waiting verifications.
+ * The pool reports its current and peak queue depth, and counts completed and rejected verifications.
+ *
+ * @version 1.0
+ */
+public class PasswordVerificationPool {
+
+    /**
+     * The system property that sets the number of verification threads of the shared pool.
+     */
+    public static final String THREADS_PROPERTY = "sunshine.password.verifyThreads";
+
+    /**
+     * The system property that sets the queue capacity of the shared pool.
+     */
+    public static final String QUEUE_PROPERTY = "sunshine.password.verifyQueue";
+
+    /**
+     * The default queue capacity of the shared pool.
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 64;
+
+    /**
+     * The shared pool, created on first use.
+     */
+    private static volatile PasswordVerificationPool shared;
+
+    /**
+     * The executor that runs the verifications.
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * The highest queue depth seen so far.
+     */
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+    /**
+     * The number of verifications that have finished.
+     */
+    private final LongAdder completed = new LongAdder();
+
+    /**
+     * The number of verifications that were rejected because the pool was saturated.
+     */
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Constructs a new PasswordVerificationPool.
+     * @param threads the maximum number of verifications that run at the same time
+     * @param queueCapacity the maximum number of verifications that can wait for a thread
+     */
+    public PasswordVerificationPool(int threads, int queueCapacity) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "password-verify-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Gets the shared pool, creating it from the system properties on first use.
+     * @return the shared pool
+     */
+    public static PasswordVerificationPool shared() {
+        PasswordVerificationPool pool = shared;
+        if (pool == null) {
+            synchronized (PasswordVerificationPool.class) {
+                pool = shared;
+                if (pool == null) {
+                    int threads = Integer.getInteger(THREADS_PROPERTY,
+                            Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+                    int queueCapacity = Integer.getInteger(QUEUE_PROPERTY, DEFAULT_QUEUE_CAPACITY);
+                    pool = new PasswordVerificationPool(threads, queueCapacity);
+                    shared = pool;
+                }
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Submits a verification to the pool.
+     * <p>
+     * The password array is cleared once the verification has run.
+     * </p>
+     * @param password the password entered by the customer
+     * @param salt the salt of the customer
+     * @param storedHash the stored form of the hash
+     * @return a future that completes with true if the password matches
+     * @throws RejectedExecutionException if all threads are busy and the queue is full
+     */
+    public Future<Boolean> submit(char[] password, byte[] salt, String storedHash) {
+        try {
+            Future<Boolean> future = executor.submit(() -> {
+                try {
+                    return PasswordHashing.schemeOf(storedHash).matches(password, salt, storedHash);
+                } finally {
+                    Arrays.fill(password, '\0');
+                    completed.increment();
+                }
+            });
+            maxQueueDepth.accumulateAndGet(executor.getQueue().size(), Math::max);
+            return future;
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            Arrays.fill(password, '\0');
+            throw e;
+        }
+    }
+
+    /**
+     * Verifies a password on the pool and waits for the result.
+     * @param password the password entered by the customer
+     * @param salt the salt of the customer
+     * @param storedHash the stored form of the hash
+     * @return true if the password matches, false otherwise or if the waiting thread is interrupted
+     * @throws NoSuchAlgorithmException if the algorithm of the hash's scheme is not available
+     * @throws RejectedExecutionException if all threads are busy and the queue is full
+     */
+    public boolean verify(char[] password, byte[] salt, String storedHash) throws NoSuchAlgorithmException {
+        Future<Boolean> future = submit(password, salt, storedHash);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof NoSuchAlgorithmException) {
+                throw (NoSuchAlgorithmException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException("Password verification failed", cause);
+        }
+    }
+
+    /**
+     * Gets the number of verifications waiting for a thread.
+     * @return the current queue depth
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Gets the highest number of verifications that have waited for a thread at the same time.
+     * @return the peak queue depth
+     */
+    public int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    /**
+     * Gets the number of verifications currently running.
+     * @return the number of busy threads
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * Gets the number of verifications that have finished.
+     * @return the number of completed verifications
+     */
+    public long getCompletedCount() {
+        return completed.sum();
+    }
+
+    /**
+     * Gets the number of verifications that were rejected because the pool was saturated.
+     * @return the number of rejected verifications
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+}
@@ -0,0 +1,154 @@
+package com.sunshine;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.InvalidKeySpecException;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * The {@code Pbkdf2PasswordHasher} class hashes passwords with PBKDF2-HMAC-SHA256 from the JDK.
+ * <p>
+ * PBKDF2 repeats the HMAC many times, which makes each guess in a brute-force attack expensive. The iteration count
+ * is stored in the hash itself, in the form {@code $pbkdf2-sha256$<iterations>$<hex>}, so the count can be raised
+ * later without breaking existing hashes; hashes written with a lower count are reported as needing a rehash.
+ * <p>
+ * The iteration count defaults to {@value #DEFAULT_ITERATIONS} and can be changed with the
+ * {@value #ITERATIONS_PROPERTY} system property.
+ *
+ * @version 1.0
+ */
+public class Pbkdf2PasswordHasher implements PasswordHasher {
+
+    /**
+     * The prefix of hashes written by this scheme.
+     */
+    public static final String PREFIX = "$pbkdf2-sha256$";
+
+    /**
+     * The system property that sets the iteration count for new hashes.
+     */
+    public static final String ITERATIONS_PROPERTY = "sunshine.password.pbkdf2Iterations";
+
+    /**
+     * The default iteration count for new hashes.
+     */
+    public static final int DEFAULT_ITERATIONS = 310000;
+
+    /**
+     * The length of the derived key in bits.
+     */
+    private static final int KEY_LENGTH = 256;
+
+    /**
+     * The iteration count used for new hashes.
+     */
+    private final int iterations;
+
+    /**
+     * Constructs a new Pbkdf2PasswordHasher using the {@value #ITERATIONS_PROPERTY} system property, or
+     * {@value #DEFAULT_ITERATIONS} iterations if the property is not set.
+     */
+    public Pbkdf2PasswordHasher() {
+        this(Integer.getInteger(ITERATIONS_PROPERTY, DEFAULT_ITERATIONS));
+    }
+
+    /**
+     * Constructs a new Pbkdf2PasswordHasher with the given iteration count.
+     * @param iterations the iteration count used for new hashes
+     */
+    public Pbkdf2PasswordHasher(int iterations) {
+        if (iterations < 1) {
+            throw new IllegalArgumentException("Iterations must be at least 1: " + iterations);
+        }
+        this.iterations = iterations;
+    }
+
+    /**
+     * Gets the prefix of hashes written by this scheme.
+     * @return {@value #PREFIX}
+     */
+    @Override
+    public String getPrefix() {
+        return PREFIX;
+    }
+
+    /**
+     * Hashes a password with PBKDF2-HMAC-SHA256 using the configured iteration count.
+     * @param password the password to hash
+     * @param salt the salt of the customer
+     * @return the stored form of the hash
+     * @throws NoSuchAlgorithmException if PBKDF2WithHmacSHA256 is not available
+     */
+    @Override
+    public String hash(char[] password, byte[] salt) throws NoSuchAlgorithmException {
+        byte[] derived = derive(password, salt, iterations);
+        return PREFIX + iterations + "$" + HashingSecurity.bytesToHex(derived);
+    }
+
+    /**
+     * Checks a password against a PBKDF2 hash, using the iteration count stored in the hash, in constant time.
+     * @param password the password entered by the customer
+     * @param salt the salt of the customer
+     * @param storedHash the stored form of the hash
+     * @return true if the password matches, false otherwise or if the hash is malformed
+     * @throws NoSuchAlgorithmException if PBKDF2WithHmacSHA256 is not available
+     */
+    @Override
+    public boolean matches(char[] password, byte[] salt, String storedHash) throws NoSuchAlgorithmException {
+        int storedIterations = parseIterations(storedHash);
+        if (storedIterations < 1) {
+            return false;
+        }
+        String hex = storedHash.substring(storedHash.indexOf('$', PREFIX.length()) + 1);
+        byte[] expected = HashingSecurity.hexStringToByte(hex);
+        byte[] derived = derive(password, salt, storedIterations);
+        return MessageDigest.isEqual(derived, expected);
+    }
+
+    /**
+     * Checks if a PBKDF2 hash was written with fewer iterations than this scheme now uses.
+     * @param storedHash the stored form of the hash
+     * @return true if the hash should be replaced, false otherwise
+     */
+    @Override
+    public boolean needsRehash(String storedHash) {
+        return parseIterations(storedHash) < iterations;
+    }
+
+    /**
+     * Reads the iteration count from a stored hash.
+     * @param storedHash the stored form of the hash
+     * @return the iteration count, or -1 if the hash is malformed
+     */
+    private static int parseIterations(String storedHash) {
+        int end = storedHash.indexOf('$', PREFIX.length());
+        if (!storedHash.startsWith(PREFIX) || end < 0) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(storedHash.substring(PREFIX.length(), end));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Derives a key from a password with PBKDF2-HMAC-SHA256.
+     * @param password the password
+     * @param salt the salt
+     * @param iterations the iteration count
+     * @return the derived key
+     * @throws NoSuchAlgorithmException if PBKDF2WithHmacSHA256 is not available
+     */
+    private static byte[] derive(char[] password, byte[] salt, int iterations) throws NoSuchAlgorithmException {
+        PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, KEY_LENGTH);
+        try {
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+        } catch (InvalidKeySpecException e) {
+            throw new IllegalArgumentException("Invalid PBKDF2 parameters", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.sunshine;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.WriterException;
+import com.google.zxing.client.j2se.MatrixToImageWriter;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.qrcode.QRCodeWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@code QrRenderer} class renders QR codes for two-factor authentication enrollment without going through image
+ * files.
+ * <p>
+ * A QR code is encoded once into a ZXing {@link BitMatrix}. {@link #toTerminal(BitMatrix)} turns the matrix directly
+ * into block characters for the console, two characters per module so that the code keeps its square shape.
+ * {@link #toPng(BitMatrix)} encodes the matrix to PNG bytes in memory when an image is needed.
+ * <p>
+ * Saving the PNG under {@code ./resources/QRCodes} is optional. It is enabled by default and can be turned off by
+ * setting the {@value #WRITE_FILES_PROPERTY} system property to {@code false}. Files are written by
+ * {@link #writePngAsync(BitMatrix, Path)} on a single background thread, so enrollment does not wait for the disk.
+ * The thread is not a daemon, so pending writes finish before the program exits, and it stops on its own once it has
+ * been idle for a few seconds.
+ * <p>
+ * Usage example:
+ * <pre>
+ * BitMatrix matrix = QrRenderer.encode(totpUri, 0, 0);
+ * System.out.println(QrRenderer.toTerminal(matrix));
+ * byte[] png = QrRenderer.toPng(QrRenderer.encode(totpUri, 200, 200));
+ * </pre>
+ *
+ * @version 1.0
+ */
+public class QrRenderer {
+
+    /**
+     * The system property that turns saving QR code images to disk on or off.
+     */
+    public static final String WRITE_FILES_PROPERTY = "sunshine.qr.writeFiles";
+
+    /**
+     * The character printed for a dark module.
+     */
+    private static final char DARK = '█';
+
+    /**
+     * The character printed for a light module.
+     */
+    private static final char LIGHT = ' ';
+
+    /**
+     * The number of characters printed for each module, so that modules look square in the console.
+     */
+    private static final int CHARS_PER_MODULE = 2;
+
+    /**
+     * How long the writer thread waits for more work before it stops, in seconds.
+     */
+    private static final long WRITER_KEEP_ALIVE_SECONDS = 5;
+
+    /**
+     * The executor that writes QR code images to disk.
+     */
+    private static final ExecutorService writer = createWriter();
+
+    /**
+     * Creates the executor that writes QR code images to disk.
+     * @return a single-thread executor whose thread stops when idle
+     */
+    private static ExecutorService createWriter() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, WRITER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), runnable -> new Thread(runnable, "qr-writer"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Encodes a TOTP URI into a QR code matrix.
+     * <p>
+     * A width and height of 0 produce the smallest matrix, with one element per module, which is the right size for
+     * {@link #toTerminal(BitMatrix)}. Larger sizes scale the modules up for images.
+     * </p>
+     * @param totpUri the TOTP URI to encode
+     * @param width the minimum width of the matrix
+     * @param height the minimum height of the matrix
+     * @return the QR code matrix
+     * @throws WriterException if an error occurs while encoding the TOTP URI
+     */
+    public static BitMatrix encode(String totpUri, int width, int height) throws WriterException {
+        return new QRCodeWriter().encode(totpUri, BarcodeFormat.QR_CODE, width, height);
+    }
+
+    /**
+     * Renders a QR code matrix as block characters for the console.
+     * @param matrix the QR code matrix, ideally with one element per module
+     * @return the QR code as lines of block characters, each followed by a newline
+     */
+    public static String toTerminal(BitMatrix matrix) {
+        int width = matrix.getWidth();
+        int height = matrix.getHeight();
+        StringBuilder out = new StringBuilder(height * (width * CHARS_PER_MODULE + 1));
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                char c = matrix.get(x, y) ? DARK : LIGHT;
+                for (int i = 0; i < CHARS_PER_MODULE; i++) {
+                    out.append(c);
+                }
+            }
+            out.append('\n');
+        }
+        return out.toString();
+    }
+
+    /**
+     * Encodes a QR code matrix as a PNG image in memory.
+     * @param matrix the QR code matrix
+     * @return the bytes of the PNG image
+     * @throws IOException if the image cannot be encoded
+     */
+    public static byte[] toPng(BitMatrix matrix) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MatrixToImageWriter.writeToStream(matrix, "png", out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Checks whether QR code images should be saved to disk.
+     * @return false if the {@value #WRITE_FILES_PROPERTY} system property is set to {@code false}, true otherwise
+     */
+    public static boolean isFileWriteEnabled() {
+        return Boolean.parseBoolean(System.getProperty(WRITE_FILES_PROPERTY, "true"));
+    }
+
+    /**
+     * Saves a QR code matrix as a PNG file on the background writer thread.
+     * <p>
+     * Errors are printed rather than thrown, since the QR code has already been shown to the user.
+     * </p>
+     * @param matrix the QR code matrix
+     * @param file the file to write
+     * @return a Future that completes when the file has been written
+     */
+    public static Future<?> writePngAsync(BitMatrix matrix, Path file) {
+        return writer.submit(() -> {
+            try {
+                Files.write(file, toPng(matrix));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+}
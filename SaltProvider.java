@@ -0,0 +1,122 @@
+package com.sunshine;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The {@code SaltProvider} class generates the random salts used by {@link HashingSecurity}.
+ * <p>
+ * Each thread gets its own {@link SecureRandom}, created once and then reused. A new {@code SecureRandom} seeds
+ * itself from the operating system on first use, so reusing it avoids paying that seeding cost (and possibly waiting
+ * for entropy) on every registration, and keeping one per thread means concurrent registrations never contend on a
+ * shared generator.
+ * <p>
+ * For bulk account imports, {@link #generateSalts(int)} fills one large buffer with a single call to the generator
+ * and slices it into individual salts.
+ * <p>
+ * The provider records how many salts it has generated and how long that took, which can be read with
+ * {@link #getSaltCount()}, {@link #getTotalNanos()} and {@link #getAverageNanosPerSalt()}.
+ * <p>
+ * Example usage:
+ * <pre>
+ * byte[] salt = SaltProvider.generateSalt();
+ * byte[][] salts = SaltProvider.generateSalts(1000);
+ * </pre>
+ *
+ * @version 1.0
+ */
+public class SaltProvider {
+
+    /**
+     * The length of a salt in bytes (16 bytes = 128 bits).
+     */
+    public static final int SALT_LENGTH = 16;
+
+    /**
+     * The SecureRandom of each thread, seeded on first use.
+     */
+    private static final ThreadLocal<SecureRandom> RANDOM = ThreadLocal.withInitial(SecureRandom::new);
+
+    /**
+     * The number of salts generated.
+     */
+    private static final LongAdder saltCount = new LongAdder();
+
+    /**
+     * The total time spent generating salts, in nanoseconds.
+     */
+    private static final LongAdder totalNanos = new LongAdder();
+
+    /**
+     * Generates a secure random salt.
+     * @return A byte array containing the salt.
+     */
+    public static byte[] generateSalt() {
+        long start = System.nanoTime();
+        byte[] salt = new byte[SALT_LENGTH];
+        RANDOM.get().nextBytes(salt);
+        record(1, start);
+        return salt;
+    }
+
+    /**
+     * Generates many secure random salts at once.
+     * <p>
+     * The random bytes for all salts are generated into one buffer with a single call, which is then split into
+     * salts of {@value #SALT_LENGTH} bytes. The buffer is cleared before it is discarded.
+     * </p>
+     * @param n The number of salts to generate.
+     * @return An array of n salts.
+     */
+    public static byte[][] generateSalts(int n) {
+        if (n < 0) {
+            throw new IllegalArgumentException("Number of salts must not be negative: " + n);
+        }
+        long start = System.nanoTime();
+        byte[] buffer = new byte[Math.multiplyExact(n, SALT_LENGTH)];
+        RANDOM.get().nextBytes(buffer);
+        byte[][] salts = new byte[n][];
+        for (int i = 0; i < n; i++) {
+            salts[i] = Arrays.copyOfRange(buffer, i * SALT_LENGTH, (i + 1) * SALT_LENGTH);
+        }
+        Arrays.fill(buffer, (byte) 0);
+        record(n, start);
+        return salts;
+    }
+
+    /**
+     * Gets the number of salts generated so far.
+     * @return The number of salts generated.
+     */
+    public static long getSaltCount() {
+        return saltCount.sum();
+    }
+
+    /**
+     * Gets the total time spent generating salts so far.
+     * @return The total time in nanoseconds.
+     */
+    public static long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    /**
+     * Gets the average time spent generating one salt.
+     * @return The average time per salt in nanoseconds, or 0 if no salts have been generated.
+     */
+    public static double getAverageNanosPerSalt() {
+        long count = saltCount.sum();
+        return count == 0 ? 0 : (double) totalNanos.sum() / count;
+    }
+
+    /**
+     * Records the generation of salts in the metrics.
+     * @param count The number of salts generated.
+     * @param start The value of {@link System#nanoTime()} when generation started.
+     */
+    private static void record(int count, long start) {
+        totalNanos.add(System.nanoTime() - start);
+        saltCount.add(count);
+    }
+}
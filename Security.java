@@ -1,11 +1,10 @@
 package com.sunshine;
 
 import org.jboss.aerogear.security.otp.api.Base32;
-import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
 import java.text.ParseException;
-import java.util.ArrayList;
+import java.util.Collection;
 
 
 /**
@@ -13,8 +12,8 @@ import java.util.ArrayList;
  * secret key used for generating and verifying 2FA codes. This class provides methods for initializing security details from a CSV file,
  * generating new secret keys for 2FA, and verifying if a secret key is unique among all users.
  * <p>
- * The class maintains a static list of all {@code Security} objects created, allowing for easy management and retrieval of user
- * security settings. Methods are provided for checking
+ * The class maintains a static {@link SecurityRegistry} of all {@code Security} objects created, indexed by username, allowing
+ * for easy management and retrieval of user security settings. Methods are provided for checking
  * the existence of a secret key, generating new ones, and retrieving {@code Security} instances based on usernames.
  * <p>
  * Usage examples include initializing the security settings from a CSV file upon application startup, enabling 2FA for users by
@@ -29,9 +28,19 @@ import java.util.ArrayList;
 public class Security {
 
     /**
-     * Store all security objects in a list
+     * The index of the username column in the customer CSV file.
      */
-    public static ArrayList<Security> allSecurity;
+    static final int CSV_USERNAME_COLUMN = 1;
+
+    /**
+     * The index of the secret key column in the customer CSV file.
+     */
+    static final int CSV_SECRET_KEY_COLUMN = 5;
+
+    /**
+     * Store all security objects in a registry indexed by username
+     */
+    public static SecurityRegistry allSecurity;
     
     /**
      * The issuer of the two-factor authentication (2FA).
@@ -70,38 +79,49 @@ public class Security {
     /**
      * Initializes the Security instances from a CSV file.
      * <p>
-     * This method reads a CSV file line by line. Each line represents a user's security data.
-     * It splits each line by comma to extract the user's attributes, specifically the username and secret key.
-     * It then creates a new Security instance with these attributes and a fixed issuer ("Sunshine Bank").
-     * The created Security instance is added to the allSecurity list.
+     * This method streams the CSV file row by row. Each row represents a user's security data.
+     * Only the username and secret key columns are extracted from each row; the other columns are skipped without
+     * being copied. It then creates a new Security instance with these attributes and a fixed issuer ("Sunshine Bank").
+     * The created Security instance is added to the allSecurity registry.
+     * Finally, the changes in the customer journal that have not yet been folded into the file are replayed.
+     * </p>
+     * <p>
+     * Large files are handed to {@link SecurityCsvLoader}, which parses chunks of the file in parallel and builds the
+     * same registry.
      * </p>
      * @param path the path to the CSV file
      * @throws IOException if an I/O error occurs when reading the file
-     * @throws ParseException if an error occurs when parsing the CSV data
+     * @throws ParseException if a row is malformed; the error offset is the line number of the row
      */
     public static void initSecurityCSV(String path) throws IOException, ParseException {
-        allSecurity = new ArrayList<Security>();
-    //Customer.setPath(path);
-    // Read the file
-    BufferedReader br = new BufferedReader(new FileReader(path));
-    // Read the header and ignore
-    String line = br.readLine(); 
-    // Read the file line by line
-    while ((line = br.readLine()) != null) {
-        // Split the line by comma
-        String[] attributes = line.split(",");
-
-        // Create a new customer based on the data
-        String username = attributes[1];
-        //String saltedValue = attributes[3];
-        String secretKey = attributes[5];
-        String issuer = "Sunshine Bank";
-        Security security = new Security(issuer, username, secretKey);
-        //security.setSaltedValue(saltedValue);
-        allSecurity.add(security);
+        if (SecurityCsvLoader.isWorthLoadingInParallel(path)) {
+            new SecurityCsvLoader().load(path);
+            return;
+        }
+        allSecurity = new SecurityRegistry();
+        //Customer.setPath(path);
+        // Read only the username and secret key columns of the file
+        try (CsvFieldReader csv = new CsvFieldReader(new FileReader(path), CSV_USERNAME_COLUMN, CSV_SECRET_KEY_COLUMN)) {
+            // Read the header and ignore
+            csv.skipHeader();
+            // Read the file row by row
+            while (csv.next()) {
+                allSecurity.add(fromCsvRow(csv.get(0), csv.get(1)));
+            }
+        }
+        // Apply the changes journaled since the file was last compacted
+        CustomerJournal.replay(path);
     }
-    // Close the file
-    br.close();
+
+    /**
+     * Creates a Security instance from the username and secret key columns of a customer CSV row.
+     * @param username the value of the username column
+     * @param secretKey the value of the secret key column
+     * @return a new Security instance issued by "Sunshine Bank"
+     */
+    static Security fromCsvRow(String username, String secretKey) {
+        String issuer = "Sunshine Bank";
+        return new Security(issuer, username, secretKey);
     }
 
     /**
@@ -131,9 +151,15 @@ public class Security {
     /**
      * Sets the user name.
      * @param username The new user name.
+     * @throws IllegalArgumentException if another registered user already has the user name.
      */
     public void setUsername(String username) {
+        String oldUsername = this.username;
         this.username = username;
+        if (allSecurity != null && !allSecurity.rekey(this, oldUsername)) {
+            this.username = oldUsername;
+            throw new IllegalArgumentException("Username is already used by another user");
+        }
     }
 
     /**
@@ -154,66 +180,79 @@ public class Security {
 
     /**
      * Sets the secret key.
+     * <p>
+     * If this object is registered in allSecurity, the secret key index is updated so that the old key is released
+     * and the new key is marked as in use. If the key has changed, the cached TOTP verifier of the user is evicted.
+     * </p>
      * @param secretKey The new secret key.
+     * @throws IllegalArgumentException if another registered user already owns the secret key.
      */
     public void setSecretKey(String secretKey) {
+        String oldSecretKey = this.getSecretKey();
+        String previous = this.secretKey;
         this.secretKey = secretKey;
+        if (allSecurity != null && !allSecurity.updateSecretKey(this, oldSecretKey, this.getSecretKey())) {
+            this.secretKey = previous;
+            throw new IllegalArgumentException("Secret key is already used by another user");
+        }
+        if (oldSecretKey != null && !oldSecretKey.equals(this.getSecretKey())) {
+            TotpVerifierCache.shared().invalidate(this.username); // Stop verifying codes with the rotated secret
+        }
     }
 
     /**
      * Enables two-factor authentication (2FA) for an existing account by generating a unique secret key.
      * <p>
      * This method generates a secure, random Base32 string to be used as the secret key for 2FA.
-     * It ensures the uniqueness of the secret key by checking if the generated key is already in use.
-     * If the key is in use, it generates a new one. This process repeats until a unique key is found.
-     * The unique key is then set as the secret key for the account.
+     * It ensures the uniqueness of the secret key by claiming the generated key in the secret key index of the
+     * allSecurity registry. If the key is already in use, it generates a new one. This process repeats until a unique
+     * key is found. The unique key is then set as the secret key for the account.
      * </p>
      */
     public void generateSecretKey() {
         String secretKey;
         do {
             secretKey = Base32.random(); // Generates a secure, random Base32 string
-        } while (isSecretKeyUsed(secretKey));
+        } while (!allSecurity.claimSecretKey(secretKey, this));
         this.setSecretKey(secretKey);
     }
 
     /**
-     * Checks if a given secret key is already used by another customer.
+     * Generates unique secret keys for many users in one pass.
      * <p>
-     * This method iterates over all the Security instances in the allSecurity list.
-     * For each instance, it compares the given secret key with the instance's secret key.
-     * If a match is found, it returns true, indicating that the secret key is already in use.
-     * If no match is found after checking all instances, it returns false, indicating that the secret key is unique.
+     * Every Security object in the collection that does not have a secret key yet is given a new unique key.
+     * Users that already have 2FA enabled are left unchanged. Each uniqueness check is a single lookup in the
+     * secret key index, so enrolling N users costs O(N).
      * </p>
-     * @param secretKey the secret key to check for uniqueness
-     * @return true if the secret key is already in use, false otherwise
+     * @param users the Security objects to enroll
+     * @return the number of users that were given a new secret key
      */
-    private boolean isSecretKeyUsed(String secretKey) {
-        for (Security sec : allSecurity) {
-            if (secretKey.equals(sec.getSecretKey())) {
-                return true; // Secret key already exists
+    public static int generateSecretKeys(Collection<? extends Security> users) {
+        int enrolled = 0;
+        for (Security security : users) {
+            if (security.getSecretKey() == null) {
+                security.generateSecretKey();
+                enrolled++;
             }
         }
-    return false; // Secret key is unique
+        return enrolled;
     }
 
     /**
      * Retrieves a Security object based on the username.
      * <p>
-     * This method iterates over all the Security instances in the allSecurity list.
-     * For each instance, it compares the given username with the instance's username, ignoring case differences.
+     * This method looks up the username in the allSecurity registry, ignoring case differences.
      * If a match is found, it returns the matching Security instance.
-     * If no match is found after checking all instances, it returns a new Security instance with empty fields.
+     * If no match is found, it returns a new Security instance with empty fields.
      * </p>
      * @param username the username to search for
      * @return the matching Security instance if found, a new Security instance with empty fields otherwise
      */
     public static Security getSecurityByUsername(String username) {
-        for (Security security : allSecurity) {
-            if (security.getUsername().equalsIgnoreCase(username)) {
-                return security;
-            }
+        Security security = allSecurity.get(username);
+        if (security != null) {
+            return security;
         }
-        return new Security("","",""); // Return null if no matching customer is found
+        return new Security("","",""); // Return an empty Security if no matching customer is found
     }
 }
\ No newline at end of file
@@ -0,0 +1,382 @@
+package com.sunshine;
+
+import java.io.CharArrayReader;
+import java.io.EOFException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * The {@code SecurityCsvLoader} class loads the {@code Security} registry from the customer CSV file in parallel.
+ * <p>
+ * The file is split into chunks that end on a line break. Each chunk is read into a heap buffer with a positional
+ * {@link FileChannel#read(ByteBuffer, long)}, then decoded and parsed with a {@link CsvFieldReader} on a
+ * {@link ForkJoinPool}, and the parsed rows are merged into the registry in the original file order. No buffer is
+ * memory-mapped, so nothing keeps the file open once the channel is closed and the customer journal can still replace
+ * the file. The result is the same registry that the sequential path builds.
+ * <p>
+ * {@link Security#initSecurityCSV(String)} hands files of at least {@value #DEFAULT_MIN_PARALLEL_BYTES} bytes to this
+ * class. The threshold can be changed with the {@value #MIN_PARALLEL_BYTES_PROPERTY} system property. The number of
+ * threads can be passed to the constructor or set with the {@value #PARALLELISM_PROPERTY} system property. It defaults
+ * to the number of available processors.
+ * <p>
+ * Line breaks are "\n", "\r\n" or a bare "\r", the same as {@link CsvFieldReader}, so the line numbers of parse
+ * errors match the sequential path. Chunks are split without tracking quotes, so a file that contains any double quote
+ * is parsed sequentially instead, because a quoted field may span a chunk boundary.
+ * <p>
+ * Usage example:
+ * <pre>
+ * new SecurityCsvLoader(4).load("./resources/customer.csv");
+ * Security security = Security.getSecurityByUsername("user123");
+ * </pre>
+ *
+ * @version 1.0
+ */
+public class SecurityCsvLoader {
+
+    /**
+     * The system property that sets the number of loader threads.
+     */
+    public static final String PARALLELISM_PROPERTY = "sunshine.security.loaderThreads";
+
+    /**
+     * The system property that sets the smallest file that is loaded in parallel.
+     */
+    public static final String MIN_PARALLEL_BYTES_PROPERTY = "sunshine.security.parallelLoadBytes";
+
+    /**
+     * The default smallest file that is loaded in parallel.
+     */
+    public static final long DEFAULT_MIN_PARALLEL_BYTES = 4L << 20;
+
+    /**
+     * The smallest chunk worth handing to a separate task.
+     */
+    private static final long MIN_CHUNK_BYTES = 1L << 20;
+
+    /**
+     * The largest chunk that is read into a single buffer.
+     */
+    private static final long MAX_CHUNK_BYTES = 64L << 20;
+
+    /**
+     * The number of bytes read at a time when searching for a line break.
+     */
+    private static final int SCAN_WINDOW_BYTES = 8 * 1024;
+
+    /**
+     * The number of threads used to parse chunks.
+     */
+    private final int parallelism;
+
+    /**
+     * Constructs a new SecurityCsvLoader using the {@value #PARALLELISM_PROPERTY} system property, or the number of
+     * available processors if the property is not set.
+     */
+    public SecurityCsvLoader() {
+        this(Integer.getInteger(PARALLELISM_PROPERTY, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Constructs a new SecurityCsvLoader with the given number of threads.
+     * @param parallelism the number of threads used to parse chunks
+     */
+    public SecurityCsvLoader(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Gets the number of threads used to parse chunks.
+     * @return the number of threads
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Checks whether a CSV file is large enough to be worth loading in parallel.
+     * @param path the path to the CSV file
+     * @return true if the file has at least as many bytes as the {@value #MIN_PARALLEL_BYTES_PROPERTY} threshold and
+     *         more than one loader thread is configured
+     * @throws IOException if an I/O error occurs when reading the size of the file
+     */
+    public static boolean isWorthLoadingInParallel(String path) throws IOException {
+        long threshold = Long.getLong(MIN_PARALLEL_BYTES_PROPERTY, DEFAULT_MIN_PARALLEL_BYTES);
+        int threads = Integer.getInteger(PARALLELISM_PROPERTY, Runtime.getRuntime().availableProcessors());
+        Path file = Paths.get(path);
+        return threads > 1 && Files.isRegularFile(file) && Files.size(file) >= threshold;
+    }
+
+    /**
+     * Loads the Security registry from a CSV file, replacing {@code Security.allSecurity}, and replays the customer
+     * journal of the file.
+     * @param path the path to the CSV file
+     * @throws IOException if an I/O error occurs when reading the file
+     * @throws ParseException if a row is malformed; the error offset is the line number of the row
+     */
+    public void load(String path) throws IOException, ParseException {
+        List<Security> rows = parse(path);
+        SecurityRegistry registry = new SecurityRegistry();
+        for (Security security : rows) {
+            registry.add(security);
+        }
+        Security.allSecurity = registry;
+        CustomerJournal.replay(path);
+    }
+
+    /**
+     * Parses a CSV file into Security objects in file order without touching the registry.
+     * @param path the path to the CSV file
+     * @return the Security objects in the order of their rows
+     * @throws IOException if an I/O error occurs when reading the file
+     * @throws ParseException if a row is malformed; the error offset is the line number of the row
+     */
+    public List<Security> parse(String path) throws IOException, ParseException {
+        Charset charset = Charset.defaultCharset(); // Same charset as the FileReader used by initSecurityCSV
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            long[] bounds = chunkBounds(channel);
+            List<Callable<ChunkResult>> tasks = new ArrayList<Callable<ChunkResult>>();
+            for (int i = 0; i + 1 < bounds.length; i++) {
+                long start = bounds[i];
+                long end = bounds[i + 1];
+                boolean header = i == 0;
+                tasks.add(() -> parseChunk(channel, start, end, header, charset));
+            }
+
+            List<ChunkResult> results = new ArrayList<ChunkResult>();
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                for (Future<ChunkResult> future : pool.invokeAll(tasks)) {
+                    results.add(future.get());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while loading " + path, e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof UncheckedIOException) {
+                    throw ((UncheckedIOException) e.getCause()).getCause();
+                }
+                throw new IOException("Failed to load " + path, e.getCause());
+            } finally {
+                pool.shutdown();
+            }
+
+            for (ChunkResult result : results) {
+                if (result.quoted) {
+                    return parseSequentially(path);
+                }
+            }
+
+            // Merge the chunks in file order and turn chunk-relative line numbers into file line numbers
+            List<Security> rows = new ArrayList<Security>();
+            int linesBefore = 0;
+            for (ChunkResult result : results) {
+                if (result.errorLine > 0) {
+                    int line = linesBefore + result.errorLine;
+                    throw new ParseException("Line " + line + result.errorMessage, line);
+                }
+                rows.addAll(result.rows);
+                linesBefore += result.lineBreaks;
+            }
+            return rows;
+        }
+    }
+
+    /**
+     * Splits the file into chunks that each end just after a line break.
+     * @param channel the channel of the file
+     * @return the start offset of every chunk followed by the size of the file
+     * @throws IOException if an I/O error occurs when reading the file
+     */
+    private long[] chunkBounds(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long chunkCount = Math.max(1, Math.min(parallelism * 4L, size / MIN_CHUNK_BYTES));
+        chunkCount = Math.max(chunkCount, (size + MAX_CHUNK_BYTES - 1) / MAX_CHUNK_BYTES);
+        List<Long> bounds = new ArrayList<Long>();
+        bounds.add(0L);
+        ByteBuffer window = ByteBuffer.allocate(SCAN_WINDOW_BYTES);
+        for (long i = 1; i < chunkCount; i++) {
+            long target = Math.max(size / chunkCount * i, bounds.get(bounds.size() - 1));
+            long boundary = nextLineStart(channel, target, window);
+            if (boundary > bounds.get(bounds.size() - 1) && boundary < size) {
+                bounds.add(boundary);
+            }
+        }
+        bounds.add(size);
+        long[] result = new long[bounds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bounds.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Parses the whole file on the calling thread, for files whose quoted fields rule out splitting.
+     * @param path the path to the CSV file
+     * @return the Security objects in the order of their rows
+     * @throws IOException if an I/O error occurs when reading the file
+     * @throws ParseException if a row is malformed; the error offset is the line number of the row
+     */
+    private static List<Security> parseSequentially(String path) throws IOException, ParseException {
+        List<Security> rows = new ArrayList<Security>();
+        readRows(new FileReader(path), true, rows);
+        return rows;
+    }
+
+    /**
+     * Finds the offset just after the first line break at or after a position.
+     * @param channel the channel of the file
+     * @param position the position to start searching from
+     * @param window a reused buffer for reading the file
+     * @return the offset of the start of the next line, or the size of the file if there is none
+     * @throws IOException if an I/O error occurs when reading the file
+     */
+    private static long nextLineStart(FileChannel channel, long position, ByteBuffer window) throws IOException {
+        long offset = position;
+        while (true) {
+            window.clear();
+            int n = channel.read(window, offset);
+            if (n <= 0) {
+                return channel.size();
+            }
+            for (int i = 0; i < n; i++) {
+                byte b = window.get(i);
+                if (b == '\n') {
+                    return offset + i + 1;
+                }
+                if (b == '\r') {
+                    // Keep "\r\n" together so that no chunk starts with the second half of a line break
+                    long next = offset + i + 1;
+                    boolean crlf = i + 1 < n ? window.get(i + 1) == '\n' : byteAt(channel, next) == '\n';
+                    return crlf ? next + 1 : next;
+                }
+            }
+            offset += n;
+        }
+    }
+
+    /**
+     * Reads one byte of the file.
+     * @param channel the channel of the file
+     * @param position the position of the byte
+     * @return the byte, or -1 at the end of the file
+     * @throws IOException if an I/O error occurs when reading the file
+     */
+    private static int byteAt(FileChannel channel, long position) throws IOException {
+        ByteBuffer one = ByteBuffer.allocate(1);
+        return channel.read(one, position) <= 0 ? -1 : one.get(0);
+    }
+
+    /**
+     * Reads and parses one chunk of the file.
+     * @param channel the channel of the file
+     * @param start the offset of the first byte of the chunk
+     * @param end the offset just after the last byte of the chunk
+     * @param header true if the chunk starts with the header row
+     * @param charset the charset used to decode the file
+     * @return the parsed rows, the number of line breaks in the chunk, and any parse error
+     */
+    private static ChunkResult parseChunk(FileChannel channel, long start, long end, boolean header, Charset charset) {
+        ChunkResult result = new ChunkResult();
+        try {
+            ByteBuffer bytes = ByteBuffer.allocate((int) (end - start));
+            while (bytes.hasRemaining()) {
+                if (channel.read(bytes, start + bytes.position()) < 0) {
+                    throw new EOFException("File shrank while it was being loaded");
+                }
+            }
+            bytes.flip();
+            int limit = bytes.limit();
+            for (int i = 0; i < limit; i++) {
+                byte b = bytes.get(i);
+                if (b == '\n' || b == '\r' && (i + 1 == limit || bytes.get(i + 1) != '\n')) {
+                    result.lineBreaks++;
+                } else if (b == '"') {
+                    result.quoted = true;
+                    return result; // The whole file is parsed sequentially instead
+                }
+            }
+            CharBuffer chars = charset.decode(bytes);
+            readRows(new CharArrayReader(chars.array(), chars.arrayOffset() + chars.position(), chars.remaining()),
+                    header, result.rows);
+        } catch (ParseException e) {
+            // Keep the text after the chunk-relative "Line n" prefix so the line number can be corrected later
+            String message = e.getMessage();
+            int colon = message.indexOf(':');
+            result.errorLine = e.getErrorOffset();
+            result.errorMessage = colon >= 0 ? message.substring(colon) : ": " + message;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return result;
+    }
+
+    /**
+     * Parses the username and secret key columns of every row into Security objects.
+     * @param in the characters to parse, which are closed afterwards
+     * @param header true if the characters start with the header row
+     * @param rows the list to add the Security objects to, in file order
+     * @throws IOException if an I/O error occurs when reading the characters
+     * @throws ParseException if a row is malformed; the error offset is the line number of the row
+     */
+    private static void readRows(Reader in, boolean header, List<Security> rows) throws IOException, ParseException {
+        try (CsvFieldReader csv = new CsvFieldReader(in, Security.CSV_USERNAME_COLUMN, Security.CSV_SECRET_KEY_COLUMN)) {
+            if (header) {
+                csv.skipHeader();
+            }
+            while (csv.next()) {
+                rows.add(Security.fromCsvRow(csv.get(0), csv.get(1)));
+            }
+        }
+    }
+
+    /**
+     * The result of parsing one chunk.
+     */
+    private static class ChunkResult {
+
+        /**
+         * The Security objects parsed from the chunk, in file order.
+         */
+        final List<Security> rows = new ArrayList<Security>();
+
+        /**
+         * The number of line breaks in the chunk.
+         */
+        int lineBreaks;
+
+        /**
+         * True if the chunk contains a double quote, so the file must be parsed sequentially.
+         */
+        boolean quoted;
+
+        /**
+         * The chunk-relative line number of a malformed row, or 0 if the chunk parsed cleanly.
+         */
+        int errorLine;
+
+        /**
+         * The description of the parse error, without its line number.
+         */
+        String errorMessage;
+    }
+}
@@ -0,0 +1,244 @@
+package com.sunshine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The {@code SecurityRegistry} class holds every {@code Security} object loaded from the customer CSV and indexes them
+ * by username so that a lookup during login costs a single hash probe instead of a scan over all users.
+ * <p>
+ * Usernames are normalized before they are used as keys, which makes lookups case-insensitive in the same way that
+ * {@link String#equalsIgnoreCase(String)} was used before. The index itself is a {@link ConcurrentHashMap}, so lookups
+ * never block while another thread is enrolling a user.
+ * <p>
+ * The registry also remembers the order in which the {@code Security} objects were added. Iterating over the registry
+ * returns them in that order, which keeps any write-back to the CSV file in the same row order as the original file.
+ * A row whose username is already registered is kept in that order too, so writing the file back never loses it,
+ * but lookups only find the first row for a username.
+ * <p>
+ * A second index maps every secret key in use to the {@code Security} object that owns it. This lets
+ * {@link Security#generateSecretKey()} check a candidate key for uniqueness with one lookup.
+ * <p>
+ * Usage example:
+ * <pre>
+ * SecurityRegistry registry = new SecurityRegistry();
+ * registry.add(new Security("Sunshine Bank", "user123", null));
+ * Security security = registry.get("USER123");
+ * </pre>
+ *
+ * @version 1.0
+ */
+public class SecurityRegistry implements Iterable<Security> {
+
+    /**
+     * Security objects keyed by their normalized username.
+     */
+    private final ConcurrentHashMap<String, Security> byUsername = new ConcurrentHashMap<String, Security>();
+
+    /**
+     * Security objects in the order they were added, used for ordered iteration.
+     */
+    private final ConcurrentLinkedQueue<Security> insertionOrder = new ConcurrentLinkedQueue<Security>();
+
+    /**
+     * Security objects keyed by the secret key they currently own.
+     */
+    private final ConcurrentHashMap<String, Security> bySecretKey = new ConcurrentHashMap<String, Security>();
+
+    /**
+     * Normalizes a username so that lookups ignore case differences.
+     * @param username the username to normalize
+     * @return the normalized username, or null if the username is null
+     */
+    static String normalize(String username) {
+        return username == null ? null : username.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Adds a Security object to the registry.
+     * <p>
+     * If another Security object is already registered under the same username, the object is kept for iteration but
+     * not indexed, the duplicate is reported and false is returned, so the first row for a username wins lookups just
+     * like the old linear scan did.
+     * </p>
+     * @param security the Security object to add
+     * @return true if the Security object was indexed, false if it has no username or the username was already
+     *         registered
+     */
+    public boolean add(Security security) {
+        String key = normalize(security.getUsername());
+        insertionOrder.add(security);
+        if (key == null) {
+            return false;
+        }
+        if (byUsername.putIfAbsent(key, security) != null) {
+            System.err.println("Kept a second row for username " + security.getUsername()
+                    + ", but only the first one can be looked up");
+            return false;
+        }
+        String secretKey = security.getSecretKey();
+        if (secretKey != null) {
+            takeSecretKey(secretKey, security);
+        }
+        return true;
+    }
+
+    /**
+     * Retrieves the Security object registered under a username, ignoring case differences.
+     * @param username the username to search for
+     * @return the matching Security object, or null if no user is registered under the username
+     */
+    public Security get(String username) {
+        String key = normalize(username);
+        return key == null ? null : byUsername.get(key);
+    }
+
+    /**
+     * Checks whether a Security object is registered under a username, ignoring case differences.
+     * @param username the username to check
+     * @return true if the username is registered, false otherwise
+     */
+    public boolean contains(String username) {
+        return get(username) != null;
+    }
+
+    /**
+     * Moves a registered Security object to a new username key after its username has been changed.
+     * <p>
+     * The object keeps its position in the insertion order. Nothing happens if the object was not registered under
+     * the old username. If the new username is missing or already registered to another object, the object stays
+     * registered under the old username and false is returned.
+     * </p>
+     * @param security the Security object whose username has changed
+     * @param oldUsername the username the object was registered under
+     * @return true if the object was moved or was not registered, false if the new username is not available
+     */
+    boolean rekey(Security security, String oldUsername) {
+        String oldKey = normalize(oldUsername);
+        if (oldKey == null || byUsername.get(oldKey) != security) {
+            return true;
+        }
+        String newKey = normalize(security.getUsername());
+        if (oldKey.equals(newKey)) {
+            return true;
+        }
+        if (newKey == null || byUsername.putIfAbsent(newKey, security) != null) {
+            return false;
+        }
+        byUsername.remove(oldKey, security);
+        return true;
+    }
+
+    /**
+     * Checks whether a Security object is the one registered under its username.
+     * <p>
+     * Security objects that were never added, such as {@code TwoFA} instances or the empty object returned for an
+     * unknown username, are not registered even if a registered object has the same username.
+     * </p>
+     * @param security the Security object to check
+     * @return true if the Security object itself is registered, false otherwise
+     */
+    boolean isRegistered(Security security) {
+        String key = normalize(security.getUsername());
+        return key != null && byUsername.get(key) == security;
+    }
+
+    /**
+     * Checks if a secret key is already owned by a Security object.
+     * @param secretKey the secret key to check
+     * @return true if the secret key is in use, false otherwise
+     */
+    public boolean isSecretKeyUsed(String secretKey) {
+        return secretKey != null && bySecretKey.containsKey(secretKey);
+    }
+
+    /**
+     * Atomically claims a secret key for a Security object.
+     * <p>
+     * The claim only succeeds if no other Security object owns the key, so two threads generating keys at the same
+     * time can never be handed the same key. A key claimed by an owner that is not registered, such as a
+     * {@code TwoFA} object, is held as pending. The registered object of the same user takes it over when it is
+     * given the key, and no other user can claim it in the meantime.
+     * </p>
+     * @param secretKey the secret key to claim
+     * @param owner the Security object that will own the key
+     * @return true if the key was claimed, false if it is already in use
+     */
+    boolean claimSecretKey(String secretKey, Security owner) {
+        return takeSecretKey(secretKey, owner);
+    }
+
+    /**
+     * Updates the secret key index after a Security object's secret key has changed.
+     * <p>
+     * Only registered Security objects are indexed, so the index is left unchanged for any other object. The new key
+     * is only taken if no other Security object owns it, and the old key is only released if it is still owned by the
+     * same Security object.
+     * </p>
+     * @param owner the Security object whose secret key has changed
+     * @param oldSecretKey the previous secret key, or null if there was none
+     * @param newSecretKey the new secret key, or null if 2FA has been disabled
+     * @return true if the index was updated or the owner is not registered, false if another Security object already
+     *         owns the new key
+     */
+    boolean updateSecretKey(Security owner, String oldSecretKey, String newSecretKey) {
+        if (!isRegistered(owner)) {
+            return true;
+        }
+        if (newSecretKey != null && !takeSecretKey(newSecretKey, owner)) {
+            return false;
+        }
+        if (oldSecretKey != null && !oldSecretKey.equals(newSecretKey)) {
+            bySecretKey.remove(oldSecretKey, owner);
+        }
+        return true;
+    }
+
+    /**
+     * Makes a Security object the owner of a secret key, unless another user owns or has claimed it.
+     * @param secretKey the secret key
+     * @param owner the Security object that takes the key
+     * @return true if the owner now holds the key, false if it belongs to another user
+     */
+    private boolean takeSecretKey(String secretKey, Security owner) {
+        Security current = bySecretKey.putIfAbsent(secretKey, owner);
+        if (current == null || current == owner) {
+            return true;
+        }
+        // A pending claim is handed over to the same user's object; a registered owner keeps its key
+        String username = normalize(owner.getUsername());
+        return !isRegistered(current) && username != null && username.equals(normalize(current.getUsername()))
+                && bySecretKey.replace(secretKey, current, owner);
+    }
+
+    /**
+     * Gets the number of registered usernames, which does not count rows kept for a duplicate username.
+     * @return the number of registered usernames
+     */
+    public int size() {
+        return byUsername.size();
+    }
+
+    /**
+     * Returns a snapshot of all added Security objects in insertion order, including rows kept for a duplicate
+     * username.
+     * @return an unmodifiable list of all added Security objects
+     */
+    public List<Security> values() {
+        return Collections.unmodifiableList(new ArrayList<Security>(insertionOrder));
+    }
+
+    /**
+     * Returns an iterator over all added Security objects in insertion order.
+     * @return an iterator over the added Security objects
+     */
+    @Override
+    public Iterator<Security> iterator() {
+        return values().iterator();
+    }
+}
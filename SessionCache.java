@@ -0,0 +1,298 @@
+package com.sunshine;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * The {@code SessionCache} class remembers the account objects one customer works with during a session, so the
+ * menus do not search the bank-wide lists again on every loop.
+ * <p>
+ * A session is opened when the customer has logged in and closed when the customer logs out. It resolves the customer's active accounts through the
+ * {@link AccountIndex} straight away, fetching the {@link Savings}, {@link FX}, {@link Limits} and
+ * {@link SunshineLoan} object of each one. Later lookups are answered from the cache. An account that was not
+ * resolved yet is read through from the bank-wide lists on first use. Objects that are not found are not cached, so
+ * an account created later is still found.
+ * <p>
+ * The cached objects are the same objects the rest of the program changes, so deposits and limit changes are seen
+ * through the cache as they happen. Only changes that replace or remove an object must invalidate it: creating or
+ * closing an account and applying for a loan call {@link #invalidate(String)}.
+ * <p>
+ * Each session counts its hits and misses, so {@link #getHitRate()} shows how much work the cache saves. Closing a
+ * session reports its counts on stderr.
+ * <p>
+ * Usage example:
+ * <pre>
+ * SessionCache session = SessionCache.of(account.getCustomerID());
+ * Savings savings = session.getSavings(account.getAccountId());
+ * </pre>
+ *
+ * @version 1.0
+ */
+public class SessionCache {
+
+    /**
+     * The open sessions, keyed by customer ID.
+     */
+    private static final ConcurrentHashMap<String, SessionCache> sessions =
+            new ConcurrentHashMap<String, SessionCache>();
+
+    /**
+     * The ID of the customer.
+     */
+    private final String customerId;
+
+    /**
+     * The customer, resolved on first use.
+     */
+    private volatile Customer customer;
+
+    /**
+     * The savings accounts of the customer, keyed by account ID.
+     */
+    private final ConcurrentHashMap<String, Savings> savings = new ConcurrentHashMap<String, Savings>();
+
+    /**
+     * The FX accounts of the customer, keyed by account ID.
+     */
+    private final ConcurrentHashMap<String, FX> fx = new ConcurrentHashMap<String, FX>();
+
+    /**
+     * The limits of the customer's accounts, keyed by account ID.
+     */
+    private final ConcurrentHashMap<String, Limits> limits = new ConcurrentHashMap<String, Limits>();
+
+    /**
+     * The loans of the customer, keyed by account ID.
+     */
+    private final ConcurrentHashMap<String, SunshineLoan> loans = new ConcurrentHashMap<String, SunshineLoan>();
+
+    /**
+     * The number of lookups answered from the cache.
+     */
+    private final LongAdder hits = new LongAdder();
+
+    /**
+     * The number of lookups that had to search the bank-wide lists.
+     */
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Constructs a new, empty SessionCache.
+     * @param customerId the ID of the customer
+     * @param customer the customer, or null to resolve it on first use
+     */
+    SessionCache(String customerId, Customer customer) {
+        this.customerId = customerId;
+        this.customer = customer;
+    }
+
+    /**
+     * Opens a new session for a customer who has just logged in, replacing any earlier session, and resolves the
+     * customer's active accounts.
+     * @param customer the customer
+     * @return the new session
+     */
+    public static SessionCache open(Customer customer) {
+        SessionCache session = new SessionCache(customer.getCustomerID(), customer);
+        session.preload();
+        sessions.put(customer.getCustomerID(), session);
+        return session;
+    }
+
+    /**
+     * Gets the open session of a customer. A customer without one gets an empty session that reads through to the
+     * bank-wide lists and is not kept, so no session is opened except by {@link #open(Customer)}.
+     * @param customerId the ID of the customer
+     * @return the session
+     */
+    public static SessionCache of(String customerId) {
+        SessionCache session = sessions.get(customerId);
+        return session != null ? session : new SessionCache(customerId, null);
+    }
+
+    /**
+     * Ends the session of a customer, so its cached objects can be collected, and reports how many of its lookups
+     * were answered from the cache.
+     * @param customerId the ID of the customer
+     */
+    public static void close(String customerId) {
+        SessionCache session = sessions.remove(customerId);
+        if (session != null && session.getHitCount() + session.getMissCount() > 0) {
+            System.err.println(String.format("Session of customer %s: %d hits, %d misses, hit rate %.1f%%",
+                    customerId, session.getHitCount(), session.getMissCount(), session.getHitRate() * 100));
+        }
+    }
+
+    /**
+     * Gets the customer.
+     * @return the customer, or null if not found
+     */
+    public Customer getCustomer() {
+        Customer current = customer;
+        if (current != null) {
+            hits.increment();
+            return current;
+        }
+        misses.increment();
+        current = Customer.getCustomerByID(customerId);
+        customer = current;
+        return current;
+    }
+
+    /**
+     * Gets a savings account of the customer.
+     * @param accountId the ID of the account
+     * @return the savings account, or null if not found
+     */
+    public Savings getSavings(String accountId) {
+        return lookup(savings, accountId, Savings::getSavingsByAccountID);
+    }
+
+    /**
+     * Gets an FX account of the customer.
+     * @param accountId the ID of the account
+     * @return the FX account, or null if not found
+     */
+    public FX getFX(String accountId) {
+        return lookup(fx, accountId, FX::getFXByAccountID);
+    }
+
+    /**
+     * Gets the limits of an account of the customer.
+     * @param accountId the ID of the account
+     * @return the limits, or null if not found
+     */
+    public Limits getLimits(String accountId) {
+        return lookup(limits, accountId, SessionCache::findLimits);
+    }
+
+    /**
+     * Gets the loan of an account of the customer.
+     * @param accountId the ID of the account
+     * @return the loan, or null if not found
+     */
+    public SunshineLoan getLoan(String accountId) {
+        return lookup(loans, accountId, SunshineLoan::getLoanByAccountID);
+    }
+
+    /**
+     * Forgets everything cached for an account, so the next lookup searches the bank-wide lists again.
+     * @param accountId the ID of the account
+     */
+    public void invalidate(String accountId) {
+        savings.remove(accountId);
+        fx.remove(accountId);
+        limits.remove(accountId);
+        loans.remove(accountId);
+    }
+
+    /**
+     * Forgets everything cached for an account in every open session. Used by writes that know the account but not
+     * its customer.
+     * @param accountId the ID of the account
+     */
+    public static void invalidateAccount(String accountId) {
+        for (SessionCache session : sessions.values()) {
+            session.invalidate(accountId);
+        }
+    }
+
+    /**
+     * Gets the number of lookups answered from the cache.
+     * @return the number of hits
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Gets the number of lookups that had to search the bank-wide lists.
+     * @return the number of misses
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Gets the share of lookups answered from the cache.
+     * @return the hit rate between 0 and 1, or 0 if nothing has been looked up
+     */
+    public double getHitRate() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    /**
+     * Resolves the objects of the customer's active accounts. Preloading is not counted as misses.
+     */
+    private void preload() {
+        for (Account account : AccountIndex.shared().get(customerId, "Active", AccountIndex.ANY)) {
+            String accountId = account.getAccountId();
+            switch (account.getType()) {
+                case "Savings":
+                    putIfFound(savings, accountId, Savings.getSavingsByAccountID(accountId));
+                    putIfFound(limits, accountId, findLimits(accountId));
+                    break;
+                case "Fx":
+                    putIfFound(fx, accountId, FX.getFXByAccountID(accountId));
+                    putIfFound(limits, accountId, findLimits(accountId));
+                    break;
+                case "Loan":
+                    putIfFound(loans, accountId, SunshineLoan.getLoanByAccountID(accountId));
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Finds the limits of an account through the {@link LimitsStore}, which also knows accounts that are not in the
+     * limits CSV.
+     * @param accountId the ID of the account
+     * @return the limits, or null if not found
+     * @throws UncheckedIOException if the limits store cannot be opened
+     */
+    private static Limits findLimits(String accountId) {
+        try {
+            return LimitsStore.shared().getLimitAcc(accountId);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Looks an object up in the cache, reading it through on a miss.
+     * @param cache the cache for the kind of object
+     * @param accountId the ID of the account
+     * @param loader searches the bank-wide list for the object
+     * @return the object, or null if not found
+     */
+    private <T> T lookup(ConcurrentHashMap<String, T> cache, String accountId, Function<String, T> loader) {
+        T cached = cache.get(accountId);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+        T loaded = loader.apply(accountId);
+        putIfFound(cache, accountId, loaded);
+        return loaded;
+    }
+
+    /**
+     * Caches an object unless it was not found.
+     * @param cache the cache for the kind of object
+     * @param accountId the ID of the account
+     * @param value the object, or null if not found
+     */
+    private static <T> void putIfFound(ConcurrentHashMap<String, T> cache, String accountId, T value) {
+        if (value != null) {
+            cache.put(accountId, value);
+        }
+    }
+}
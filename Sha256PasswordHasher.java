@@ -0,0 +1,64 @@
+package com.sunshine;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The {@code Sha256PasswordHasher} class is the original password hashing scheme: a single round of SHA-256 over the
+ * salt followed by the UTF-8 bytes of the password, stored as a plain hexadecimal string.
+ * <p>
+ * It is kept so that existing customers can still log in. Unless it is selected as the current scheme,
+ * {@link PasswordHashing#needsRehash(String)} reports its hashes as needing a rehash, so they are replaced the next
+ * time the customer logs in or changes their password.
+ *
+ * @version 1.0
+ */
+public class Sha256PasswordHasher implements PasswordHasher {
+
+    /**
+     * Hashes written by this scheme have no prefix.
+     * @return an empty string
+     */
+    @Override
+    public String getPrefix() {
+        return "";
+    }
+
+    /**
+     * Hashes a password using {@link HashingSecurity#hashString(char[], byte[])}.
+     * @param password the password to hash
+     * @param salt the salt of the customer
+     * @return the hexadecimal SHA-256 hash
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    @Override
+    public String hash(char[] password, byte[] salt) throws NoSuchAlgorithmException {
+        return HashingSecurity.hashString(password, salt);
+    }
+
+    /**
+     * Checks a password against a hexadecimal SHA-256 hash in constant time.
+     * @param password the password entered by the customer
+     * @param salt the salt of the customer
+     * @param storedHash the stored hexadecimal hash
+     * @return true if the password matches, false otherwise
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    @Override
+    public boolean matches(char[] password, byte[] salt, String storedHash) throws NoSuchAlgorithmException {
+        String computed = hash(password, salt);
+        return MessageDigest.isEqual(computed.getBytes(StandardCharsets.US_ASCII),
+                storedHash.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Hashes written by this scheme have no parameters that can become outdated.
+     * @param storedHash the stored hexadecimal hash
+     * @return false
+     */
+    @Override
+    public boolean needsRehash(String storedHash) {
+        return false;
+    }
+}
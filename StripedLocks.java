@@ -0,0 +1,256 @@
+package com.sunshine;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The {@code StripedLocks} class serializes money-moving operations per account with a fixed set of locks.
+ * <p>
+ * Every account ID is hashed onto one of a fixed number of stripes, each guarded by a {@link ReentrantLock}. Two
+ * operations on the same account always use the same stripe and therefore run one after the other, while operations
+ * on unrelated accounts usually use different stripes and run in parallel. The number of stripes is fixed, so the
+ * memory used does not grow with the number of accounts.
+ * <p>
+ * Operations on two accounts, such as transfers, lock both stripes in ascending stripe order. Since every thread
+ * acquires stripes in the same order, two opposite transfers between the same accounts can never deadlock. If both
+ * accounts hash to the same stripe it is locked once.
+ * <p>
+ * Each stripe counts its acquisitions, how many of them had to wait for another thread, and the total time spent
+ * waiting, so hot accounts show up as hot stripes.
+ * <p>
+ * The shared instance has {@value #DEFAULT_STRIPES} stripes unless the {@value #STRIPES_PROPERTY} system property is
+ * set. The number is rounded up to a power of two.
+ * <p>
+ * Usage example:
+ * <pre>
+ * StripedLocks.Held held = StripedLocks.shared().lock(fromAccountId, toAccountId);
+ * try {
+ *     // check the balance again and move the money
+ * } finally {
+ *     held.close();
+ * }
+ * </pre>
+ *
+ * @version 1.0
+ */
+public class StripedLocks {
+
+    /**
+     * The system property that sets the number of stripes of the shared instance.
+     */
+    public static final String STRIPES_PROPERTY = "sunshine.locks.stripes";
+
+    /**
+     * The default number of stripes.
+     */
+    public static final int DEFAULT_STRIPES = 64;
+
+    /**
+     * The shared instance.
+     */
+    private static final StripedLocks shared = new StripedLocks(Integer.getInteger(STRIPES_PROPERTY, DEFAULT_STRIPES));
+
+    /**
+     * The locks of the stripes.
+     */
+    private final ReentrantLock[] locks;
+
+    /**
+     * The number of acquisitions of each stripe.
+     */
+    private final LongAdder[] acquisitions;
+
+    /**
+     * The number of acquisitions of each stripe that had to wait.
+     */
+    private final LongAdder[] contended;
+
+    /**
+     * The total time spent waiting for each stripe, in nanoseconds.
+     */
+    private final LongAdder[] waitNanos;
+
+    /**
+     * Constructs a new StripedLocks.
+     * @param stripes the number of stripes, rounded up to a power of two
+     */
+    public StripedLocks(int stripes) {
+        if (stripes < 1 || stripes > (1 << 16)) {
+            throw new IllegalArgumentException("Number of stripes must be between 1 and 65536: " + stripes);
+        }
+        int size = Integer.highestOneBit(stripes);
+        if (size < stripes) {
+            size <<= 1;
+        }
+        locks = new ReentrantLock[size];
+        acquisitions = new LongAdder[size];
+        contended = new LongAdder[size];
+        waitNanos = new LongAdder[size];
+        for (int i = 0; i < size; i++) {
+            locks[i] = new ReentrantLock();
+            acquisitions[i] = new LongAdder();
+            contended[i] = new LongAdder();
+            waitNanos[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Gets the shared instance.
+     * @return the shared instance
+     */
+    public static StripedLocks shared() {
+        return shared;
+    }
+
+    /**
+     * Locks the stripe of one account.
+     * @param accountId the ID of the account
+     * @return the held lock, to be closed when the operation is done
+     */
+    public Held lock(String accountId) {
+        int stripe = stripeOf(accountId);
+        acquire(stripe);
+        return new Held(stripe, -1);
+    }
+
+    /**
+     * Locks the stripes of two accounts in ascending stripe order.
+     * @param firstAccountId the ID of one account
+     * @param secondAccountId the ID of the other account
+     * @return the held locks, to be closed when the operation is done
+     */
+    public Held lock(String firstAccountId, String secondAccountId) {
+        int a = stripeOf(firstAccountId);
+        int b = stripeOf(secondAccountId);
+        if (a == b) {
+            acquire(a);
+            return new Held(a, -1);
+        }
+        int low = Math.min(a, b);
+        int high = Math.max(a, b);
+        acquire(low);
+        try {
+            acquire(high);
+        } catch (RuntimeException | Error e) {
+            locks[low].unlock();
+            throw e;
+        }
+        return new Held(low, high);
+    }
+
+    /**
+     * Gets the stripe an account ID is hashed onto.
+     * @param accountId the ID of the account
+     * @return the index of the stripe
+     */
+    public int stripeOf(String accountId) {
+        int h = accountId.hashCode();
+        h ^= h >>> 16; // Spread the high bits, as HashMap does
+        return h & (locks.length - 1);
+    }
+
+    /**
+     * Gets the number of stripes.
+     * @return the number of stripes
+     */
+    public int getStripeCount() {
+        return locks.length;
+    }
+
+    /**
+     * Gets the number of times a stripe has been locked.
+     * @param stripe the index of the stripe
+     * @return the number of acquisitions
+     */
+    public long getAcquisitions(int stripe) {
+        return acquisitions[stripe].sum();
+    }
+
+    /**
+     * Gets the number of times a thread had to wait for a stripe.
+     * @param stripe the index of the stripe
+     * @return the number of contended acquisitions
+     */
+    public long getContendedAcquisitions(int stripe) {
+        return contended[stripe].sum();
+    }
+
+    /**
+     * Gets the total time threads have spent waiting for a stripe.
+     * @param stripe the index of the stripe
+     * @return the total wait time in nanoseconds
+     */
+    public long getWaitNanos(int stripe) {
+        return waitNanos[stripe].sum();
+    }
+
+    /**
+     * Gets the number of threads currently waiting for a stripe.
+     * @param stripe the index of the stripe
+     * @return the estimated number of waiting threads
+     */
+    public int getQueueLength(int stripe) {
+        return locks[stripe].getQueueLength();
+    }
+
+    /**
+     * Locks a stripe, recording whether the thread had to wait and for how long.
+     * @param stripe the index of the stripe
+     */
+    private void acquire(int stripe) {
+        ReentrantLock lock = locks[stripe];
+        if (!lock.tryLock()) {
+            long start = System.nanoTime();
+            lock.lock();
+            contended[stripe].increment();
+            waitNanos[stripe].add(System.nanoTime() - start);
+        }
+        acquisitions[stripe].increment();
+    }
+
+    /**
+     * The stripes held by one operation. Closing it releases them in the reverse order they were locked.
+     */
+    public class Held implements AutoCloseable {
+
+        /**
+         * The stripe locked first.
+         */
+        private final int first;
+
+        /**
+         * The stripe locked second, or -1 if only one stripe is held.
+         */
+        private final int second;
+
+        /**
+         * True once the stripes have been released.
+         */
+        private boolean released;
+
+        /**
+         * Constructs a new Held.
+         * @param first the stripe locked first
+         * @param second the stripe locked second, or -1 if only one stripe is held
+         */
+        Held(int first, int second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        /**
+         * Releases the stripes. Closing a Held more than once has no further effect.
+         */
+        @Override
+        public void close() {
+            if (released) {
+                return;
+            }
+            released = true;
+            if (second >= 0) {
+                locks[second].unlock();
+            }
+            locks[first].unlock();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.sunshine;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@code TotpReplayGuard} class makes sure that each Time-based One-Time Password (TOTP) code can only be used
+ * once.
+ * <p>
+ * For every user it records the last time step for which a code was accepted. A code is only accepted if its time
+ * step is later than that, so a code that has already been used, or an older code, is rejected for the rest of its
+ * validity window. This follows the recommendation of RFC 6238, section 5.2.
+ * <p>
+ * The last accepted step of each user is an {@link AtomicLong} in a {@link ConcurrentHashMap} and is advanced with
+ * compare-and-set, so parallel logins of different users never block each other, and two parallel logins with the
+ * same code cannot both succeed.
+ * <p>
+ * The number of steps of clock drift accepted on either side of the current step defaults to
+ * {@value #DEFAULT_WINDOW} and can be changed with the {@value #WINDOW_PROPERTY} system property.
+ *
+ * @version 1.0
+ */
+public class TotpReplayGuard {
+
+    /**
+     * The system property that sets the drift window of the shared guard.
+     */
+    public static final String WINDOW_PROPERTY = "sunshine.totp.window";
+
+    /**
+     * The default drift window, in time steps.
+     */
+    public static final int DEFAULT_WINDOW = 1;
+
+    /**
+     * The shared guard.
+     */
+    private static final TotpReplayGuard shared = new TotpReplayGuard(
+            Integer.getInteger(WINDOW_PROPERTY, DEFAULT_WINDOW));
+
+    /**
+     * The last accepted time step of each user, keyed by normalized username.
+     */
+    private final ConcurrentHashMap<String, AtomicLong> lastAcceptedStep = new ConcurrentHashMap<String, AtomicLong>();
+
+    /**
+     * The number of steps of clock drift accepted on either side of the current step.
+     */
+    private final int window;
+
+    /**
+     * Constructs a new TotpReplayGuard.
+     * @param window the number of steps of clock drift accepted on either side of the current step
+     */
+    public TotpReplayGuard(int window) {
+        if (window < 0) {
+            throw new IllegalArgumentException("Window must not be negative: " + window);
+        }
+        this.window = window;
+    }
+
+    /**
+     * Gets the shared guard.
+     * @return the shared guard
+     */
+    public static TotpReplayGuard shared() {
+        return shared;
+    }
+
+    /**
+     * Gets the drift window.
+     * @return the number of steps of clock drift accepted on either side of the current step
+     */
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * Verifies a code and, if it is valid and has not been used, marks its time step as used.
+     * @param username the username of the user
+     * @param verifier the verifier for the user's secret key
+     * @param userInputCode the code entered by the user
+     * @return true if the code is valid and has not been used before, false otherwise
+     * @throws NumberFormatException if the code is not a number
+     */
+    public boolean verify(String username, TotpVerifier verifier, String userInputCode) {
+        long step = verifier.matchingStep(userInputCode, TotpVerifier.currentTimeStep(), window);
+        return step != Long.MIN_VALUE && tryAccept(username, step);
+    }
+
+    /**
+     * Marks a time step as used for a user, if it is later than the last step accepted for the user.
+     * @param username the username of the user
+     * @param step the time step of a valid code
+     * @return true if the step was accepted, false if it or a later step has already been used
+     */
+    public boolean tryAccept(String username, long step) {
+        AtomicLong last = lastAcceptedStep.computeIfAbsent(SecurityRegistry.normalize(username),
+                key -> new AtomicLong(Long.MIN_VALUE));
+        while (true) {
+            long current = last.get();
+            if (step <= current) {
+                return false; // Replayed or older code
+            }
+            if (last.compareAndSet(current, step)) {
+                return true;
+            }
+        }
+    }
+}
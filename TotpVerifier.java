@@ -0,0 +1,142 @@
+package com.sunshine;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.jboss.aerogear.security.otp.api.Base32;
+
+/**
+ * The {@code TotpVerifier} class verifies Time-based One-Time Password (TOTP) codes for one secret key.
+ * <p>
+ * The Base32 secret is decoded and the HMAC key is set up once, when the verifier is created, instead of on every
+ * attempt. Codes are computed the same way as {@code org.jboss.aerogear.security.otp.Totp}: HMAC-SHA1 over the
+ * 30-second time step, dynamic truncation, and six digits, so authenticator apps enrolled through {@link TwoFA}
+ * keep working. Like {@code Totp.verify}, {@link #verify(String)} accepts the code of the current time step and of
+ * the step before it.
+ * <p>
+ * Verifiers are cached per user by {@link TotpVerifierCache}.
+ *
+ * @version 1.0
+ */
+public class TotpVerifier {
+
+    /**
+     * The length of a time step in seconds.
+     */
+    public static final int TIME_STEP_SECONDS = 30;
+
+    /**
+     * The number of digits of a code.
+     */
+    private static final int DIGITS_MODULUS = 1000000;
+
+    /**
+     * The secret key this verifier was created for.
+     */
+    private final String secretKey;
+
+    /**
+     * The HMAC, initialized with the decoded secret key. Guarded by this verifier's lock.
+     */
+    private final Mac mac;
+
+    /**
+     * Constructs a new TotpVerifier for a Base32 secret key.
+     * @param secretKey the Base32 secret key
+     * @throws IllegalArgumentException if the secret key is not valid Base32
+     */
+    public TotpVerifier(String secretKey) {
+        this.secretKey = secretKey;
+        try {
+            byte[] key = Base32.decode(secretKey);
+            this.mac = Mac.getInstance("HmacSHA1");
+            this.mac.init(new SecretKeySpec(key, "RAW"));
+        } catch (Base32.DecodingException e) {
+            throw new IllegalArgumentException("Secret key is not valid Base32", e);
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new IllegalStateException("HmacSHA1 is not available", e);
+        }
+    }
+
+    /**
+     * Gets the secret key this verifier was created for.
+     * @return the Base32 secret key
+     */
+    public String getSecretKey() {
+        return secretKey;
+    }
+
+    /**
+     * Gets the current time step.
+     * @return the number of whole time steps since the epoch
+     */
+    public static long currentTimeStep() {
+        return System.currentTimeMillis() / 1000 / TIME_STEP_SECONDS;
+    }
+
+    /**
+     * Verifies a code against the current time step and the step before it.
+     * @param userInputCode the code entered by the user
+     * @return true if the code is valid, false otherwise
+     * @throws NumberFormatException if the code is not a number
+     */
+    public boolean verify(String userInputCode) {
+        long code = Long.parseLong(userInputCode);
+        long currentStep = currentTimeStep();
+        for (long step = currentStep - 1; step <= currentStep; step++) {
+            if (generate(step) == code) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds the time step within a drift window that a code was generated for.
+     * <p>
+     * Only the 2 * window + 1 candidate steps around the given step are computed, starting with the given step and
+     * then moving outwards one step at a time in both directions, so the most likely step is tried first.
+     * </p>
+     * @param userInputCode the code entered by the user
+     * @param currentStep the time step to search around
+     * @param window the number of steps of clock drift to accept on either side
+     * @return the matching time step, or {@link Long#MIN_VALUE} if the code matches no step in the window
+     * @throws NumberFormatException if the code is not a number
+     */
+    public long matchingStep(String userInputCode, long currentStep, int window) {
+        long code = Long.parseLong(userInputCode);
+        if (generate(currentStep) == code) {
+            return currentStep;
+        }
+        for (int drift = 1; drift <= window; drift++) {
+            if (generate(currentStep - drift) == code) {
+                return currentStep - drift;
+            }
+            if (generate(currentStep + drift) == code) {
+                return currentStep + drift;
+            }
+        }
+        return Long.MIN_VALUE;
+    }
+
+    /**
+     * Computes the code for a time step.
+     * @param timeStep the time step
+     * @return the six-digit code as an integer
+     */
+    public synchronized int generate(long timeStep) {
+        byte[] message = new byte[8];
+        for (int i = 7; i >= 0; i--) {
+            message[i] = (byte) timeStep;
+            timeStep >>>= 8;
+        }
+        byte[] hash = mac.doFinal(message);
+        int offset = hash[hash.length - 1] & 0xf;
+        int binary = ((hash[offset] & 0x7f) << 24)
+                | ((hash[offset + 1] & 0xff) << 16)
+                | ((hash[offset + 2] & 0xff) << 8)
+                | (hash[offset + 3] & 0xff);
+        return binary % DIGITS_MODULUS;
+    }
+}
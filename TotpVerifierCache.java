@@ -0,0 +1,129 @@
+package com.sunshine;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The {@code TotpVerifierCache} class keeps a bounded, least-recently-used cache of {@link TotpVerifier} objects keyed
+ * by username.
+ * <p>
+ * A cached verifier is only used if it was created for the user's current secret key. When a user's secret key
+ * changes, {@link Security#setSecretKey(String)} evicts the user's verifier, and a lookup with a different secret key
+ * replaces it, so a rotated secret is never verified with the old key.
+ * <p>
+ * The shared cache holds up to {@value #DEFAULT_CAPACITY} verifiers by default; this can be changed with the
+ * {@value #CAPACITY_PROPERTY} system property.
+ *
+ * @version 1.0
+ */
+public class TotpVerifierCache {
+
+    /**
+     * The system property that sets the capacity of the shared cache.
+     */
+    public static final String CAPACITY_PROPERTY = "sunshine.totp.cacheSize";
+
+    /**
+     * The default capacity of the shared cache.
+     */
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    /**
+     * The shared cache.
+     */
+    private static final TotpVerifierCache shared = new TotpVerifierCache(
+            Integer.getInteger(CAPACITY_PROPERTY, DEFAULT_CAPACITY));
+
+    /**
+     * The cached verifiers keyed by normalized username, in access order. Guarded by this cache's lock.
+     */
+    private final LinkedHashMap<String, TotpVerifier> verifiers;
+
+    /**
+     * The number of lookups that found a usable verifier.
+     */
+    private final LongAdder hits = new LongAdder();
+
+    /**
+     * The number of lookups that had to create a verifier.
+     */
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Constructs a new TotpVerifierCache.
+     * @param capacity the maximum number of verifiers to keep
+     */
+    public TotpVerifierCache(int capacity) {
+        this.verifiers = new LinkedHashMap<String, TotpVerifier>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, TotpVerifier> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Gets the shared cache.
+     * @return the shared cache
+     */
+    public static TotpVerifierCache shared() {
+        return shared;
+    }
+
+    /**
+     * Gets the verifier for a user's secret key, creating and caching it if needed.
+     * @param username the username of the user
+     * @param secretKey the user's current Base32 secret key
+     * @return a verifier for the secret key
+     * @throws IllegalArgumentException if the secret key is not valid Base32
+     */
+    public TotpVerifier verifierFor(String username, String secretKey) {
+        String key = SecurityRegistry.normalize(username);
+        synchronized (this) {
+            TotpVerifier verifier = verifiers.get(key);
+            if (verifier != null && verifier.getSecretKey().equals(secretKey)) {
+                hits.increment();
+                return verifier;
+            }
+        }
+        misses.increment();
+        TotpVerifier verifier = new TotpVerifier(secretKey); // Decode the secret outside the lock
+        synchronized (this) {
+            verifiers.put(key, verifier);
+        }
+        return verifier;
+    }
+
+    /**
+     * Removes the cached verifier of a user, for example because the user's secret key has changed.
+     * @param username the username of the user
+     */
+    public synchronized void invalidate(String username) {
+        verifiers.remove(SecurityRegistry.normalize(username));
+    }
+
+    /**
+     * Gets the number of cached verifiers.
+     * @return the number of cached verifiers
+     */
+    public synchronized int size() {
+        return verifiers.size();
+    }
+
+    /**
+     * Gets the number of lookups that found a usable verifier.
+     * @return the number of cache hits
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Gets the number of lookups that had to create a verifier.
+     * @return the number of cache misses
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+}
@@ -0,0 +1,171 @@
+package com.sunshine;
+
+import org.jboss.aerogear.security.otp.api.Base32;
+
+/**
+ * The {@code TotpVerifierCacheBenchmark} class measures how much {@link TotpVerifierCache} saves when many users
+ * verify TOTP codes, and checks that the cache still verifies every code correctly.
+ * <p>
+ * A number of users are given random secret keys, and every user verifies the current code of their key once per
+ * round. The cold run creates a new {@link TotpVerifier} for every code, which decodes the secret and initializes the
+ * HMAC each time, the way verification worked before the cache. The cached run gets the verifier from a
+ * {@link TotpVerifierCache} that can hold every user, so only the first round creates verifiers. Both runs are
+ * repeated once untimed first, so the JIT has compiled the code before it is measured.
+ * <p>
+ * The program checks that every code is accepted in both runs, that the cache created one verifier per user and
+ * answered every later lookup from the cache, and that a user whose secret key has changed gets a verifier for the new
+ * key. It prints the time per verification of both runs and exits with status 1 if any check fails.
+ * <p>
+ * Usage example:
+ * <pre>
+ * java com.sunshine.TotpVerifierCacheBenchmark [users] [rounds]
+ * </pre>
+ *
+ * @version 1.0
+ */
+public class TotpVerifierCacheBenchmark {
+
+    /**
+     * The usernames of the users.
+     */
+    private final String[] usernames;
+
+    /**
+     * The secret keys of the users.
+     */
+    private final String[] secretKeys;
+
+    /**
+     * The number of times every user verifies a code.
+     */
+    private final int rounds;
+
+    /**
+     * The number of codes that were not accepted.
+     */
+    private long rejected;
+
+    /**
+     * Constructs a new TotpVerifierCacheBenchmark with random secret keys.
+     * @param users the number of users
+     * @param rounds the number of times every user verifies a code
+     */
+    TotpVerifierCacheBenchmark(int users, int rounds) {
+        this.usernames = new String[users];
+        this.secretKeys = new String[users];
+        this.rounds = rounds;
+        for (int i = 0; i < users; i++) {
+            usernames[i] = "user" + i;
+            secretKeys[i] = Base32.random();
+        }
+    }
+
+    /**
+     * Runs the benchmark and the checks.
+     * @param args the number of users and the number of rounds, both optional
+     */
+    public static void main(String[] args) {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        TotpVerifierCacheBenchmark benchmark = new TotpVerifierCacheBenchmark(users, rounds);
+        benchmark.cold();
+        benchmark.cached(new TotpVerifierCache(users));
+        benchmark.rejected = 0; // Only the measured runs are checked
+
+        long coldNanos = benchmark.cold();
+        TotpVerifierCache cache = new TotpVerifierCache(users);
+        long cachedNanos = benchmark.cached(cache);
+        if (!benchmark.verify(cache)) {
+            System.exit(1);
+        }
+        long verifications = (long) users * rounds;
+        System.out.println(String.format("Cold: %d ns per verification, cached: %d ns per verification, %.1fx faster",
+                coldNanos / verifications, cachedNanos / verifications, (double) coldNanos / Math.max(1, cachedNanos)));
+    }
+
+    /**
+     * Verifies every user's code in every round with a new verifier each time.
+     * @return the elapsed time in nanoseconds
+     */
+    long cold() {
+        String[] codes = currentCodes();
+        long start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            for (int i = 0; i < usernames.length; i++) {
+                check(new TotpVerifier(secretKeys[i]), codes[i]);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Verifies every user's code in every round with the verifier from a cache.
+     * @param cache the cache
+     * @return the elapsed time in nanoseconds
+     */
+    long cached(TotpVerifierCache cache) {
+        String[] codes = currentCodes();
+        long start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            for (int i = 0; i < usernames.length; i++) {
+                check(cache.verifierFor(usernames[i], secretKeys[i]), codes[i]);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Verifies a code and counts it if it is not accepted.
+     * @param verifier the verifier
+     * @param code the code
+     */
+    private void check(TotpVerifier verifier, String code) {
+        if (!verifier.verify(code)) {
+            rejected++;
+        }
+    }
+
+    /**
+     * Computes the current code of every user the way an authenticator app shows it, before a run is timed. A code
+     * stays valid until the time step after the next one starts, so runs shorter than
+     * {@value TotpVerifier#TIME_STEP_SECONDS} seconds never see an expired code.
+     * @return the six-digit codes, indexed like the users
+     */
+    private String[] currentCodes() {
+        long step = TotpVerifier.currentTimeStep();
+        String[] codes = new String[secretKeys.length];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = String.format("%06d", new TotpVerifier(secretKeys[i]).generate(step));
+        }
+        return codes;
+    }
+
+    /**
+     * Checks the results of the measured runs and prints them.
+     * @param cache the cache used by the measured cached run
+     * @return true if every check passed
+     */
+    boolean verify(TotpVerifierCache cache) {
+        boolean passed = true;
+        if (rejected != 0) {
+            System.out.println(rejected + " valid codes were rejected");
+            passed = false;
+        }
+        long users = usernames.length;
+        long hits = cache.getHitCount();
+        long misses = cache.getMissCount();
+        if (misses != users || hits != users * (rounds - 1)) {
+            System.out.println("Expected " + users + " misses and " + users * (rounds - 1) + " hits, got " + misses
+                    + " misses and " + hits + " hits");
+            passed = false;
+        }
+        String rotated = Base32.random();
+        if (users > 0 && !cache.verifierFor(usernames[0], rotated).getSecretKey().equals(rotated)) {
+            System.out.println("A rotated secret key was verified with the old key");
+            passed = false;
+        }
+        System.out.println((passed ? "PASSED" : "FAILED") + ": " + users + " users, " + rounds + " rounds, " + hits
+                + " hits, " + misses + " misses");
+        return passed;
+    }
+}
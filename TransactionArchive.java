@@ -0,0 +1,822 @@
+package com.sunshine;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The {@code TransactionArchive} class stores the transactions of a closed period in a columnar format and reads them
+ * back through memory-mapped files.
+ * <p>
+ * An archive is a directory with one file per column, all holding the rows in timestamp order:
+ * <ul>
+ * <li>{@code timestamps.col}: the timestamp of each row as epoch milliseconds, 8 bytes per row</li>
+ * <li>{@code timestamp_text.col}: the timestamp as {@code Transactions} holds it, {@value #TIMESTAMP_WIDTH} ASCII
+ * bytes per row, padded with spaces</li>
+ * <li>{@code ids.col}: the transaction ID, {@value #ID_WIDTH} ASCII bytes per row, padded with spaces</li>
+ * <li>{@code accounts.col} and {@code accounts.dict}: the account ID as a 4-byte code into a dictionary of the
+ * distinct account IDs, one per line</li>
+ * <li>{@code types.col} and {@code types.dict}: the transaction type, encoded the same way</li>
+ * <li>{@code sgd.col}, {@code myr.col}, {@code aud.col}, {@code usd.col} and {@code gbp.col}: the amount in each
+ * currency of {@code Balance} as a long scaled by 10^{@value #AMOUNT_SCALE}, 8 bytes per row</li>
+ * <li>{@code archive.properties}: the number of rows, the scale and the time range</li>
+ * </ul>
+ * <p>
+ * Because every column has a fixed width, row {@code i} of a column is found at offset {@code i * width} without
+ * parsing anything. Only the account column is scanned, once, to build the list of rows of each account; the other
+ * columns are only read for the rows that are displayed.
+ * <p>
+ * {@link #convert(String, LocalDateTime, LocalDateTime)} moves the transactions of a period out of
+ * {@code Transactions} and the transaction CSV file into a new archive, and {@link #archiveClosedPeriods()} does so
+ * for every closed calendar year; it runs on a background thread when the bank starts. Archives are written to a temporary directory and
+ * only renamed into place once the CSV file has been rewritten without their rows, so a half-written archive is never
+ * opened and no transaction is shown both as a live and as an archived row.
+ * <p>
+ * {@link #loadAll(String)} opens every archive below a root directory, and {@link #history(List, String)} returns the
+ * archived transactions of an account, newest first. {@link TransactionHistory} appends them to the live history, so
+ * every history view shows them.
+ * <p>
+ * Usage example:
+ * <pre>
+ * TransactionArchive.archiveClosedPeriods();
+ * List&lt;TransactionArchive&gt; archives = TransactionArchive.loadAll("./resources/archive");
+ * List&lt;ArchivedTransaction&gt; older = TransactionArchive.history(archives, accountId);
+ * </pre>
+ *
+ * @version 1.0
+ */
+public class TransactionArchive {
+
+    /**
+     * The system property that sets the root directory of the archives.
+     */
+    public static final String ROOT_PROPERTY = "sunshine.archive.dir";
+
+    /**
+     * The default root directory of the archives.
+     */
+    public static final String DEFAULT_ROOT = "./resources/archive";
+
+    /**
+     * The number of decimal places kept for amounts.
+     */
+    public static final int AMOUNT_SCALE = 4;
+
+    /**
+     * The width in bytes of a transaction ID, which fits a UUID.
+     */
+    public static final int ID_WIDTH = 36;
+
+    /**
+     * The width in bytes of the timestamp text of a row.
+     */
+    public static final int TIMESTAMP_WIDTH = 32;
+
+    /**
+     * The version of the archive format.
+     */
+    private static final int FORMAT_VERSION = 2;
+
+    /**
+     * The name of the timestamp text column.
+     */
+    private static final String TIMESTAMP_TEXT_FILE = "timestamp_text.col";
+
+    /**
+     * The suffix of an archive that is still being written.
+     */
+    private static final String TMP_SUFFIX = ".tmp";
+
+    /**
+     * The suffix of an archive whose rows are still being removed from the transaction CSV file.
+     */
+    private static final String PENDING_SUFFIX = ".pending";
+
+    /**
+     * The name of the metadata file of an archive.
+     */
+    private static final String META_FILE = "archive.properties";
+
+    /**
+     * The names of the amount columns, in the order of {@link #CURRENCIES}.
+     */
+    private static final String[] AMOUNT_FILES = { "sgd.col", "myr.col", "aud.col", "usd.col", "gbp.col" };
+
+    /**
+     * The currencies of the amount columns.
+     */
+    static final String[] CURRENCIES = { "SGD", "MYR", "AUD", "USD", "GBP" };
+
+    /**
+     * The archives below the root directory, opened on first use.
+     */
+    private static List<TransactionArchive> shared;
+
+    /**
+     * The directory of the archive.
+     */
+    private final Path dir;
+
+    /**
+     * The number of rows in the archive.
+     */
+    private final int rows;
+
+    /**
+     * The timestamp text column.
+     */
+    private final ByteBuffer timestampText;
+
+    /**
+     * The timestamp of the newest row, in epoch milliseconds.
+     */
+    private final long lastMillis;
+
+    /**
+     * The timestamps column.
+     */
+    private final LongBuffer timestamps;
+
+    /**
+     * The transaction ID column.
+     */
+    private final ByteBuffer ids;
+
+    /**
+     * The account code column.
+     */
+    private final IntBuffer accountCodes;
+
+    /**
+     * The transaction type code column.
+     */
+    private final IntBuffer typeCodes;
+
+    /**
+     * The amount columns, one per currency.
+     */
+    private final LongBuffer[] amounts = new LongBuffer[CURRENCIES.length];
+
+    /**
+     * The account ID dictionary.
+     */
+    private final String[] accountDict;
+
+    /**
+     * The transaction type dictionary.
+     */
+    private final String[] typeDict;
+
+    /**
+     * The dictionary code of each account ID.
+     */
+    private final Map<String, Integer> accountCode = new HashMap<String, Integer>();
+
+    /**
+     * The rows of each account code in timestamp order, built on first use.
+     */
+    private int[][] rowsByAccount;
+
+    /**
+     * Opens an archive directory and maps its columns.
+     * @param dir the directory of the archive
+     * @throws IOException if a file of the archive cannot be read or the archive is inconsistent
+     */
+    public TransactionArchive(String dir) throws IOException {
+        this.dir = Paths.get(dir);
+        Properties meta = new Properties();
+        try (Reader reader = Files.newBufferedReader(this.dir.resolve(META_FILE), StandardCharsets.UTF_8)) {
+            meta.load(reader);
+        }
+        if (Integer.parseInt(meta.getProperty("version", "0")) != FORMAT_VERSION
+                || Integer.parseInt(meta.getProperty("scale", "-1")) != AMOUNT_SCALE) {
+            throw new IOException("Unsupported archive format in " + dir);
+        }
+        this.rows = Integer.parseInt(meta.getProperty("rows"));
+        this.lastMillis = Long.parseLong(meta.getProperty("lastMillis", "0"));
+
+        this.timestamps = map("timestamps.col", Long.BYTES).asLongBuffer();
+        this.timestampText = map(TIMESTAMP_TEXT_FILE, TIMESTAMP_WIDTH);
+        this.ids = map("ids.col", ID_WIDTH);
+        this.accountCodes = map("accounts.col", Integer.BYTES).asIntBuffer();
+        this.typeCodes = map("types.col", Integer.BYTES).asIntBuffer();
+        for (int i = 0; i < CURRENCIES.length; i++) {
+            amounts[i] = map(AMOUNT_FILES[i], Long.BYTES).asLongBuffer();
+        }
+        this.accountDict = readDictionary("accounts.dict");
+        this.typeDict = readDictionary("types.dict");
+        for (int i = 0; i < accountDict.length; i++) {
+            accountCode.put(accountDict[i], i);
+        }
+    }
+
+    /**
+     * Gets the archives below the {@value #ROOT_PROPERTY} directory, or {@value #DEFAULT_ROOT} if the property is not
+     * set, opening them on first use.
+     * @return the archives, newest period first
+     * @throws IOException if an archive cannot be opened
+     */
+    public static synchronized List<TransactionArchive> shared() throws IOException {
+        if (shared == null) {
+            shared = Collections.unmodifiableList(loadAll(System.getProperty(ROOT_PROPERTY, DEFAULT_ROOT)));
+        }
+        return shared;
+    }
+
+    /**
+     * Opens every archive directly below a root directory.
+     * @param root the root directory of the archives
+     * @return the archives, newest period first, or an empty list if the root directory does not exist
+     * @throws IOException if an archive cannot be opened
+     */
+    public static List<TransactionArchive> loadAll(String root) throws IOException {
+        List<TransactionArchive> archives = new ArrayList<TransactionArchive>();
+        Path rootPath = Paths.get(root);
+        if (!Files.isDirectory(rootPath)) {
+            return archives;
+        }
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(rootPath, Files::isDirectory)) {
+            for (Path dir : dirs) {
+                String name = dir.getFileName().toString();
+                if (!name.endsWith(TMP_SUFFIX) && !name.endsWith(PENDING_SUFFIX)
+                        && Files.exists(dir.resolve(META_FILE))) {
+                    archives.add(new TransactionArchive(dir.toString()));
+                }
+            }
+        }
+        archives.sort(Comparator.comparingLong((TransactionArchive archive) -> archive.lastMillis).reversed());
+        return archives;
+    }
+
+    /**
+     * Gets the archived transactions of an account from several archives, newest first.
+     * <p>
+     * Archives cover separate periods, so the histories of the archives are simply joined, newest period first.
+     * </p>
+     * @param archives the archives, newest period first as returned by {@link #loadAll(String)}
+     * @param accountId the ID of the account
+     * @return the archived transactions of the account, newest first
+     */
+    public static List<ArchivedTransaction> history(List<TransactionArchive> archives, String accountId) {
+        List<ArchivedTransaction> history = new ArrayList<ArchivedTransaction>();
+        for (TransactionArchive archive : archives) {
+            history.addAll(archive.history(accountId));
+        }
+        return Collections.unmodifiableList(history);
+    }
+
+    /**
+     * Gets the archived transactions of an account, newest first.
+     * @param accountId the ID of the account
+     * @return the archived transactions of the account, newest first, empty if the account has none
+     */
+    public List<ArchivedTransaction> history(String accountId) {
+        Integer code = accountCode.get(accountId);
+        if (code == null) {
+            return Collections.emptyList();
+        }
+        int[] accountRows = rowsByAccount()[code];
+        List<ArchivedTransaction> history = new ArrayList<ArchivedTransaction>(accountRows.length);
+        for (int i = accountRows.length - 1; i >= 0; i--) {
+            history.add(new ArchivedTransaction(this, accountRows[i]));
+        }
+        return history;
+    }
+
+    /**
+     * Gets the number of rows in the archive.
+     * @return the number of archived transactions
+     */
+    public int size() {
+        return rows;
+    }
+
+    /**
+     * Gets the directory of the archive.
+     * @return the directory of the archive
+     */
+    public Path getDirectory() {
+        return dir;
+    }
+
+    /**
+     * Gets the timestamp of a row in its original text form.
+     * @param row the row
+     * @return the timestamp of the row
+     */
+    String timestamp(int row) {
+        return text(timestampText, row, TIMESTAMP_WIDTH);
+    }
+
+    /**
+     * Gets the transaction ID of a row.
+     * @param row the row
+     * @return the transaction ID of the row
+     */
+    String transactionId(int row) {
+        return text(ids, row, ID_WIDTH);
+    }
+
+    /**
+     * Reads a value of a fixed-width ASCII column.
+     * @param column the column
+     * @param row the row
+     * @param width the width of the column in bytes
+     * @return the value without its padding
+     */
+    private static String text(ByteBuffer column, int row, int width) {
+        byte[] bytes = new byte[width];
+        ByteBuffer view = column.duplicate();
+        view.position(row * width);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.US_ASCII).trim();
+    }
+
+    /**
+     * Gets the account ID of a row.
+     * @param row the row
+     * @return the account ID of the row
+     */
+    String accountId(int row) {
+        return accountDict[accountCodes.get(row)];
+    }
+
+    /**
+     * Gets the transaction type of a row.
+     * @param row the row
+     * @return the transaction type of the row
+     */
+    String type(int row) {
+        return typeDict[typeCodes.get(row)];
+    }
+
+    /**
+     * Gets the amount of a row in one currency.
+     * @param row the row
+     * @param currency the index of the currency in {@link #CURRENCIES}
+     * @return the amount of the row in the currency, with at least {@link Money#SCALE} decimal places and no further
+     *         trailing zeros, so it is shown like a live amount
+     */
+    BigDecimal amount(int row, int currency) {
+        BigDecimal amount = BigDecimal.valueOf(amounts[currency].get(row), AMOUNT_SCALE).stripTrailingZeros();
+        return amount.scale() < Money.SCALE ? amount.setScale(Money.SCALE) : amount;
+    }
+
+    /**
+     * Builds the list of rows of each account by scanning the account code column once.
+     * @return the rows of each account code in timestamp order
+     */
+    private synchronized int[][] rowsByAccount() {
+        if (rowsByAccount == null) {
+            int[] counts = new int[accountDict.length];
+            for (int row = 0; row < rows; row++) {
+                counts[accountCodes.get(row)]++;
+            }
+            int[][] index = new int[accountDict.length][];
+            for (int code = 0; code < index.length; code++) {
+                index[code] = new int[counts[code]];
+                counts[code] = 0;
+            }
+            for (int row = 0; row < rows; row++) {
+                int code = accountCodes.get(row);
+                index[code][counts[code]++] = row;
+            }
+            rowsByAccount = index;
+        }
+        return rowsByAccount;
+    }
+
+    /**
+     * Maps a column file of the archive.
+     * @param name the name of the column file
+     * @param width the width of a row in bytes
+     * @return the mapped column
+     * @throws IOException if the file cannot be mapped or does not hold one value per row
+     */
+    private ByteBuffer map(String name, int width) throws IOException {
+        try (FileChannel channel = FileChannel.open(dir.resolve(name), StandardOpenOption.READ)) {
+            if (channel.size() != (long) rows * width) {
+                throw new IOException("Column " + name + " of " + dir + " does not have " + rows + " rows");
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Reads a dictionary file of the archive.
+     * @param name the name of the dictionary file
+     * @return the dictionary entries in code order
+     * @throws IOException if the file cannot be read
+     */
+    private String[] readDictionary(String name) throws IOException {
+        return Files.readAllLines(dir.resolve(name), StandardCharsets.UTF_8).toArray(new String[0]);
+    }
+
+    /**
+     * Archives the transactions of every closed calendar year that are still held by {@code Transactions}.
+     * <p>
+     * Each year becomes its own archive below the {@value #ROOT_PROPERTY} directory, or {@value #DEFAULT_ROOT} if the
+     * property is not set, named after the year. A move that was interrupted is completed first. Nothing is written
+     * when every archivable row is from the current year, so this is cheap enough to run at every start.
+     * {@link #shared()} holds the same lock, so a history view waits for a running archive instead of reading a
+     * half-moved period.
+     * </p>
+     * @return the number of rows archived
+     * @throws IOException if an archive cannot be written or the transaction CSV file cannot be rewritten
+     */
+    public static synchronized int archiveClosedPeriods() throws IOException {
+        Path root = Paths.get(System.getProperty(ROOT_PROPERTY, DEFAULT_ROOT));
+        boolean changed = recover(root);
+        LocalDateTime currentYear = LocalDate.now().withDayOfYear(1).atStartOfDay();
+        TreeSet<Integer> years = new TreeSet<Integer>();
+        for (Transactions transaction : Transactions.getAllTransactions()) {
+            Row row = Row.of(transaction);
+            if (row != null && row.time.isBefore(currentYear)) {
+                years.add(row.time.getYear());
+            }
+        }
+        int archived = 0;
+        for (int year : years) {
+            LocalDateTime from = LocalDateTime.of(year, 1, 1, 0, 0);
+            archived += convert(freeArchiveDir(root, String.valueOf(year)).toString(), from, from.plusYears(1));
+        }
+        if (changed || archived > 0) {
+            shared = null; // Open the new archives on next use
+        }
+        return archived;
+    }
+
+    /**
+     * Moves the transactions with a timestamp in a period out of {@code Transactions} into a new archive.
+     * <p>
+     * The rows are taken from {@code Transactions.getAllTransactions()} as parsed by the transaction CSV reader, and
+     * the remaining rows are written back by {@code Transactions.updateCSV}, so the archive never depends on the
+     * column layout of the CSV file. The archive is written to a temporary directory and renamed to
+     * {@code <archiveDir>.pending}. The archived rows are then removed from the list and the CSV file is rewritten,
+     * and only then is the archive renamed into place. Pending archives are not opened, and
+     * {@link #archiveClosedPeriods()} completes any move that was interrupted, so a row is never shown both as a live
+     * and as an archived transaction.
+     * </p>
+     * <p>
+     * Rows whose timestamp cannot be parsed, whose transaction ID is not an ASCII string of at most
+     * {@value #ID_WIDTH} characters, or whose amounts have more than {@value #AMOUNT_SCALE} decimal places stay in the
+     * CSV file.
+     * </p>
+     * @param archiveDir the directory to create the archive in; it must not exist yet
+     * @param from only rows with this or a later timestamp are archived, or null for no lower bound
+     * @param before only rows with an earlier timestamp are archived, or null for no upper bound
+     * @return the number of rows archived; no archive is created if there are none
+     * @throws IOException if the archive cannot be written or the transaction CSV file cannot be rewritten
+     */
+    public static synchronized int convert(String archiveDir, LocalDateTime from, LocalDateTime before)
+            throws IOException {
+        Path target = Paths.get(archiveDir);
+        Path pending = Paths.get(archiveDir + PENDING_SUFFIX);
+        if (Files.exists(target) || Files.exists(pending)) {
+            throw new IOException("Archive already exists: " + archiveDir);
+        }
+
+        // Pick the rows to archive
+        List<Row> rows = new ArrayList<Row>();
+        for (Transactions transaction : Transactions.getAllTransactions()) {
+            Row row = Row.of(transaction);
+            if (row != null && (from == null || !row.time.isBefore(from))
+                    && (before == null || row.time.isBefore(before))) {
+                rows.add(row);
+            }
+        }
+        if (rows.isEmpty()) {
+            return 0;
+        }
+        rows.sort(Comparator.comparingLong((Row row) -> row.millis)); // Stable, so equal timestamps keep list order
+
+        // Write the columns to a temporary directory, then mark the archive as pending until the rows are pruned
+        Path tmp = Paths.get(archiveDir + TMP_SUFFIX);
+        deleteTree(tmp); // Left over from a conversion that stopped while writing
+        writeColumns(tmp, rows);
+        Files.move(tmp, pending, StandardCopyOption.ATOMIC_MOVE);
+        completeMove(pending);
+        return rows.size();
+    }
+
+    /**
+     * Completes interrupted conversions below a root directory.
+     * @param root the root directory of the archives
+     * @return true if anything was completed or cleaned up
+     * @throws IOException if a pending archive cannot be completed
+     */
+    private static boolean recover(Path root) throws IOException {
+        if (!Files.isDirectory(root)) {
+            return false;
+        }
+        List<Path> leftovers = new ArrayList<Path>();
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(root, Files::isDirectory)) {
+            for (Path dir : dirs) {
+                String name = dir.getFileName().toString();
+                if (name.endsWith(TMP_SUFFIX) || name.endsWith(PENDING_SUFFIX)) {
+                    leftovers.add(dir);
+                }
+            }
+        }
+        for (Path dir : leftovers) {
+            if (dir.getFileName().toString().endsWith(TMP_SUFFIX)) {
+                deleteTree(dir);
+            } else {
+                completeMove(dir);
+            }
+        }
+        return !leftovers.isEmpty();
+    }
+
+    /**
+     * Removes the rows of a pending archive from {@code Transactions} and the CSV file, then renames the archive into
+     * place. Running it again after an interruption is harmless, because rows that were already removed are not
+     * found again.
+     * @param pending the directory of the pending archive
+     * @throws IOException if the archive cannot be read, the CSV file cannot be rewritten or the archive cannot be
+     *         renamed
+     */
+    private static void completeMove(Path pending) throws IOException {
+        // Read the keys straight from the files; a mapped column would keep the directory from being renamed on
+        // some platforms
+        byte[] ids = Files.readAllBytes(pending.resolve("ids.col"));
+        byte[] stamps = Files.readAllBytes(pending.resolve(TIMESTAMP_TEXT_FILE));
+        Set<String> keys = new HashSet<String>();
+        for (int row = 0; row * ID_WIDTH < ids.length; row++) {
+            keys.add(key(new String(ids, row * ID_WIDTH, ID_WIDTH, StandardCharsets.US_ASCII),
+                    new String(stamps, row * TIMESTAMP_WIDTH, TIMESTAMP_WIDTH, StandardCharsets.US_ASCII)));
+        }
+        if (Transactions.getAllTransactions().removeIf(
+                transaction -> keys.contains(key(transaction.getTransactionID(), transaction.getTimestamp())))) {
+            Transactions.updateCSV(Transactions.getPath());
+            TransactionStore.shared().invalidate(); // The store would keep showing the moved rows as live
+        }
+        String name = pending.getFileName().toString();
+        Files.move(pending, pending.resolveSibling(name.substring(0, name.length() - PENDING_SUFFIX.length())),
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Builds the key that identifies a row in both the archive and {@code Transactions}.
+     * @param transactionId the transaction ID
+     * @param timestamp the timestamp text
+     * @return the key of the row
+     */
+    private static String key(String transactionId, String timestamp) {
+        return String.valueOf(transactionId).trim() + '\n' + String.valueOf(timestamp).trim();
+    }
+
+    /**
+     * Finds an archive directory name below the root that is not taken yet.
+     * @param root the root directory of the archives
+     * @param name the preferred name, such as the year of the archived rows
+     * @return the preferred name, or the name followed by "-2", "-3" and so on if it is taken
+     */
+    private static Path freeArchiveDir(Path root, String name) {
+        Path dir = root.resolve(name);
+        for (int n = 2; Files.exists(dir) || Files.exists(root.resolve(dir.getFileName() + PENDING_SUFFIX)); n++) {
+            dir = root.resolve(name + "-" + n);
+        }
+        return dir;
+    }
+
+    /**
+     * Deletes a directory and everything in it, if it exists.
+     * @param dir the directory to delete
+     * @throws IOException if a file cannot be deleted
+     */
+    private static void deleteTree(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(dir)) {
+            paths = walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+        }
+        for (Path path : paths) {
+            Files.delete(path);
+        }
+    }
+
+    /**
+     * Writes the columns of an archive into a new directory.
+     * @param dir the directory to create
+     * @param rows the rows of the archive in timestamp order
+     * @throws IOException if a file cannot be written
+     */
+    private static void writeColumns(Path dir, List<Row> rows) throws IOException {
+        Files.createDirectories(dir);
+        Map<String, Integer> accountCodes = new HashMap<String, Integer>();
+        Map<String, Integer> typeCodes = new HashMap<String, Integer>();
+        List<String> accountDict = new ArrayList<String>();
+        List<String> typeDict = new ArrayList<String>();
+        try (DataOutputStream timestampsOut = open(dir, "timestamps.col");
+                OutputStream stampsOut = open(dir, TIMESTAMP_TEXT_FILE);
+                OutputStream idsOut = open(dir, "ids.col");
+                DataOutputStream accountsOut = open(dir, "accounts.col");
+                DataOutputStream typesOut = open(dir, "types.col")) {
+            DataOutputStream[] amountOut = new DataOutputStream[CURRENCIES.length];
+            try {
+                for (int i = 0; i < CURRENCIES.length; i++) {
+                    amountOut[i] = open(dir, AMOUNT_FILES[i]);
+                }
+                for (Row row : rows) {
+                    timestampsOut.writeLong(row.millis);
+                    stampsOut.write(padded(row.timestamp, TIMESTAMP_WIDTH));
+                    idsOut.write(padded(row.id, ID_WIDTH));
+                    accountsOut.writeInt(encode(row.accountId, accountCodes, accountDict));
+                    typesOut.writeInt(encode(row.type, typeCodes, typeDict));
+                    for (int i = 0; i < CURRENCIES.length; i++) {
+                        amountOut[i].writeLong(row.amounts[i]);
+                    }
+                }
+            } finally {
+                for (DataOutputStream out : amountOut) {
+                    if (out != null) {
+                        out.close();
+                    }
+                }
+            }
+        }
+        Files.write(dir.resolve("accounts.dict"), accountDict, StandardCharsets.UTF_8);
+        Files.write(dir.resolve("types.dict"), typeDict, StandardCharsets.UTF_8);
+        Properties meta = new Properties();
+        meta.setProperty("version", String.valueOf(FORMAT_VERSION));
+        meta.setProperty("rows", String.valueOf(rows.size()));
+        meta.setProperty("scale", String.valueOf(AMOUNT_SCALE));
+        meta.setProperty("firstMillis", String.valueOf(rows.get(0).millis));
+        meta.setProperty("lastMillis", String.valueOf(rows.get(rows.size() - 1).millis));
+        try (Writer writer = Files.newBufferedWriter(dir.resolve(META_FILE), StandardCharsets.UTF_8)) {
+            meta.store(writer, "Sunshine Bank transaction archive");
+        }
+    }
+
+    /**
+     * Pads an ASCII value with spaces to a fixed width.
+     * @param value the value, which fits the width
+     * @param width the width in bytes
+     * @return the padded bytes
+     */
+    private static byte[] padded(String value, int width) {
+        byte[] bytes = new byte[width];
+        Arrays.fill(bytes, (byte) ' ');
+        byte[] valueBytes = value.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(valueBytes, 0, bytes, 0, valueBytes.length);
+        return bytes;
+    }
+
+    /**
+     * Opens a column file for writing.
+     * @param dir the directory of the archive
+     * @param name the name of the column file
+     * @return a buffered stream to the file
+     * @throws IOException if the file cannot be created
+     */
+    private static DataOutputStream open(Path dir, String name) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(dir.resolve(name)), 64 * 1024));
+    }
+
+    /**
+     * Gets the dictionary code of a value, adding the value to the dictionary if it is new.
+     * @param value the value to encode
+     * @param codes the codes of the values seen so far
+     * @param dictionary the values in code order
+     * @return the code of the value
+     */
+    private static int encode(String value, Map<String, Integer> codes, List<String> dictionary) {
+        Integer code = codes.get(value);
+        if (code == null) {
+            code = dictionary.size();
+            codes.put(value, code);
+            dictionary.add(value);
+        }
+        return code;
+    }
+
+    /**
+     * Converts an amount of a transaction to a scaled long.
+     * @param amount the amount, or null for zero
+     * @return the amount multiplied by 10^{@value #AMOUNT_SCALE}
+     * @throws ArithmeticException if the amount has more decimal places than the archive keeps or is too large
+     */
+    private static long scale(BigDecimal amount) {
+        if (amount == null) {
+            return 0;
+        }
+        return amount.setScale(AMOUNT_SCALE).unscaledValue().longValueExact();
+    }
+
+    /**
+     * Checks whether a value can be stored in a fixed-width ASCII column.
+     * @param value the value
+     * @param width the width of the column in bytes
+     * @return true if the value is ASCII and fits the column
+     */
+    private static boolean fits(String value, int width) {
+        return value != null && value.length() <= width && StandardCharsets.US_ASCII.newEncoder().canEncode(value);
+    }
+
+    /**
+     * A transaction picked for archiving.
+     */
+    private static class Row {
+
+        /**
+         * The transaction ID.
+         */
+        String id;
+
+        /**
+         * The account ID.
+         */
+        String accountId;
+
+        /**
+         * The transaction type.
+         */
+        String type;
+
+        /**
+         * The timestamp as returned by {@code Transactions.getTimestamp()}.
+         */
+        String timestamp;
+
+        /**
+         * The parsed timestamp.
+         */
+        LocalDateTime time;
+
+        /**
+         * The timestamp in epoch milliseconds, used to order the rows.
+         */
+        long millis;
+
+        /**
+         * The scaled amount in each currency.
+         */
+        final long[] amounts = new long[CURRENCIES.length];
+
+        /**
+         * Reads a transaction for archiving.
+         * @param transaction the transaction
+         * @return the row, or null if the transaction cannot be archived and must stay in the CSV file
+         */
+        static Row of(Transactions transaction) {
+            Row row = new Row();
+            row.id = transaction.getTransactionID();
+            row.accountId = transaction.getAccountID();
+            row.type = String.valueOf(transaction.getType());
+            row.timestamp = transaction.getTimestamp();
+            row.time = TransactionStore.parseTimestamp(row.timestamp);
+            if (row.time == null || row.accountId == null || !fits(row.id, ID_WIDTH)
+                    || !fits(row.timestamp, TIMESTAMP_WIDTH)) {
+                return null;
+            }
+            row.millis = row.time.toInstant(ZoneOffset.UTC).toEpochMilli();
+            Balance amount = transaction.getAmount();
+            if (amount != null) {
+                BigDecimal[] values = { amount.getSGD(), amount.getMYR(), amount.getAUD(), amount.getUSD(),
+                        amount.getGBP() };
+                try {
+                    for (int i = 0; i < CURRENCIES.length; i++) {
+                        row.amounts[i] = scale(values[i]);
+                    }
+                } catch (ArithmeticException e) {
+                    return null;
+                }
+            }
+            return row;
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.sunshine;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The {@code TransactionHistory} class reads the whole transaction history of an account as every history view shows
+ * it: the live transactions indexed by {@link TransactionStore}, followed by the transactions of closed periods that
+ * {@link TransactionArchive} has moved out of the transaction CSV file.
+ * <p>
+ * Archives hold whole closed calendar years and a row is never both live and archived, so the archived rows of an
+ * account are older than its live rows. The two newest-first lists are therefore joined rather than merged.
+ * {@link #page(String, Page, int)} reads the live rows with {@link TransactionStore#page(String, Transactions, int)}
+ * and continues with the archived rows once the live ones run out, so only the rows of the requested page are copied
+ * and the archive is not opened until the live rows have been paged through.
+ * <p>
+ * Usage example:
+ * <pre>
+ * TransactionHistory.Page page = TransactionHistory.page(savings.getAccountID(), null, 10);
+ * if (page.hasMore()) {
+ *     page = TransactionHistory.page(savings.getAccountID(), page, 10);
+ * }
+ * </pre>
+ *
+ * @version 1.0
+ */
+public class TransactionHistory {
+
+    /**
+     * Orders transactions by their timestamp.
+     */
+    static final Comparator<TransactionRecord> BY_TIMESTAMP = Comparator.comparing(TransactionRecord::getTimestamp);
+
+    /**
+     * Gets one page of the live and archived transactions of an account, newest first.
+     * @param accountId the ID of the account
+     * @param previous the page before the requested one, or null for the newest page
+     * @param limit the maximum number of transactions on the page
+     * @return the page
+     * @throws IOException if an archive cannot be opened
+     */
+    public static Page page(String accountId, Page previous, int limit) throws IOException {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Page size must be at least 1: " + limit);
+        }
+        int offset = previous == null ? 0 : previous.offset + previous.rows.size();
+        Transactions liveCursor = previous == null ? null : previous.liveCursor;
+        boolean liveDone = previous != null && previous.liveDone;
+        int archivedIndex = previous == null ? 0 : previous.archivedIndex;
+
+        List<TransactionRecord> rows = new ArrayList<TransactionRecord>(limit);
+        if (!liveDone) {
+            TransactionStore.Page live = TransactionStore.shared().page(accountId, liveCursor, limit);
+            for (Transactions transaction : live.getRows()) {
+                rows.add(of(transaction));
+            }
+            liveCursor = live.getNextCursor();
+            liveDone = !live.hasMore();
+        }
+        if (!liveDone) {
+            return new Page(Collections.unmodifiableList(rows), offset, true, liveCursor, false, 0);
+        }
+        List<ArchivedTransaction> archived = TransactionArchive.history(TransactionArchive.shared(), accountId);
+        while (rows.size() < limit && archivedIndex < archived.size()) {
+            rows.add(archived.get(archivedIndex++));
+        }
+        return new Page(Collections.unmodifiableList(rows), offset, archivedIndex < archived.size(), null, true,
+                archivedIndex);
+    }
+
+    /**
+     * Gets the live and archived transactions of an account with a given transaction type, newest first.
+     * @param accountId the ID of the account
+     * @param type the transaction type, such as "Loan Repayment"
+     * @return an immutable list of the matching transactions, newest first
+     * @throws IOException if an archive cannot be opened
+     */
+    public static List<TransactionRecord> newestFirst(String accountId, String type) throws IOException {
+        List<ArchivedTransaction> archived = new ArrayList<ArchivedTransaction>();
+        for (ArchivedTransaction transaction : TransactionArchive.history(TransactionArchive.shared(), accountId)) {
+            if (type.equals(transaction.getType())) {
+                archived.add(transaction);
+            }
+        }
+        return join(TransactionStore.shared().getNewestFirst(accountId, type), archived);
+    }
+
+    /**
+     * Merges newest-first lists into one newest-first list without sorting.
+     * <p>
+     * The heads of the lists are compared at every step, which costs O(k * m) for k rows in m lists. This is used to
+     * combine the histories of a customer's few accounts.
+     * </p>
+     * @param lists the lists to merge, each newest first
+     * @return an immutable list of all rows, newest first
+     */
+    public static List<TransactionRecord> mergeNewestFirst(List<List<TransactionRecord>> lists) {
+        int total = 0;
+        for (List<TransactionRecord> list : lists) {
+            total += list.size();
+        }
+        TransactionRecord[] merged = new TransactionRecord[total];
+        int[] heads = new int[lists.size()];
+        for (int n = 0; n < total; n++) {
+            int newest = -1;
+            for (int i = 0; i < heads.length; i++) {
+                if (heads[i] < lists.get(i).size() && (newest < 0
+                        || BY_TIMESTAMP.compare(lists.get(i).get(heads[i]), lists.get(newest).get(heads[newest])) > 0)) {
+                    newest = i;
+                }
+            }
+            merged[n] = lists.get(newest).get(heads[newest]++);
+        }
+        return Collections.unmodifiableList(Arrays.asList(merged));
+    }
+
+    /**
+     * Wraps a live transaction so it can be displayed with archived ones.
+     * @param transaction the live transaction
+     * @return the transaction as a record
+     */
+    public static TransactionRecord of(Transactions transaction) {
+        return new TransactionRecord() {
+            @Override
+            public String getTimestamp() {
+                return transaction.getTimestamp();
+            }
+
+            @Override
+            public String getTransactionID() {
+                return transaction.getTransactionID();
+            }
+
+            @Override
+            public String getAccountID() {
+                return transaction.getAccountID();
+            }
+
+            @Override
+            public String getType() {
+                return transaction.getType();
+            }
+
+            @Override
+            public Balance getAmount() {
+                return transaction.getAmount();
+            }
+        };
+    }
+
+    /**
+     * Joins newest-first live transactions and the older archived transactions into one read-only view. A live
+     * transaction is only wrapped when it is read.
+     * @param live the live transactions, newest first
+     * @param archived the archived transactions, newest first
+     * @return the live transactions followed by the archived ones
+     */
+    private static List<TransactionRecord> join(List<Transactions> live, List<ArchivedTransaction> archived) {
+        return new AbstractList<TransactionRecord>() {
+            @Override
+            public TransactionRecord get(int index) {
+                return index < live.size() ? of(live.get(index)) : archived.get(index - live.size());
+            }
+
+            @Override
+            public int size() {
+                return live.size() + archived.size();
+            }
+        };
+    }
+
+    /**
+     * One page of an account's live and archived transactions, newest first.
+     */
+    public static class Page {
+
+        /**
+         * The transactions on the page, newest first.
+         */
+        private final List<TransactionRecord> rows;
+
+        /**
+         * The number of newer transactions on the pages before this one.
+         */
+        private final int offset;
+
+        /**
+         * True if there are older transactions after this page.
+         */
+        private final boolean hasMore;
+
+        /**
+         * The last live transaction of this page, where the live rows of the next page start.
+         */
+        private final Transactions liveCursor;
+
+        /**
+         * True once every live transaction has been paged through.
+         */
+        private final boolean liveDone;
+
+        /**
+         * The position of the first archived transaction of the next page.
+         */
+        private final int archivedIndex;
+
+        /**
+         * Constructs a new Page.
+         * @param rows the transactions on the page, newest first
+         * @param offset the number of newer transactions on the pages before this one
+         * @param hasMore true if there are older transactions after this page
+         * @param liveCursor the last live transaction of this page
+         * @param liveDone true once every live transaction has been paged through
+         * @param archivedIndex the position of the first archived transaction of the next page
+         */
+        Page(List<TransactionRecord> rows, int offset, boolean hasMore, Transactions liveCursor, boolean liveDone,
+                int archivedIndex) {
+            this.rows = rows;
+            this.offset = offset;
+            this.hasMore = hasMore;
+            this.liveCursor = liveCursor;
+            this.liveDone = liveDone;
+            this.archivedIndex = archivedIndex;
+        }
+
+        /**
+         * Gets the transactions on the page.
+         * @return an immutable list of the transactions, newest first
+         */
+        public List<TransactionRecord> getRows() {
+            return rows;
+        }
+
+        /**
+         * Gets the number of newer transactions on the pages before this one, which is the zero-based position of the
+         * first row of this page in the whole history.
+         * @return the number of transactions before this page
+         */
+        public int getOffset() {
+            return offset;
+        }
+
+        /**
+         * Checks whether there are older transactions after this page.
+         * @return true if there is a next page
+         */
+        public boolean hasMore() {
+            return hasMore;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.sunshine;
+
+/**
+ * The {@code TransactionRecord} interface is a transaction as the transaction history views display it, whether it
+ * is still held by {@code Transactions} or has been moved to a {@link TransactionArchive}.
+ * <p>
+ * The getters are those of {@code Transactions}, so a live transaction is shown through
+ * {@link TransactionHistory#of(Transactions)} and an {@link ArchivedTransaction} is shown as it is.
+ *
+ * @version 1.0
+ */
+public interface TransactionRecord {
+
+    /**
+     * Gets the timestamp of the transaction.
+     * @return the timestamp, in the same format as in the transaction CSV file
+     */
+    String getTimestamp();
+
+    /**
+     * Gets the transaction ID.
+     * @return the transaction ID
+     */
+    String getTransactionID();
+
+    /**
+     * Gets the ID of the account of the transaction.
+     * @return the account ID
+     */
+    String getAccountID();
+
+    /**
+     * Gets the type of the transaction.
+     * @return the transaction type, such as "Deposit"
+     */
+    String getType();
+
+    /**
+     * Gets the amounts of the transaction.
+     * @return the amount of the transaction in each currency
+     */
+    Balance getAmount();
+}
@@ -0,0 +1,401 @@
+package com.sunshine;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The {@code TransactionStore} class indexes transactions by account ID and by transaction type, so that the
+ * transaction history views only touch the rows they display.
+ * <p>
+ * Every account has its postings kept in timestamp order, together with one list per transaction type. The store
+ * indexes every row of {@code Transactions.getAllTransactions()} the first time it is read. After that, the code that
+ * moves money calls {@link #postNew()}, which indexes just the rows appended since the last call, so n new rows cost
+ * O(n) and reading a history never touches the rows of other accounts. Rows removed from
+ * {@code Transactions.getAllTransactions()}, as {@link TransactionArchive} does, must be followed by a call to
+ * {@link #invalidate()}, so the store is indexed again from scratch on its next read.
+ * <p>
+ * Lookups return immutable snapshots with the newest transaction first. A snapshot is built by walking the
+ * time-ordered postings backwards, so no sorting is needed, and it is cached until the account receives a new posting,
+ * so showing the same history again costs O(1). Readers can never reorder or modify the indexed postings, and a
+ * snapshot they hold does not change when new postings arrive.
+ * <p>
+ * Long histories can be read one page at a time with {@link #page(String, Transactions, int)}. The cursor is the last
+ * transaction of the previous page, and only the rows of the requested page are copied, at a cost of
+ * O(log n + limit).
+ * <p>
+ * Usage example:
+ * <pre>
+ * savings.deposit(amount, "Deposit");
+ * TransactionStore store = TransactionStore.shared();
+ * store.postNew();
+ * List&lt;Transactions&gt; repayments = store.getNewestFirst(savings.getAccountID(), "Loan Repayment");
+ * </pre>
+ *
+ * @version 1.0
+ */
+public class TransactionStore {
+
+    /**
+     * Orders transactions by their timestamp.
+     */
+    static final Comparator<Transactions> BY_TIMESTAMP = Comparator.comparing(Transactions::getTimestamp);
+
+    /**
+     * Reads transaction timestamps such as {@code 2024-01-31 13:45:10.123} or {@code 2024-01-31T13:45:10.123}, with or
+     * without seconds and fractions of a second.
+     */
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = new DateTimeFormatterBuilder()
+            .append(DateTimeFormatter.ISO_LOCAL_DATE)
+            .optionalStart().appendLiteral('T').optionalEnd()
+            .optionalStart().appendLiteral(' ').optionalEnd()
+            .append(DateTimeFormatter.ISO_LOCAL_TIME)
+            .toFormatter();
+
+    /**
+     * The shared store.
+     */
+    private static final TransactionStore shared = new TransactionStore();
+
+    /**
+     * The postings of each account, keyed by account ID.
+     */
+    private final ConcurrentHashMap<String, Postings> byAccount = new ConcurrentHashMap<String, Postings>();
+
+    /**
+     * The number of rows of {@code Transactions.getAllTransactions()} indexed so far, or -1 if the store has not been
+     * indexed since it was created or invalidated.
+     */
+    private int posted = -1;
+
+    /**
+     * Gets the shared store.
+     * @return the shared store
+     */
+    public static TransactionStore shared() {
+        return shared;
+    }
+
+    /**
+     * Indexes the transactions recorded since the last call. Called after every operation that may have recorded
+     * transactions, whether or not it succeeded.
+     */
+    public synchronized void postNew() {
+        List<Transactions> all = Transactions.getAllTransactions();
+        if (posted < 0 || all.size() < posted) {
+            byAccount.clear(); // Not indexed yet, or rows were removed without an invalidate
+            posted = 0;
+        }
+        for (int i = posted; i < all.size(); i++) {
+            Transactions transaction = all.get(i);
+            Postings postings = byAccount.computeIfAbsent(transaction.getAccountID(), id -> new Postings());
+            synchronized (postings) {
+                postings.add(transaction);
+            }
+        }
+        posted = all.size();
+    }
+
+    /**
+     * Drops the whole index, so it is built again from {@code Transactions.getAllTransactions()} on the next read.
+     * Called after rows have been removed, for example by the transaction archive.
+     */
+    public synchronized void invalidate() {
+        byAccount.clear();
+        posted = -1;
+    }
+
+    /**
+     * Gets all indexed postings of an account, newest first.
+     * @param accountId the ID of the account
+     * @return an immutable snapshot of the postings of the account, newest first, empty if it has none
+     */
+    public List<Transactions> getNewestFirst(String accountId) {
+        Postings postings = postingsOf(accountId);
+        if (postings == null) {
+            return Collections.emptyList();
+        }
+        synchronized (postings) {
+            if (postings.allNewestFirst == null) {
+                postings.allNewestFirst = reversedSnapshot(postings.all);
+            }
+            return postings.allNewestFirst;
+        }
+    }
+
+    /**
+     * Gets the indexed postings of an account with a given transaction type, newest first.
+     * @param accountId the ID of the account
+     * @param type the transaction type, such as "Loan Repayment"
+     * @return an immutable snapshot of the matching postings, newest first, empty if there are none
+     */
+    public List<Transactions> getNewestFirst(String accountId, String type) {
+        Postings postings = postingsOf(accountId);
+        if (postings == null) {
+            return Collections.emptyList();
+        }
+        synchronized (postings) {
+            List<Transactions> ofType = postings.byType.get(type);
+            if (ofType == null) {
+                return Collections.emptyList();
+            }
+            return postings.byTypeNewestFirst.computeIfAbsent(type, key -> reversedSnapshot(ofType));
+        }
+    }
+
+    /**
+     * Gets one page of the indexed postings of an account, newest first.
+     * <p>
+     * The first page is requested with a null cursor. Each following page is requested with the
+     * {@link Page#getNextCursor() next cursor} of the page before it. The cursor is a transaction rather than a
+     * timestamp, so transactions that share a timestamp are never skipped or repeated between pages.
+     * </p>
+     * @param accountId the ID of the account
+     * @param before the last transaction of the previous page, or null for the newest page
+     * @param limit the maximum number of transactions on the page
+     * @return the page, which is empty if the account has no postings or the cursor is not one of them
+     */
+    public Page page(String accountId, Transactions before, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Page size must be at least 1: " + limit);
+        }
+        Postings postings = postingsOf(accountId);
+        if (postings == null) {
+            return new Page(Collections.<Transactions>emptyList(), 0, false);
+        }
+        synchronized (postings) {
+            List<Transactions> all = postings.all;
+            int end = before == null ? all.size() : indexOf(all, before);
+            if (end < 0) {
+                return new Page(Collections.<Transactions>emptyList(), 0, false);
+            }
+            int start = Math.max(0, end - limit);
+            Transactions[] rows = new Transactions[end - start];
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = all.get(end - 1 - i);
+            }
+            return new Page(Collections.unmodifiableList(Arrays.asList(rows)), all.size() - end, start > 0);
+        }
+    }
+
+    /**
+     * Gets the postings of an account, indexing every transaction first if the store has not been read since it was
+     * created or invalidated.
+     * @param accountId the ID of the account
+     * @return the postings, or null if the account has none
+     */
+    private Postings postingsOf(String accountId) {
+        synchronized (this) {
+            if (posted < 0) {
+                postNew();
+            }
+        }
+        return byAccount.get(accountId);
+    }
+
+    /**
+     * Parses the timestamp of a transaction.
+     * @param timestamp the timestamp as returned by {@code Transactions.getTimestamp()}
+     * @return the timestamp, or null if it is missing or not in a recognized format
+     */
+    static LocalDateTime parseTimestamp(String timestamp) {
+        if (timestamp == null) {
+            return null;
+        }
+        try {
+            return LocalDateTime.parse(timestamp.trim(), TIMESTAMP_FORMAT);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Checks whether two history entries are the same transaction.
+     * @param a a transaction
+     * @param b another transaction, or null
+     * @return true if both are the same object or have the same transaction ID
+     */
+    private static boolean sameTransaction(Transactions a, Transactions b) {
+        if (a == b) {
+            return true;
+        }
+        return b != null && a.getTransactionID() != null && a.getTransactionID().equals(b.getTransactionID());
+    }
+
+    /**
+     * Finds a transaction in a list kept in timestamp order.
+     * @param list the list in timestamp order
+     * @param transaction the transaction to find
+     * @return the index of the transaction, or -1 if it is not in the list
+     */
+    private static int indexOf(List<Transactions> list, Transactions transaction) {
+        int index = Collections.binarySearch(list, transaction, BY_TIMESTAMP);
+        if (index < 0) {
+            return -1;
+        }
+        // Step back to the first transaction with the same timestamp, then look for the transaction itself
+        while (index > 0 && BY_TIMESTAMP.compare(list.get(index - 1), transaction) == 0) {
+            index--;
+        }
+        for (; index < list.size() && BY_TIMESTAMP.compare(list.get(index), transaction) == 0; index++) {
+            if (sameTransaction(list.get(index), transaction)) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Copies a time-ordered list into an immutable list with the newest transaction first.
+     * @param list the list in timestamp order
+     * @return an immutable reversed copy of the list
+     */
+    private static List<Transactions> reversedSnapshot(List<Transactions> list) {
+        int size = list.size();
+        Transactions[] reversed = new Transactions[size];
+        for (int i = 0; i < size; i++) {
+            reversed[i] = list.get(size - 1 - i);
+        }
+        return Collections.unmodifiableList(Arrays.asList(reversed));
+    }
+
+    /**
+     * Inserts a transaction into a list kept in timestamp order.
+     * <p>
+     * Transactions are almost always recorded in time order, so the position is searched from the end of the list
+     * and the usual case is a plain append.
+     * </p>
+     * @param list the list to insert into
+     * @param transaction the transaction to insert
+     */
+    private static void insertInOrder(List<Transactions> list, Transactions transaction) {
+        int size = list.size();
+        if (size == 0 || BY_TIMESTAMP.compare(list.get(size - 1), transaction) <= 0) {
+            list.add(transaction);
+            return;
+        }
+        int index = Collections.binarySearch(list, transaction, BY_TIMESTAMP);
+        if (index < 0) {
+            index = -index - 1;
+        } else {
+            // Keep transactions with equal timestamps in the order they were recorded
+            while (index < size && BY_TIMESTAMP.compare(list.get(index), transaction) == 0) {
+                index++;
+            }
+        }
+        list.add(index, transaction);
+    }
+
+    /**
+     * One page of an account's postings, newest first.
+     */
+    public static class Page {
+
+        /**
+         * The transactions on the page, newest first.
+         */
+        private final List<Transactions> rows;
+
+        /**
+         * The number of newer transactions on the pages before this one.
+         */
+        private final int offset;
+
+        /**
+         * True if there are older transactions after this page.
+         */
+        private final boolean hasMore;
+
+        /**
+         * Constructs a new Page.
+         * @param rows the transactions on the page, newest first
+         * @param offset the number of newer transactions on the pages before this one
+         * @param hasMore true if there are older transactions after this page
+         */
+        Page(List<Transactions> rows, int offset, boolean hasMore) {
+            this.rows = rows;
+            this.offset = offset;
+            this.hasMore = hasMore;
+        }
+
+        /**
+         * Gets the transactions on the page.
+         * @return an immutable list of the transactions, newest first
+         */
+        public List<Transactions> getRows() {
+            return rows;
+        }
+
+        /**
+         * Gets the number of newer transactions on the pages before this one, which is the zero-based position of the
+         * first row of this page in the whole history.
+         * @return the number of transactions before this page
+         */
+        public int getOffset() {
+            return offset;
+        }
+
+        /**
+         * Checks whether there are older transactions after this page.
+         * @return true if there is a next page
+         */
+        public boolean hasMore() {
+            return hasMore;
+        }
+
+        /**
+         * Gets the cursor for the next page.
+         * @return the last transaction of this page, or null if the page is empty
+         */
+        public Transactions getNextCursor() {
+            return rows.isEmpty() ? null : rows.get(rows.size() - 1);
+        }
+    }
+
+    /**
+     * The indexed postings of one account.
+     */
+    private static class Postings {
+
+        /**
+         * All postings in timestamp order.
+         */
+        final List<Transactions> all = new ArrayList<Transactions>();
+
+        /**
+         * The postings of each transaction type in timestamp order.
+         */
+        final Map<String, List<Transactions>> byType = new HashMap<String, List<Transactions>>();
+
+        /**
+         * The cached newest-first snapshot of all postings, or null if it has to be rebuilt.
+         */
+        List<Transactions> allNewestFirst;
+
+        /**
+         * The cached newest-first snapshots of the postings of each type.
+         */
+        final Map<String, List<Transactions>> byTypeNewestFirst = new HashMap<String, List<Transactions>>();
+
+        /**
+         * Indexes a posting.
+         * @param transaction the posting to index
+         */
+        void add(Transactions transaction) {
+            allNewestFirst = null;
+            byTypeNewestFirst.remove(transaction.getType());
+            insertInOrder(all, transaction);
+            insertInOrder(byType.computeIfAbsent(transaction.getType(), type -> new ArrayList<Transactions>()),
+                    transaction);
+        }
+    }
+}
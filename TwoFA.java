@@ -1,19 +1,16 @@
 package com.sunshine;
 
-import org.jboss.aerogear.security.otp.Totp;
 import com.google.zxing.BarcodeFormat;
 import com.google.zxing.WriterException;
 import com.google.zxing.qrcode.QRCodeWriter;
 import com.google.zxing.common.BitMatrix;
 import com.google.zxing.client.j2se.MatrixToImageWriter;
 import java.awt.image.BufferedImage;
-import java.io.File;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
-import javax.imageio.ImageIO;
-import java.awt.*;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 
 /**
  * The {@code TwoFA} class extends the {@code Security} class to specifically handle two-factor authentication (2FA) features.
@@ -23,8 +20,7 @@ import java.nio.charset.StandardCharsets;
  * A {@code TwoFA} object encapsulates all information required for 2FA including the issuer of the 2FA, a username which is a unique
  * identifier within the context of the 2FA issuer, and a secret key which is a unique base32-encoded string used in generating TOTPs.
  * <p>
- * This class also provides utility functions such as resizing images and converting them to ASCII representations,
- * which could be useful for various presentation or logging purposes.
+ * QR codes are rendered for the console by {@code QrRenderer}, straight from the encoded QR code matrix.
  * <p>
  * Usage example:
  * <pre>
@@ -35,8 +31,8 @@ import java.nio.charset.StandardCharsets;
  * twoFA.enableTwoFactorForAccount();
  * </pre>
  * 
- * Note: This class assumes the presence of a {@code Totp}, {@code QRCodeWriter}, and {@code MatrixToImageWriter} class or library for handling TOTP verification
- * and QR code generation.
+ * Note: This class assumes the presence of a {@code QRCodeWriter} and {@code MatrixToImageWriter} class or library for QR code generation.
+ * TOTP verification is done by {@code TotpVerifier}, which computes the same codes as the {@code Totp} class of the aerogear library.
  * 
  * @author Mark and Dong Han
  * @version 1.0
@@ -85,17 +81,45 @@ public class TwoFA extends Security{
     /**
      * Verifies a user-inputted TOTP (Time-based One-Time Password) code against the secret key.
      * <p>
-     * This method creates a new Totp object using the secret key and attempts to verify the user-inputted code.
-     * If the code is valid, it returns true. If the code is invalid or not a number, it returns false.
+     * This method gets the cached TotpVerifier for the user's secret key from the shared TotpVerifierCache, creating
+     * it on first use, and attempts to verify the user-inputted code.
+     * If the code is valid, it returns true. If the code is invalid or not a number, or 2FA is not enabled, it returns false.
      * </p>
      * @param userInputCode the TOTP code inputted by the user
      * @return true if the code is valid, false otherwise
      */
     public boolean verifyCode(String userInputCode) {
-        Totp totp = new Totp(this.secretKey);
+        String secretKey = this.getSecretKey();
+        if (secretKey == null) {
+            return false;
+        }
         try {
-            return totp.verify(userInputCode);
-        } catch (NumberFormatException e) {
+            return TotpVerifierCache.shared().verifierFor(this.username, secretKey).verify(userInputCode);
+        } catch (IllegalArgumentException e) {
+            // Also covers NumberFormatException for non-numeric codes
+            return false;
+        }
+    }
+
+    /**
+     * Verifies a user-inputted TOTP code and marks it as used, so that the same code cannot be used again.
+     * <p>
+     * The code is checked against the time steps within the drift window of the shared TotpReplayGuard. It is only
+     * accepted if its time step is later than the last accepted step for this user.
+     * </p>
+     * @param userInputCode the TOTP code inputted by the user
+     * @return true if the code is valid and has not been used before, false otherwise
+     */
+    public boolean verifyCodeOnce(String userInputCode) {
+        String secretKey = this.getSecretKey();
+        if (secretKey == null) {
+            return false;
+        }
+        try {
+            TotpVerifier verifier = TotpVerifierCache.shared().verifierFor(this.username, secretKey);
+            return TotpReplayGuard.shared().verify(this.username, verifier, userInputCode);
+        } catch (IllegalArgumentException e) {
+            // Also covers NumberFormatException for non-numeric codes
             return false;
         }
     }
@@ -123,12 +147,13 @@ public class TwoFA extends Security{
      * Enables two-factor authentication for the customer.
      * <p>
      * This method generates a secret key if one does not already exist for the account.
-     * It then creates a new Security object with the issuer, username, and secret key, and adds it to the list of all Security objects.
+     * It then creates a new Security object with the issuer, username, and secret key, and adds it to the registry of all Security objects.
      * A Time-based One-Time Password (TOTP) URI is generated using the account details and the secret key.
-     * A QR code image is generated from the TOTP URI and saved under the resources/QRCodes directory.
-     * The QR code image is then resized and converted to ASCII, which is printed to the console.
+     * A QR code is encoded from the TOTP URI and printed to the console as block characters.
+     * Unless disabled with the {@code sunshine.qr.writeFiles} system property, a PNG copy is also saved under the
+     * resources/QRCodes directory in the background.
      * </p>
-     * @throws IOException if an error occurs while writing the QR code image to a file.
+     * @throws IOException if an error occurs while journaling the new secret key.
      */
     public void enableTwoFactorForAccount() throws IOException {
 
@@ -144,113 +169,31 @@ public class TwoFA extends Security{
         } else {
             existingSecurity.setSecretKey(this.getSecretKey());
         }
-        Customer.saveArrayListToCSV();
+        CustomerJournal.shared().recordSecretKey(this.username, this.getSecretKey());
 
 
         // Generate the TOTP URI using the details of the user's account and the secret key
         String totpUri = generateTOTPURI(existingSecurity);
 
-        // Generate the QR code image
-        BufferedImage qrCodeImage = null;
+        // Render the QR code straight from the matrix, one module per block character pair
+        BitMatrix qrMatrix;
         try {
-            qrCodeImage = generateQRCodeImage(totpUri, 200, 200);
+            qrMatrix = QrRenderer.encode(totpUri, 0, 0);
         } catch (WriterException e) {
             e.printStackTrace();
+            return;
         }
-
-        // Output the QR code image to a file, or display it on your UI
-        File outputFile = new File("./resources/QRCodes/"+this.username+".png");
-        try {
-            ImageIO.write(qrCodeImage, "png", outputFile);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        // Display or provide the QR code to the user by your preferred method
-        try {
-            File imageFile = new File(outputFile.getPath());
-
-            if (imageFile.exists()) {
-                BufferedImage originalImage = ImageIO.read(imageFile);
-
-                // Resize the image (adjust the width and height as needed)
-                BufferedImage resizedImage = resizeImage(originalImage, originalImage.getWidth() / 4, originalImage.getHeight() / 4);
-                BufferedImage newresizedImage = resizeImage(resizedImage, 100, 50);
-
-                // Convert to ASCII
-                String asciiArt = convertToAscii(newresizedImage);
-
-                System.out.println(asciiArt);
-            } else {
-                System.out.println("Image file not found");
-}
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
-    /**
-     * Resizes an image to the specified width and height.
-     * <p>
-     * This method creates a new BufferedImage of the target size and type INT_RGB.
-     * It then creates a Graphics2D object from the resized image and draws the original image onto it.
-     * The original image is scaled to fit the target size.
-     * The Graphics2D object is then disposed to free up system resources.
-     * </p>
-     * @param originalImage the original image to resize
-     * @param targetWidth the target width
-     * @param targetHeight the target height
-     * @return a new BufferedImage that is a resized version of the original image
-     */
-    private static BufferedImage resizeImage(BufferedImage originalImage, int targetWidth, int targetHeight) {
-        BufferedImage resizedImage = new BufferedImage(targetWidth, targetHeight, BufferedImage.TYPE_INT_RGB);
-        Graphics2D graphics2D = resizedImage.createGraphics();
-        
-        // Draw the original image to the resized image
-        graphics2D.drawImage(originalImage, 0, 0, targetWidth, targetHeight, null);
-        graphics2D.dispose();
-        
-        return resizedImage;
-    }
-
-    /**
-     * Converts an image to ASCII art.
-     * <p>
-     * This method iterates over each pixel in the image. For each pixel, it calculates the brightness
-     * by converting the color to grayscale. It then maps the brightness to an ASCII character
-     * ('█' for dark pixels, ' ' for light pixels). The ASCII characters are appended to a StringBuilder
-     * to create the ASCII art. Each row of pixels is followed by a newline character.
-     * </p>
-     * @param image the image to convert to ASCII art
-     * @return a String representing the ASCII art
-     */
-    private static String convertToAscii(BufferedImage image) {
-        StringBuilder asciiArtStr = new StringBuilder();
-        
-        for (int y = 0; y < image.getHeight(); y++) {
-            for (int x = 0; x < image.getWidth(); x++) {
-                // Get pixel color
-                int color = image.getRGB(x, y);
-                // Convert the color to grayscale (brightness)
-                int brightness = (color >> 16 & 0xff) + (color >> 8 & 0xff) + (color & 0xff) / 3;
-                // Map brightness to block character or space
-                char asciiChar = brightness < 128 ? '█' : ' ';
-                asciiArtStr.append(asciiChar);
-            }
-            asciiArtStr.append("\n");
-        }
-        
-        return asciiArtStr.toString();
-    }
-
-    // get Security object by username
-    public static Security getSecurityByUsername(String username){
-        for (Security sec : allSecurity){
-            if (sec.getUsername().equals(username)){
-                return sec;
+        System.out.println(QrRenderer.toTerminal(qrMatrix));
+
+        // Optionally save a copy of the QR code image in the background
+        if (QrRenderer.isFileWriteEnabled()) {
+            try {
+                BitMatrix imageMatrix = QrRenderer.encode(totpUri, 200, 200);
+                QrRenderer.writePngAsync(imageMatrix, Paths.get("./resources/QRCodes/" + this.username + ".png"));
+            } catch (WriterException e) {
+                e.printStackTrace();
             }
         }
-        return null;
     }
 
 }
\ No newline at end of file
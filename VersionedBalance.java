@@ -0,0 +1,504 @@
+package com.sunshine;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ConcurrentModificationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+
+/**
+ * The {@code VersionedBalance} class holds the balance of one savings or FX account as a versioned, immutable
+ * snapshot that is replaced by compare-and-set.
+ * <p>
+ * Every change reads the current {@link Snapshot}, computes a new one with the next version number and installs it
+ * only if no other thread installed a snapshot in the meantime. A thread that loses the race waits as told by the
+ * {@link BackoffPolicy} and tries again with the newer snapshot. Readers, such as the menus that print balances, call
+ * {@link #snapshot()} and get all five currencies as of one version without taking any lock.
+ * <p>
+ * Debits check the funds against the snapshot they replace, so two concurrent withdrawals can never both spend the
+ * same money, and they give up with a {@link ConcurrentModificationException} once the policy runs out of attempts.
+ * Credits never give up, because a transfer has already taken the money from the other account by the time it
+ * credits the target.
+ * <p>
+ * The {@link Balance} of the {@link Savings} or {@link FX} account still records the balance for the rest of the
+ * program and is what the account saves to its CSV file. A change that moves money runs inside
+ * {@link #atomically(LegacyChange)}: it changes the snapshot, applies the same change to the account as before, and
+ * calls {@link #publishTo(Balance)}, which copies the newest snapshot into the Balance. If the account's own method
+ * throws, the change is undone with a credit of the opposite amount before publishing, so the snapshot never keeps a
+ * change the account did not make.
+ * <p>
+ * Code that changes the Balance without going through a snapshot, such as loan repayments, runs through
+ * {@link #applyLegacyChange(Balance, LegacyChange)}. The Balance is brought up to date from the snapshot first, so
+ * the code checks its funds against every debit already taken, and what the code changed is then added to the
+ * snapshot as a difference.
+ * <p>
+ * Both kinds of change, and publishing, hold one lock. Otherwise a legacy change could run after a debit of the
+ * snapshot but before the account method that repeats it lowered the Balance, and spend the same money again. The
+ * account methods save to CSV files that are shared by every account anyway, so the lock costs little. Readers still
+ * take no lock. As a last guard, a change that would take a currency below zero is refused with an
+ * {@link IllegalStateException} instead of being installed.
+ * <p>
+ * Usage example:
+ * <pre>
+ * VersionedBalance cell = VersionedBalance.forSavings(savings);
+ * boolean withdrawn = VersionedBalance.atomically(() -&gt; {
+ *     if (cell.debit("SGD", amount) == null) {
+ *         return false;
+ *     }
+ *     try {
+ *         savings.withdraw(amount, "Withdraw");
+ *     } catch (IOException e) {
+ *         cell.credit("SGD", amount); // Put the money back
+ *         throw e;
+ *     } finally {
+ *         cell.publishTo(savings.getBalance());
+ *     }
+ *     return true;
+ * });
+ * </pre>
+ *
+ * @version 1.0
+ */
+public class VersionedBalance {
+
+    /**
+     * The currencies of a snapshot, in the order they are stored.
+     */
+    public static final String[] CURRENCIES = { "SGD", "MYR", "AUD", "USD", "GBP" };
+
+    /**
+     * The balances of the accounts seen so far, keyed by account ID.
+     */
+    private static final ConcurrentHashMap<String, VersionedBalance> cells =
+            new ConcurrentHashMap<String, VersionedBalance>();
+
+    /**
+     * The number of compare-and-sets that failed and were retried, across all accounts.
+     */
+    private static final LongAdder retries = new LongAdder();
+
+    /**
+     * The number of debits that gave up after the last attempt, across all accounts.
+     */
+    private static final LongAdder exhausted = new LongAdder();
+
+    /**
+     * The lock held while a Balance of any account is written.
+     */
+    private static final Object legacyLock = new Object();
+
+    /**
+     * The current snapshot.
+     */
+    private final AtomicReference<Snapshot> current;
+
+    /**
+     * The policy for retrying failed compare-and-sets.
+     */
+    private final BackoffPolicy policy;
+
+    /**
+     * Constructs a new VersionedBalance starting from the amounts of a Balance.
+     * @param seed the balance to start from
+     * @param policy the policy for retrying failed compare-and-sets
+     */
+    public VersionedBalance(Balance seed, BackoffPolicy policy) {
+        this.current = new AtomicReference<Snapshot>(Snapshot.of(0, seed));
+        this.policy = policy;
+    }
+
+    /**
+     * Gets the balance of a savings account, starting it from the account's Balance on first use.
+     * @param savings the savings account
+     * @return the balance of the account
+     */
+    public static VersionedBalance forSavings(Savings savings) {
+        return cells.computeIfAbsent(savings.getAccountID(),
+                id -> new VersionedBalance(savings.getBalance(), BackoffPolicy.shared()));
+    }
+
+    /**
+     * Gets the balance of an FX account, starting it from the account's Balance on first use.
+     * @param fx the FX account
+     * @return the balance of the account
+     */
+    public static VersionedBalance forFX(FX fx) {
+        return cells.computeIfAbsent(fx.getAccountID(),
+                id -> new VersionedBalance(fx.getAmount(), BackoffPolicy.shared()));
+    }
+
+    /**
+     * Forgets the balance of an account, so that it is started again from the account's Balance on next use.
+     * @param accountId the ID of the account
+     */
+    public static void remove(String accountId) {
+        cells.remove(accountId);
+    }
+
+    /**
+     * Gets the number of compare-and-sets that failed and were retried.
+     * @return the number of retries
+     */
+    public static long getRetryCount() {
+        return retries.sum();
+    }
+
+    /**
+     * Gets the number of debits that gave up after the last attempt.
+     * @return the number of debits that gave up
+     */
+    public static long getExhaustedCount() {
+        return exhausted.sum();
+    }
+
+    /**
+     * Gets the current snapshot without taking any lock.
+     * @return the current snapshot
+     */
+    public Snapshot snapshot() {
+        return current.get();
+    }
+
+    /**
+     * Installs a snapshot if the current one is still the expected one.
+     * @param expected the snapshot the update was computed from
+     * @param update the new snapshot
+     * @return true if the new snapshot was installed
+     */
+    public boolean compareAndSet(Snapshot expected, Snapshot update) {
+        return current.compareAndSet(expected, update);
+    }
+
+    /**
+     * Applies a change, retrying with the newer snapshot whenever another thread got there first.
+     * @param change computes the new snapshot from the current one, or returns null to reject the change
+     * @return the installed snapshot, or null if the change was rejected
+     * @throws ConcurrentModificationException if the change lost the race more times than the policy allows
+     */
+    public Snapshot update(UnaryOperator<Snapshot> change) {
+        for (int attempt = 1; ; attempt++) {
+            Snapshot expected = current.get();
+            Snapshot update = change.apply(expected);
+            if (update == null || current.compareAndSet(expected, update)) {
+                return update;
+            }
+            retries.increment();
+            if (!policy.backoff(attempt)) {
+                exhausted.increment();
+                throw new ConcurrentModificationException("Balance kept changing after " + attempt + " attempts");
+            }
+        }
+    }
+
+    /**
+     * Adds an amount to one currency. Credits cannot be rejected, so they retry until they succeed.
+     * <p>
+     * A negative amount takes money back out, which is how a deposit whose legacy update failed is undone. It is
+     * refused if it would take the currency below zero.
+     * </p>
+     * @param currency the currency, such as "SGD"
+     * @param amount the amount to add
+     * @return the installed snapshot
+     * @throws IllegalStateException if a negative amount would take the currency below zero
+     */
+    public Snapshot credit(String currency, BigDecimal amount) {
+        BigDecimal[] deltas = new BigDecimal[CURRENCIES.length];
+        deltas[indexOf(currency)] = amount;
+        return add(deltas);
+    }
+
+    /**
+     * Adds an amount of money to its currency.
+     * @param amount the amount to add; a negative amount takes money back out
+     * @return the installed snapshot
+     * @throws IllegalStateException if a negative amount would take the currency below zero
+     */
+    public Snapshot credit(Money amount) {
+        return credit(amount.getCurrency(), amount.toBigDecimal());
+    }
+
+    /**
+     * Takes an amount of money from its currency if the funds are sufficient.
+     * @param amount the amount to take
+     * @return the installed snapshot, or null if the funds were insufficient
+     * @throws ConcurrentModificationException if the debit lost the race more times than the policy allows
+     */
+    public Snapshot debit(Money amount) {
+        return debit(amount.getCurrency(), amount.toBigDecimal());
+    }
+
+    /**
+     * Takes an amount from one currency if the funds are sufficient.
+     * @param currency the currency, such as "SGD"
+     * @param amount the amount to take
+     * @return the installed snapshot, or null if the funds were insufficient
+     * @throws ConcurrentModificationException if the debit lost the race more times than the policy allows
+     */
+    public Snapshot debit(String currency, BigDecimal amount) {
+        int index = indexOf(currency);
+        return update(s -> s.amounts[index].compareTo(amount) < 0 ? null
+                : s.with(index, s.amounts[index].subtract(amount)));
+    }
+
+    /**
+     * Takes an amount from one currency and adds another amount to a second currency as one change.
+     * @param fromCurrency the currency to take from
+     * @param debit the amount to take
+     * @param toCurrency the currency to add to
+     * @param credit the amount to add
+     * @return the installed snapshot, or null if the funds were insufficient
+     * @throws ConcurrentModificationException if the change lost the race more times than the policy allows
+     */
+    public Snapshot convert(String fromCurrency, BigDecimal debit, String toCurrency, BigDecimal credit) {
+        int from = indexOf(fromCurrency);
+        int to = indexOf(toCurrency);
+        return update(s -> {
+            if (s.amounts[from].compareTo(debit) < 0) {
+                return null;
+            }
+            BigDecimal[] amounts = s.amounts.clone();
+            amounts[from] = amounts[from].subtract(debit);
+            amounts[to] = amounts[to].add(credit);
+            return new Snapshot(s.version + 1, amounts);
+        });
+    }
+
+    /**
+     * Runs code that changes a Balance without going through this class, such as a loan repayment, and adds what it
+     * changed to the snapshot.
+     * <p>
+     * The Balance is first set to the snapshot, so the code checks its funds against the money that is really there.
+     * Whatever the code changed in the Balance is then added to the snapshot as a difference, even if the code throws
+     * afterwards. A difference that would take a currency below zero is refused. Either way the Balance is published
+     * from the snapshot at the end. No other change of any balance runs at the same time.
+     * </p>
+     * @param legacy the balance the code changes
+     * @param change the code that changes the balance
+     * @param <T> the type of the result of the code
+     * @return the result of the code
+     * @throws IOException if the code throws an IOException
+     * @throws IllegalStateException if the code took more money than the snapshot holds
+     */
+    public <T> T applyLegacyChange(Balance legacy, LegacyChange<T> change) throws IOException {
+        synchronized (legacyLock) {
+            publishTo(legacy);
+            Snapshot before = Snapshot.of(0, legacy);
+            try {
+                return change.apply();
+            } finally {
+                Snapshot after = Snapshot.of(0, legacy);
+                BigDecimal[] deltas = new BigDecimal[CURRENCIES.length];
+                for (int i = 0; i < deltas.length; i++) {
+                    deltas[i] = after.amounts[i].subtract(before.amounts[i]);
+                }
+                try {
+                    add(deltas);
+                } finally {
+                    publishTo(legacy);
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs a change of one or more snapshots together with the account methods that repeat it, such as a
+     * {@link #debit(String, BigDecimal)} followed by {@code Savings.withdraw}, as one step. No legacy change runs in
+     * between, so none can see a Balance that does not show the debit yet and spend the same money again.
+     * @param change the change and the account methods
+     * @param <T> the type of the result of the change
+     * @return the result of the change
+     * @throws IOException if the change throws an IOException
+     */
+    public static <T> T atomically(LegacyChange<T> change) throws IOException {
+        synchronized (legacyLock) {
+            return change.apply();
+        }
+    }
+
+    /**
+     * Copies the newest snapshot into a Balance. Publishing is serialized, so a slow caller can never overwrite the
+     * Balance with an older snapshot than the one a faster caller already published.
+     * @param legacy the balance to update
+     */
+    public void publishTo(Balance legacy) {
+        synchronized (legacyLock) {
+            Snapshot snapshot = current.get();
+            legacy.setSGD(snapshot.getSGD());
+            legacy.setMYR(snapshot.getMYR());
+            legacy.setAUD(snapshot.getAUD());
+            legacy.setUSD(snapshot.getUSD());
+            legacy.setGBP(snapshot.getGBP());
+        }
+    }
+
+    /**
+     * Adds a difference to every currency as one change. A difference that would take a currency below zero is
+     * refused; any other difference retries until it succeeds.
+     * @param deltas the difference for each currency in the order of {@link #CURRENCIES}; null means no change
+     * @return the installed snapshot
+     * @throws IllegalStateException if a negative difference would take a currency below zero
+     */
+    private Snapshot add(BigDecimal[] deltas) {
+        for (int attempt = 1; ; attempt++) {
+            Snapshot expected = current.get();
+            BigDecimal[] amounts = expected.amounts.clone();
+            for (int i = 0; i < amounts.length; i++) {
+                if (deltas[i] != null) {
+                    amounts[i] = amounts[i].add(deltas[i]);
+                    if (deltas[i].signum() < 0 && amounts[i].signum() < 0) {
+                        throw new IllegalStateException("Taking " + deltas[i].negate() + " " + CURRENCIES[i]
+                                + " would overdraw the balance of " + expected.amounts[i]);
+                    }
+                }
+            }
+            Snapshot update = new Snapshot(expected.version + 1, amounts);
+            if (current.compareAndSet(expected, update)) {
+                return update;
+            }
+            retries.increment();
+            policy.pause(attempt);
+        }
+    }
+
+    /**
+     * Gets the position of a currency in {@link #CURRENCIES}.
+     * @param currency the currency, such as "SGD"
+     * @return the position of the currency
+     */
+    static int indexOf(String currency) {
+        for (int i = 0; i < CURRENCIES.length; i++) {
+            if (CURRENCIES[i].equals(currency)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown currency: " + currency);
+    }
+
+    /**
+     * Code that changes a Balance without going through a VersionedBalance.
+     * @param <T> the type of the result of the code
+     */
+    public interface LegacyChange<T> {
+
+        /**
+         * Runs the code.
+         * @return the result of the code
+         * @throws IOException if the code cannot save the change
+         */
+        T apply() throws IOException;
+    }
+
+    /**
+     * The amounts of an account in every currency as of one version. Snapshots are immutable.
+     */
+    public static final class Snapshot {
+
+        /**
+         * The version, increased by one with every change.
+         */
+        private final long version;
+
+        /**
+         * The amounts, in the order of {@link VersionedBalance#CURRENCIES}.
+         */
+        private final BigDecimal[] amounts;
+
+        /**
+         * Constructs a new Snapshot.
+         * @param version the version
+         * @param amounts the amounts, which must not be changed afterwards
+         */
+        private Snapshot(long version, BigDecimal[] amounts) {
+            this.version = version;
+            this.amounts = amounts;
+        }
+
+        /**
+         * Creates a snapshot from the amounts of a Balance. Missing amounts are taken as zero.
+         * @param version the version
+         * @param balance the balance to copy
+         * @return the snapshot
+         */
+        static Snapshot of(long version, Balance balance) {
+            BigDecimal[] amounts = { balance.getSGD(), balance.getMYR(), balance.getAUD(), balance.getUSD(),
+                    balance.getGBP() };
+            for (int i = 0; i < amounts.length; i++) {
+                if (amounts[i] == null) {
+                    amounts[i] = BigDecimal.ZERO;
+                }
+            }
+            return new Snapshot(version, amounts);
+        }
+
+        /**
+         * Creates the next snapshot with one amount changed.
+         * @param index the position of the currency
+         * @param amount the new amount
+         * @return the next snapshot
+         */
+        Snapshot with(int index, BigDecimal amount) {
+            BigDecimal[] next = amounts.clone();
+            next[index] = amount;
+            return new Snapshot(version + 1, next);
+        }
+
+        /**
+         * Gets the version.
+         * @return the version
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * Gets the amount in one currency.
+         * @param currency the currency, such as "SGD"
+         * @return the amount
+         */
+        public BigDecimal get(String currency) {
+            return amounts[indexOf(currency)];
+        }
+
+        /**
+         * Gets the amount in Singapore dollars.
+         * @return the amount
+         */
+        public BigDecimal getSGD() {
+            return amounts[0];
+        }
+
+        /**
+         * Gets the amount in Malaysian ringgit.
+         * @return the amount
+         */
+        public BigDecimal getMYR() {
+            return amounts[1];
+        }
+
+        /**
+         * Gets the amount in Australian dollars.
+         * @return the amount
+         */
+        public BigDecimal getAUD() {
+            return amounts[2];
+        }
+
+        /**
+         * Gets the amount in US dollars.
+         * @return the amount
+         */
+        public BigDecimal getUSD() {
+            return amounts[3];
+        }
+
+        /**
+         * Gets the amount in British pounds.
+         * @return the amount
+         */
+        public BigDecimal getGBP() {
+            return amounts[4];
+        }
+    }
+}
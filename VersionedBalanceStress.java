@@ -0,0 +1,345 @@
+package com.sunshine;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@code VersionedBalanceStress} class checks that {@link VersionedBalance} neither loses nor creates money when
+ * many threads change the same accounts and the account methods sometimes fail.
+ * <p>
+ * Every thread repeats random deposits, withdrawals, transfers and repayments against a few accounts, the way the
+ * menus in {@link GUI} do them. The account methods are replaced by code that changes the {@link Balance} and then
+ * throws an IOException one time in ten, like a method whose CSV write fails after its change in memory. Deposits,
+ * withdrawals and transfers run through {@link VersionedBalance#atomically(VersionedBalance.LegacyChange)} and undo
+ * their snapshot change when that happens. Repayments check the funds in the Balance themselves, run through
+ * {@link VersionedBalance#applyLegacyChange(Balance, VersionedBalance.LegacyChange)} and keep what they changed.
+ * <p>
+ * The program runs twice. The first run starts every account with plenty of money. The second starts them with a few
+ * dollars and uses amounts of about the same size, so debits and repayments compete for the last of the money and a
+ * repayment that sees a Balance the snapshot has already spent would take the same money twice.
+ * <p>
+ * After each run the total of all snapshots must equal the starting total plus the deposits and minus the withdrawals
+ * and repayments that took effect, no snapshot may be negative, and every Balance must equal its snapshot. No
+ * repayment may pass its funds check for money the snapshot no longer holds, and no change may be refused for taking
+ * a snapshot below zero. The program prints the result and exits with status 1 if any check fails.
+ * <p>
+ * Usage example:
+ * <pre>
+ * java com.sunshine.VersionedBalanceStress [threads] [operations per thread]
+ * </pre>
+ *
+ * @version 1.0
+ */
+public class VersionedBalanceStress {
+
+    /**
+     * The number of accounts.
+     */
+    private static final int ACCOUNTS = 4;
+
+    /**
+     * The SGD amount every account starts with in the first run, in cents.
+     */
+    private static final long OPENING_CENTS = 100000;
+
+    /**
+     * The largest amount of one operation in the first run, in cents.
+     */
+    private static final int MAX_AMOUNT_CENTS = 5000;
+
+    /**
+     * The SGD amount every account starts with in the second run, in cents.
+     */
+    private static final long LOW_OPENING_CENTS = 300;
+
+    /**
+     * The largest amount of one operation in the second run, in cents.
+     */
+    private static final int LOW_MAX_AMOUNT_CENTS = 200;
+
+    /**
+     * How often an account method fails, as one in this many calls.
+     */
+    private static final int FAILURE_ODDS = 10;
+
+    /**
+     * The balances the account methods change.
+     */
+    private final Balance[] legacy = new Balance[ACCOUNTS];
+
+    /**
+     * The snapshots of the accounts.
+     */
+    private final VersionedBalance[] cells = new VersionedBalance[ACCOUNTS];
+
+    /**
+     * The SGD amount every account starts with, in cents.
+     */
+    private final long openingCents;
+
+    /**
+     * The largest amount of one operation, in cents.
+     */
+    private final int maxAmountCents;
+
+    /**
+     * The money that came in through deposits that took effect, in cents.
+     */
+    private final AtomicLong deposited = new AtomicLong();
+
+    /**
+     * The money that left through withdrawals that took effect, in cents.
+     */
+    private final AtomicLong withdrawn = new AtomicLong();
+
+    /**
+     * The money that left through repayments that took effect, in cents.
+     */
+    private final AtomicLong repaid = new AtomicLong();
+
+    /**
+     * The problems found while the threads ran.
+     */
+    private final List<String> problems = Collections.synchronizedList(new ArrayList<String>());
+
+    /**
+     * Constructs a new VersionedBalanceStress with every account at its opening balance.
+     * @param openingCents the SGD amount every account starts with, in cents
+     * @param maxAmountCents the largest amount of one operation, in cents
+     */
+    VersionedBalanceStress(long openingCents, int maxAmountCents) {
+        this.openingCents = openingCents;
+        this.maxAmountCents = maxAmountCents;
+        for (int i = 0; i < ACCOUNTS; i++) {
+            legacy[i] = new Balance();
+            legacy[i].setSGD(BigDecimal.valueOf(openingCents, 2));
+            cells[i] = new VersionedBalance(legacy[i], BackoffPolicy.shared());
+        }
+    }
+
+    /**
+     * Runs the check, first with plenty of money and then with the accounts near zero.
+     * @param args the number of threads and the number of operations per thread, both optional
+     * @throws InterruptedException if interrupted while waiting for the threads
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int operations = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        VersionedBalanceStress plenty = new VersionedBalanceStress(OPENING_CENTS, MAX_AMOUNT_CENTS);
+        plenty.run(threads, operations);
+        boolean passed = plenty.verify();
+        VersionedBalanceStress low = new VersionedBalanceStress(LOW_OPENING_CENTS, LOW_MAX_AMOUNT_CENTS);
+        low.run(threads, operations);
+        passed &= low.verify();
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs the operations on several threads and waits for them to finish.
+     * @param threads the number of threads
+     * @param operations the number of operations per thread
+     * @throws InterruptedException if interrupted while waiting for the threads
+     */
+    void run(int threads, int operations) throws InterruptedException {
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                for (int n = 0; n < operations; n++) {
+                    step();
+                }
+            }, "stress-" + t);
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+    }
+
+    /**
+     * Performs one random operation. Failures of the account methods are expected and ignored; a change refused for
+     * taking a snapshot below zero is reported as a problem.
+     */
+    private void step() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int from = random.nextInt(ACCOUNTS);
+        int to = (from + 1 + random.nextInt(ACCOUNTS - 1)) % ACCOUNTS;
+        long cents = 1 + random.nextInt(maxAmountCents);
+        try {
+            switch (random.nextInt(4)) {
+            case 0:
+                deposit(from, cents);
+                break;
+            case 1:
+                withdraw(from, cents);
+                break;
+            case 2:
+                transfer(from, to, cents);
+                break;
+            default:
+                repay(from, cents);
+                break;
+            }
+        } catch (IOException e) {
+            // The account method failed, which the operation has already undone
+        } catch (IllegalStateException e) {
+            problems.add(Thread.currentThread().getName() + " overdrew a snapshot: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Deposits money the way the deposit menu does.
+     * @param account the account
+     * @param cents the amount, in cents
+     * @throws IOException if the account method failed
+     */
+    private void deposit(int account, long cents) throws IOException {
+        BigDecimal amount = BigDecimal.valueOf(cents, 2);
+        VersionedBalance cell = cells[account];
+        VersionedBalance.atomically(() -> {
+            cell.credit("SGD", amount);
+            try {
+                change(legacy[account], amount);
+                deposited.addAndGet(cents);
+            } catch (IOException | RuntimeException e) {
+                cell.credit("SGD", amount.negate());
+                throw e;
+            } finally {
+                cell.publishTo(legacy[account]);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Withdraws money the way the withdrawal menu does.
+     * @param account the account
+     * @param cents the amount, in cents
+     * @throws IOException if the account method failed
+     */
+    private void withdraw(int account, long cents) throws IOException {
+        BigDecimal amount = BigDecimal.valueOf(cents, 2);
+        VersionedBalance cell = cells[account];
+        VersionedBalance.atomically(() -> {
+            if (cell.debit("SGD", amount) == null) {
+                return false;
+            }
+            try {
+                change(legacy[account], amount.negate());
+                withdrawn.addAndGet(cents);
+            } catch (IOException | RuntimeException e) {
+                cell.credit("SGD", amount);
+                throw e;
+            } finally {
+                cell.publishTo(legacy[account]);
+            }
+            return true;
+        });
+    }
+
+    /**
+     * Transfers money the way the transfer menu does.
+     * @param from the account to take from
+     * @param to the account to add to
+     * @param cents the amount, in cents
+     * @throws IOException if the account method failed
+     */
+    private void transfer(int from, int to, long cents) throws IOException {
+        BigDecimal amount = BigDecimal.valueOf(cents, 2);
+        VersionedBalance.atomically(() -> {
+            if (cells[from].debit("SGD", amount) == null) {
+                return false;
+            }
+            try {
+                legacy[from].setSGD(legacy[from].getSGD().subtract(amount));
+                change(legacy[to], amount);
+                cells[to].credit("SGD", amount);
+            } catch (IOException | RuntimeException e) {
+                cells[from].credit("SGD", amount);
+                throw e;
+            } finally {
+                cells[from].publishTo(legacy[from]);
+                cells[to].publishTo(legacy[to]);
+            }
+            return true;
+        });
+    }
+
+    /**
+     * Repays money the way the loan menu does, with a method that checks the Balance itself.
+     * @param account the account
+     * @param cents the amount, in cents
+     * @throws IOException if the account method failed
+     */
+    private void repay(int account, long cents) throws IOException {
+        BigDecimal amount = BigDecimal.valueOf(cents, 2);
+        Balance balance = legacy[account];
+        cells[account].applyLegacyChange(balance, () -> {
+            if (balance.getSGD().compareTo(amount) < 0) {
+                return false;
+            }
+            if (cells[account].snapshot().getSGD().compareTo(amount) < 0) {
+                problems.add("a repayment of " + amount + " passed its funds check on money already spent");
+            }
+            repaid.addAndGet(cents);
+            change(balance, amount.negate());
+            return true;
+        });
+    }
+
+    /**
+     * Adds an amount to a Balance and then fails one time in {@value #FAILURE_ODDS}, like an account method whose CSV
+     * write fails.
+     * @param balance the balance
+     * @param amount the amount to add
+     * @throws IOException if the simulated write fails
+     */
+    private static void change(Balance balance, BigDecimal amount) throws IOException {
+        balance.setSGD(balance.getSGD().add(amount));
+        if (ThreadLocalRandom.current().nextInt(FAILURE_ODDS) == 0) {
+            throw new IOException("Simulated write failure");
+        }
+    }
+
+    /**
+     * Checks that money was conserved and that every Balance matches its snapshot, and prints the result.
+     * @return true if every check passed
+     */
+    boolean verify() {
+        BigDecimal total = BigDecimal.ZERO;
+        boolean passed = problems.isEmpty();
+        for (String problem : problems) {
+            System.out.println(problem);
+        }
+        for (int i = 0; i < ACCOUNTS; i++) {
+            BigDecimal amount = cells[i].snapshot().getSGD();
+            total = total.add(amount);
+            if (amount.signum() < 0) {
+                System.out.println("Account " + i + " is negative: " + amount);
+                passed = false;
+            }
+            if (amount.compareTo(legacy[i].getSGD()) != 0) {
+                System.out.println("Account " + i + " snapshot " + amount + " differs from its Balance "
+                        + legacy[i].getSGD());
+                passed = false;
+            }
+        }
+        BigDecimal expected = BigDecimal.valueOf(openingCents * ACCOUNTS + deposited.get() - withdrawn.get()
+                - repaid.get(), 2);
+        if (total.compareTo(expected) != 0) {
+            System.out.println("Total " + total + " differs from the expected " + expected);
+            passed = false;
+        }
+        System.out.println((passed ? "PASSED" : "FAILED") + ": opening " + BigDecimal.valueOf(openingCents, 2)
+                + ", total " + total + ", deposited " + BigDecimal.valueOf(deposited.get(), 2) + ", withdrawn "
+                + BigDecimal.valueOf(withdrawn.get(), 2) + ", repaid " + BigDecimal.valueOf(repaid.get(), 2)
+                + ", retries " + VersionedBalance.getRetryCount());
+        return passed;
+    }
+}